@@ -19,6 +19,8 @@ package com.epishie.rehash.test;
 import android.content.Context;
 import android.view.View;
 
+import com.epishie.rehash.view.widget.LayoutTextView;
+
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
@@ -53,4 +55,25 @@ public class ViewMatchers {
             }
         };
     }
+
+    /**
+     * Returns a matcher that matches {@link LayoutTextView} based on its text
+     * @param text The text
+     * @return The matcher
+     */
+    public static Matcher<View> withLayoutText(final String text) {
+        return new TypeSafeMatcher<View>() {
+
+            @Override
+            protected boolean matchesSafely(View item) {
+                return item instanceof LayoutTextView
+                        && text.equals(((LayoutTextView) item).getText().toString());
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("with layout text: " + text);
+            }
+        };
+    }
 }
@@ -17,6 +17,7 @@
 package com.epishie.rehash.view;
 
 import android.app.Instrumentation;
+import android.content.Context;
 import android.content.Intent;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.rule.ActivityTestRule;
@@ -60,7 +61,7 @@ public class StoryDetailActivityTest {
         Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
         Rehash app = (Rehash) instrumentation.getTargetContext().getApplicationContext();
         AppComponent component = DaggerAppComponent.builder()
-                .appModule(new TestAppModule(mActionBus))
+                .appModule(new TestAppModule(app, mActionBus))
                 .build();
         app.setComponent(component);
     }
@@ -108,7 +109,8 @@ public class StoryDetailActivityTest {
     private static class TestAppModule extends AppModule {
         private final RxEventBus mActionBus;
 
-        private TestAppModule(RxEventBus actionBus) {
+        private TestAppModule(Context context, RxEventBus actionBus) {
+            super(context);
             mActionBus = actionBus;
         }
 
@@ -17,6 +17,7 @@
 package com.epishie.rehash.view;
 
 import android.app.Instrumentation;
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
@@ -61,6 +62,7 @@ import static android.support.test.espresso.matcher.ViewMatchers.isDisplayed;
 import static android.support.test.espresso.matcher.ViewMatchers.withContentDescription;
 import static android.support.test.espresso.matcher.ViewMatchers.withText;
 import static com.epishie.rehash.test.ViewMatchers.withId;
+import static com.epishie.rehash.test.ViewMatchers.withLayoutText;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.core.AllOf.allOf;
 import static org.junit.Assert.*;
@@ -84,7 +86,7 @@ public class TopStoriesActivityTest {
         Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
         Rehash app = (Rehash) instrumentation.getTargetContext().getApplicationContext();
         AppComponent component = DaggerAppComponent.builder()
-                .appModule(new TestAppModule(mActionBus, mDataBus))
+                .appModule(new TestAppModule(app, mActionBus, mDataBus))
                 .build();
         app.setComponent(component);
     }
@@ -122,7 +124,7 @@ public class TopStoriesActivityTest {
         for (int i = 0; i < 5; i++) {
             Story story = mStories.get(i);
             onView(withId("list")).perform(scrollToPosition(i++));
-            onView(allOf(isDescendantOfA(withId("list")), withText(story.getTitle())))
+            onView(allOf(isDescendantOfA(withId("list")), withLayoutText(story.getTitle())))
                     .check(matches(isDisplayed()));
         }
     }
@@ -264,7 +266,8 @@ public class TopStoriesActivityTest {
         private final RxEventBus mActionBus;
         private final RxEventBus mDataBus;
 
-        private TestAppModule(RxEventBus actionBus, RxEventBus dataBus) {
+        private TestAppModule(Context context, RxEventBus actionBus, RxEventBus dataBus) {
+            super(context);
             mActionBus = actionBus;
             mDataBus = dataBus;
         }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.adapter;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+
+import com.epishie.rehash.R;
+import com.epishie.rehash.di.AppModule;
+import com.epishie.rehash.model.Story;
+import com.epishie.rehash.util.SchedulerService;
+import com.epishie.rehash.util.TimeLabels;
+import com.epishie.rehash.view.widget.TextLayoutCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopStoriesAdapterTest {
+
+    private static final int REBIND_COUNT = 100;
+
+    private SchedulerService mSchedulers;
+    private TopStoriesAdapter mAdapter;
+    private RecyclerView mParent;
+
+    @Before
+    public void setUp() {
+        final Context context = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        // The same layout cache, schedulers and time labels as TopStoriesActivity
+        AppModule module = new AppModule(context);
+        mSchedulers = module.provideSchedulerService();
+        final TextLayoutCache layouts = module.provideStoriesTextLayoutCache(mSchedulers);
+        final TimeLabels timeLabels = module.provideTimeLabels();
+        final List<Story> stories = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            stories.add(new Story.Builder()
+                    .setId(i)
+                    .setTitle("Story #" + i)
+                    .setAuthor("epishie")
+                    .setScore(i)
+                    .setTime(new Date())
+                    .setUrl("http://host" + i + ".com/story")
+                    .build());
+        }
+        // Adapters and views are only touched on the main thread, as in the activity
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                mParent = new RecyclerView(context);
+                mParent.setLayoutManager(new LinearLayoutManager(context));
+                mAdapter = new TopStoriesAdapter(layouts, mSchedulers.computation(), timeLabels);
+                mParent.setAdapter(mAdapter);
+                mAdapter.setDataEnded(true);
+                mAdapter.addStories(stories);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @After
+    public void tearDown() {
+        mSchedulers.shutdown();
+    }
+
+    @Test
+    public void rebindsCachedStoryWithoutAllocating() {
+        final int[] allocCount = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                RecyclerView.ViewHolder holder = mAdapter.onCreateViewHolder(mParent, mAdapter.getItemViewType(0));
+                mAdapter.onBindViewHolder(holder, 0);
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < REBIND_COUNT; i++) {
+                    mAdapter.onBindViewHolder(holder, 0);
+                }
+                allocCount[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+
+        assertEquals(0, allocCount[0]);
+    }
+
+    @Test
+    public void bindsAnotherStoryToARecycledRow() {
+        final CharSequence[] texts = new CharSequence[2];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+
+            @Override
+            public void run() {
+                TopStoriesAdapter.StoryViewHolder holder = (TopStoriesAdapter.StoryViewHolder)
+                        mAdapter.onCreateViewHolder(mParent, mAdapter.getItemViewType(0));
+                mAdapter.onBindViewHolder(holder, 0);
+                mAdapter.onBindViewHolder(holder, 1);
+                texts[0] = holder.mTitleText.getText();
+                texts[1] = holder.mUrlText.getText();
+            }
+        });
+
+        assertEquals("Story #2", texts[0].toString());
+        assertEquals("host2.com", texts[1].toString());
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.widget;
+
+import android.support.test.InstrumentationRegistry;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.*;
+
+public class LayoutTextViewTest {
+
+    private TextLayoutCache mCache;
+    private LayoutTextView mView;
+
+    @Before
+    public void setUp() {
+        mCache = new TextLayoutCache(Schedulers.immediate(), 10);
+        mView = new LayoutTextView(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void exposesItsTextToAccessibility() {
+        mView.setText(1, "Comment #1", mCache);
+        AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+
+        mView.onInitializeAccessibilityNodeInfo(info);
+
+        assertEquals("Comment #1", info.getText().toString());
+        assertEquals(TextView.class.getName(), info.getClassName().toString());
+        assertEquals("Comment #1", mView.getContentDescription().toString());
+        info.recycle();
+    }
+}
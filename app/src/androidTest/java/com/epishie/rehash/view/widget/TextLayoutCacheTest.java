@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.widget;
+
+import android.support.test.InstrumentationRegistry;
+import android.text.Layout;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.*;
+
+public class TextLayoutCacheTest {
+
+    private static final int WIDTH = 480;
+
+    private TextLayoutCache mCache;
+    private LayoutTextView mView;
+
+    @Before
+    public void setUp() {
+        mCache = new TextLayoutCache(Schedulers.immediate(), 10);
+        mView = new LayoutTextView(InstrumentationRegistry.getTargetContext());
+    }
+
+    @Test
+    public void measuresWithTheLayoutLaidOutAhead() {
+        mView.setText(1, "Story #1", mCache);
+        measure(mView);
+        String text = "Story #2";
+
+        mCache.precompute(2, text, WIDTH);
+        mView.setText(2, text, mCache);
+        measure(mView);
+
+        assertEquals(1, mCache.getLayoutCount());
+        assertEquals(1, mCache.getPrecomputeCount());
+        assertSame(mCache.obtain(2, text, mView.getPaint(), WIDTH), mCache.obtain(2, text, mView.getPaint(), WIDTH));
+    }
+
+    @Test
+    public void doesNotLayOutAheadBeforeAViewWasLaidOut() {
+        mCache.precompute(1, "Story #1", WIDTH);
+
+        assertEquals(0, mCache.getPrecomputeCount());
+    }
+
+    @Test
+    public void laysOutAgainForAnotherTextOrWidth() {
+        String text = "Story #1";
+        Layout layout = mCache.obtain(1, text, mView.getPaint(), WIDTH);
+
+        Layout changed = mCache.obtain(1, "Story #1, edited", mView.getPaint(), WIDTH);
+        Layout narrower = mCache.obtain(1, "Story #1, edited", mView.getPaint(), WIDTH / 2);
+
+        assertNotSame(layout, changed);
+        assertNotSame(changed, narrower);
+        assertEquals(WIDTH / 2, narrower.getWidth());
+        assertEquals(3, mCache.getLayoutCount());
+    }
+
+    private static void measure(LayoutTextView view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+    }
+}
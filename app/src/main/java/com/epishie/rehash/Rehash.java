@@ -19,6 +19,7 @@ package com.epishie.rehash;
 import android.app.Application;
 
 import com.epishie.rehash.di.AppComponent;
+import com.epishie.rehash.di.AppModule;
 import com.epishie.rehash.di.DaggerAppComponent;
 import com.epishie.rehash.di.HasComponent;
 import com.epishie.rehash.store.CommentsStore;
@@ -39,7 +40,9 @@ public class Rehash extends Application implements HasComponent<AppComponent> {
         super.onCreate();
 
         // SETUP DI
-        mComponent = DaggerAppComponent.create();
+        mComponent = DaggerAppComponent.builder()
+                .appModule(new AppModule(this))
+                .build();
         mComponent.injectApplication(this);
     }
 
@@ -30,6 +30,10 @@ public class ActionCreator {
         mActionBus.post(new GetStoriesAction(refresh, count));
     }
 
+    public void createGetStoriesAction(boolean refresh, int count, long request) {
+        mActionBus.post(new GetStoriesAction(refresh, count, request));
+    }
+
     public void createOpenStoryAction(int id) {
         mActionBus.post(new OpenStoryAction(id));
     }
@@ -38,4 +42,12 @@ public class ActionCreator {
         mActionBus.post(new GetCommentsAction(storyId, refresh, count));
 
     }
+
+    public void createGetCommentsAction(int storyId, boolean firstPage, boolean refresh, int count) {
+        mActionBus.post(new GetCommentsAction(storyId, firstPage, refresh, count));
+    }
+
+    public void createGetCommentsAction(int storyId, boolean firstPage, boolean refresh, int count, long request) {
+        mActionBus.post(new GetCommentsAction(storyId, firstPage, refresh, count, request));
+    }
 }
@@ -19,19 +19,44 @@ package com.epishie.rehash.action;
 public class GetCommentsAction {
 
     private final int mStoryId;
+    private final boolean mFirstPage;
     private final boolean mRefresh;
     private final int mCount;
+    private final long mRequest;
 
     public GetCommentsAction(int storyId, boolean refresh, int count) {
+        this(storyId, refresh, refresh, count);
+    }
+
+    /**
+     * @param firstPage whether the comments start over from the first one
+     * @param refresh whether the comments start over and are fetched again instead of served from
+     *                the cache
+     */
+    public GetCommentsAction(int storyId, boolean firstPage, boolean refresh, int count) {
+        this(storyId, firstPage, refresh, count, 0);
+    }
+
+    /**
+     * @param request number the page of comments is tagged with, so that it can be told from the
+     *                pages of other requests
+     */
+    public GetCommentsAction(int storyId, boolean firstPage, boolean refresh, int count, long request) {
         mStoryId = storyId;
+        mFirstPage = firstPage || refresh;
         mRefresh = refresh;
         mCount = count;
+        mRequest = request;
     }
 
     public int getStoryId() {
         return mStoryId;
     }
 
+    public boolean isFirstPage() {
+        return mFirstPage;
+    }
+
     public boolean isRefresh() {
         return mRefresh;
     }
@@ -39,4 +64,8 @@ public class GetCommentsAction {
     public int getCount() {
         return mCount;
     }
+
+    public long getRequest() {
+        return mRequest;
+    }
 }
@@ -20,10 +20,20 @@ public class GetStoriesAction {
 
     private final boolean mRefresh;
     private final int mCount;
+    private final long mRequest;
 
     public GetStoriesAction(boolean refresh, int count) {
+        this(refresh, count, 0);
+    }
+
+    /**
+     * @param request number the page of stories is tagged with, so that it can be told from the
+     *                pages of other requests
+     */
+    public GetStoriesAction(boolean refresh, int count, long request) {
         mRefresh = refresh;
         mCount = count;
+        mRequest = request;
     }
 
     public boolean isRefresh() {
@@ -33,4 +43,8 @@ public class GetStoriesAction {
     public int getCount() {
         return mCount;
     }
+
+    public long getRequest() {
+        return mRequest;
+    }
 }
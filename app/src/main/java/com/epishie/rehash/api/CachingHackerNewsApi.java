@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+import com.epishie.rehash.util.IntSet;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+/**
+ * HackerNewsApi that serves records from an ItemStore and revalidates them against the network in
+ * the background.
+ *
+ * <p>Items on disk are returned right away and refetched in the background once they are older
+ * than the max age. The top stories are served from disk only on the first request, so that a
+ * cold start can paint immediately while later requests, such as a refresh, go to the network
+ * and fall back to disk when it is unreachable. Refreshed items do the same.</p>
+ */
+public class CachingHackerNewsApi implements HackerNewsApi {
+
+    private final HackerNewsApi mApi;
+    private final ItemStore mStore;
+    private final Scheduler mScheduler;
+    private final long mMaxAge;
+    // Ids of the records being revalidated, guarded by itself
+    private final IntSet mRevalidating;
+    private boolean mTopStoriesServed;
+
+    /**
+     * @param api api used to fetch and revalidate records
+     * @param store disk store of records
+     * @param scheduler scheduler on which revalidation runs, also used as the clock
+     * @param maxAge age in milliseconds after which a record served from disk is revalidated
+     */
+    public CachingHackerNewsApi(HackerNewsApi api, ItemStore store, Scheduler scheduler, long maxAge) {
+        mApi = api;
+        mStore = store;
+        mScheduler = scheduler;
+        mMaxAge = maxAge;
+        mRevalidating = new IntSet();
+    }
+
+    @Override
+    public List<Integer> getTopStories() {
+        boolean firstRequest;
+        synchronized (this) {
+            firstRequest = !mTopStoriesServed;
+            mTopStoriesServed = true;
+        }
+        if (firstRequest) {
+            List<Integer> topStories = mStore.readTopStories();
+            if (topStories != null) {
+                schedule(new Action0() {
+
+                    @Override
+                    public void call() {
+                        fetchTopStories();
+                    }
+                });
+                return topStories;
+            }
+        }
+        try {
+            return fetchTopStories();
+        } catch (RuntimeException e) {
+            List<Integer> topStories = mStore.readTopStories();
+            if (topStories == null) {
+                throw e;
+            }
+            return topStories;
+        }
+    }
+
+    @Override
+    public Updates getUpdates() {
+        return mApi.getUpdates();
+    }
+
+    @Override
+    public int getMaxItem() {
+        return mApi.getMaxItem();
+    }
+
+    @Override
+    public Item getItem(int id) {
+        return toItem(getRecords(new int[] {id}, Priority.VISIBLE)[0]);
+    }
+
+    @Override
+    public Item[] getItems(int[] ids) {
+        return getItems(ids, Priority.VISIBLE);
+    }
+
+    @Override
+    public Item[] getItems(int[] ids, Priority priority) {
+        return toItems(getRecords(ids, priority));
+    }
+
+    @Override
+    public Item[] refreshItems(int[] ids, Priority priority) {
+        ItemStore.Record[] records;
+        try {
+            records = fetchRecords(ids, priority, true);
+        } catch (RuntimeException e) {
+            records = new ItemStore.Record[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                records[i] = mStore.readItem(ids[i]);
+                if (records[i] == null) {
+                    throw e;
+                }
+            }
+        }
+        return toItems(records);
+    }
+
+    private ItemStore.Record[] getRecords(int[] ids, Priority priority) {
+        ItemStore.Record[] records = new ItemStore.Record[ids.length];
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        int[] stale = new int[ids.length];
+        int staleCount = 0;
+        long now = mScheduler.now();
+        for (int i = 0; i < ids.length; i++) {
+            records[i] = mStore.readItem(ids[i]);
+            if (records[i] == null) {
+                missing[missingCount++] = i;
+            } else if (now - records[i].fetchedAt > mMaxAge && startRevalidating(ids[i])) {
+                stale[staleCount++] = ids[i];
+            }
+        }
+        if (staleCount > 0) {
+            final int[] revalidated = Arrays.copyOf(stale, staleCount);
+            schedule(new Action0() {
+
+                @Override
+                public void call() {
+                    try {
+                        fetchRecords(revalidated, Priority.BACKGROUND, false);
+                    } finally {
+                        stopRevalidating(revalidated);
+                    }
+                }
+            });
+        }
+        if (missingCount > 0) {
+            int[] missingIds = new int[missingCount];
+            for (int i = 0; i < missingCount; i++) {
+                missingIds[i] = ids[missing[i]];
+            }
+            ItemStore.Record[] fetched = fetchRecords(missingIds, priority, false);
+            for (int i = 0; i < missingCount; i++) {
+                records[missing[i]] = fetched[i];
+            }
+        }
+        return records;
+    }
+
+    private boolean startRevalidating(int id) {
+        synchronized (mRevalidating) {
+            return mRevalidating.add(id);
+        }
+    }
+
+    private void stopRevalidating(int[] ids) {
+        synchronized (mRevalidating) {
+            for (int id : ids) {
+                mRevalidating.remove(id);
+            }
+        }
+    }
+
+    private List<Integer> fetchTopStories() {
+        List<Integer> topStories = mApi.getTopStories();
+        if (topStories != null) {
+            mStore.writeTopStories(topStories);
+        }
+        return topStories;
+    }
+
+    private ItemStore.Record[] fetchRecords(int[] ids, Priority priority, boolean refresh) {
+        Item[] items = refresh ? mApi.refreshItems(ids, priority) : mApi.getItems(ids, priority);
+        ItemStore.Record[] records = new ItemStore.Record[ids.length];
+        long now = mScheduler.now();
+        for (int i = 0; i < ids.length; i++) {
+            Item item = items[i];
+            if (item == null) {
+                continue;
+            }
+            ItemStore.Record record = new ItemStore.Record();
+            record.fetchedAt = now;
+            record.id = item.id;
+            record.type = item.type;
+            record.parent = item.parent;
+            record.by = item.by;
+            record.time = item.time;
+            record.score = item.score;
+            record.title = item.title;
+            record.url = item.url;
+            record.text = item.text;
+            record.kids = item.kids;
+            mStore.writeItem(record);
+            records[i] = record;
+        }
+        return records;
+    }
+
+    private static Item[] toItems(ItemStore.Record[] records) {
+        Item[] items = new Item[records.length];
+        for (int i = 0; i < records.length; i++) {
+            items[i] = toItem(records[i]);
+        }
+        return items;
+    }
+
+    private static Item toItem(ItemStore.Record record) {
+        if (record == null) {
+            return null;
+        }
+        Item item = new Item();
+        item.id = record.id;
+        item.type = record.type;
+        item.parent = record.parent;
+        item.title = record.title;
+        item.text = record.text;
+        item.by = record.by;
+        item.score = record.score;
+        item.url = record.url;
+        item.kids = record.kids;
+        item.time = record.time;
+        return item;
+    }
+
+    private void schedule(final Action0 action) {
+        final Scheduler.Worker worker = mScheduler.createWorker();
+        worker.schedule(new Action0() {
+
+            @Override
+            public void call() {
+                try {
+                    action.call();
+                } catch (RuntimeException e) {
+                    // Offline or failed, the record on disk is kept
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs fetches on an executor, at most a given number at a time and most important first. A fetch
+ * is not started while a more important one is queued or running, so that prefetches and
+ * background refreshes leave the connections to what the user is waiting for. A fetch that has
+ * already started is left to finish.
+ */
+final class FetchQueue {
+
+    private static final HackerNewsApi.Priority[] PRIORITIES = HackerNewsApi.Priority.values();
+
+    private final Executor mExecutor;
+    private final int mConcurrency;
+    // Queued and running fetches by priority ordinal
+    private final ArrayDeque<Runnable>[] mQueued;
+    private final int[] mRunning;
+    private int mRunningCount;
+
+    /**
+     * @param concurrency maximum number of fetches running at once
+     */
+    @SuppressWarnings("unchecked")
+    FetchQueue(Executor executor, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        mExecutor = executor;
+        mConcurrency = concurrency;
+        mQueued = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < mQueued.length; i++) {
+            mQueued[i] = new ArrayDeque<>();
+        }
+        mRunning = new int[PRIORITIES.length];
+    }
+
+    void execute(Runnable fetch, HackerNewsApi.Priority priority) {
+        synchronized (this) {
+            mQueued[priority.ordinal()].addLast(fetch);
+        }
+        drain();
+    }
+
+    /**
+     * Moves a fetch still queued behind less important ones up to the priority. Does nothing if it
+     * is already as important, or has started.
+     */
+    void promote(Runnable fetch, HackerNewsApi.Priority priority) {
+        synchronized (this) {
+            for (int i = priority.ordinal() + 1; i < mQueued.length; i++) {
+                if (mQueued[i].remove(fetch)) {
+                    // Ahead of the fetches queued at the priority, as it has waited longer
+                    mQueued[priority.ordinal()].addFirst(fetch);
+                    break;
+                }
+            }
+        }
+        drain();
+    }
+
+    synchronized int getQueuedCount(HackerNewsApi.Priority priority) {
+        return mQueued[priority.ordinal()].size();
+    }
+
+    synchronized int getRunningCount(HackerNewsApi.Priority priority) {
+        return mRunning[priority.ordinal()];
+    }
+
+    private void drain() {
+        while (true) {
+            final Runnable fetch;
+            final int priority;
+            synchronized (this) {
+                priority = nextPriority();
+                if (priority < 0) {
+                    return;
+                }
+                fetch = mQueued[priority].pollFirst();
+                mRunning[priority]++;
+                mRunningCount++;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            fetch.run();
+                        } finally {
+                            finished(priority);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                finished(priority);
+                throw e;
+            }
+        }
+    }
+
+    private void finished(int priority) {
+        synchronized (this) {
+            mRunning[priority]--;
+            mRunningCount--;
+        }
+        drain();
+    }
+
+    /**
+     * @return ordinal of the priority of the next fetch to start, or -1 if none may start yet
+     */
+    private int nextPriority() {
+        if (mRunningCount >= mConcurrency) {
+            return -1;
+        }
+        for (int i = 0; i < mQueued.length; i++) {
+            if (!mQueued[i].isEmpty()) {
+                return i;
+            }
+            if (mRunning[i] > 0) {
+                // Less important fetches wait for this one
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -18,38 +18,65 @@ package com.epishie.rehash.api;
 
 import java.util.List;
 
-public interface HackerNewsApi {
+public interface HackerNewsApi extends ItemFetcher {
 
     List<Integer> getTopStories();
-    Story getStory(int id);
-    Comment getComment(int id);
     Item getItem(int id);
 
-    class Story {
-        public int id;
-        public String title;
-        public String by;
-        public int score;
-        public long time;
-        public String url;
-        public String text;
-        public List<Integer> kids;
+    /**
+     * @return the items and profiles that changed recently
+     */
+    Updates getUpdates();
+
+    /**
+     * @return the largest item id so far
+     */
+    int getMaxItem();
+
+    /**
+     * Fetches several items at once as {@link Priority#VISIBLE}.
+     *
+     * @return the items in the order of the ids, with null for an item that does not exist
+     */
+    Item[] getItems(int[] ids);
+
+    /**
+     * Importance of a fetch, from most to least important.
+     */
+    enum Priority {
+        // Items on screen or about to be, that the user is waiting for
+        VISIBLE,
+        // Items the user is likely to need next
+        PREFETCH,
+        // Refreshes of items the user already has
+        BACKGROUND
     }
 
-    class Comment {
-        public int id;
-        public String text;
-        public String by;
-        public List<Integer> kids;
-        public long time;
+    class Updates {
+        public int[] items;
+        public String[] profiles;
     }
 
+    /**
+     * Any item of the item endpoint. Stories, comments, jobs and polls share one representation,
+     * told apart by their type, so that an item fetched for one screen can be served to another.
+     */
     class Item {
+        public static final String TYPE_STORY = "story";
+        public static final String TYPE_COMMENT = "comment";
+        public static final String TYPE_JOB = "job";
+        public static final String TYPE_POLL = "poll";
+        public static final String TYPE_POLL_OPTION = "pollopt";
+
         public int id;
+        public String type;
+        public String title;
         public String text;
         public String by;
-        public List<Integer> kids;
+        public int score;
+        public String url;
+        public int parent;
+        public int[] kids;
         public long time;
-        public int tag;
     }
 }
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import rx.Scheduler;
+
+/**
+ * Client that keeps the responses of GET requests on disk and revalidates them with the
+ * validators the server sent. A response still within its Cache-Control max-age is served
+ * without a request, and a stale one is requested with If-None-Match and If-Modified-Since, so
+ * that an unchanged response only costs a 304. A request marked Cache-Control: no-cache is always
+ * revalidated.
+ *
+ * <p>The cache is bounded by the bytes held on disk, and the least recently used responses are
+ * deleted first.</p>
+ */
+public class HttpCacheClient implements Client {
+
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_NOT_MODIFIED = 304;
+    private static final String GET = "GET";
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String CACHE_CONTROL = "Cache-Control";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_STORE = "no-store";
+    private static final String NO_CACHE = "no-cache";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final Client mClient;
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final Scheduler mClock;
+    private long mBytes = -1;
+    private long mRequestCount;
+    private long mNetworkCount;
+    private long mHitCount;
+    private long mConditionalHitCount;
+    private long mBytesSaved;
+
+    /**
+     * @param client client that makes the requests
+     * @param directory directory in which the responses are kept
+     * @param maxBytes maximum size in bytes of the responses kept on disk
+     * @param clock source of the current time
+     */
+    public HttpCacheClient(Client client, File directory, long maxBytes, Scheduler clock) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1");
+        }
+        mClient = client;
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mClock = clock;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        synchronized (this) {
+            mRequestCount++;
+        }
+        if (!GET.equals(request.getMethod())) {
+            return network(request);
+        }
+        String key = key(request.getUrl());
+        Entry entry = read(key);
+        long now = mClock.now();
+        String cacheControl = header(request.getHeaders(), CACHE_CONTROL);
+        boolean noCache = cacheControl != null && cacheControl.contains(NO_CACHE);
+        if (entry != null && !noCache && entry.mMaxAge >= 0 && now - entry.mStoredAt <= entry.mMaxAge * 1000) {
+            synchronized (this) {
+                mHitCount++;
+                mBytesSaved += entry.mBody.length;
+            }
+            return entry.toResponse();
+        }
+
+        List<Header> headers = new ArrayList<>(request.getHeaders());
+        if (entry != null && entry.mETag != null) {
+            headers.add(new Header(IF_NONE_MATCH, entry.mETag));
+        }
+        if (entry != null && entry.mLastModified != null) {
+            headers.add(new Header(IF_MODIFIED_SINCE, entry.mLastModified));
+        }
+        Response response = network(new Request(request.getMethod(), request.getUrl(), headers,
+                request.getBody()));
+
+        if (response.getStatus() == STATUS_NOT_MODIFIED && entry != null) {
+            consume(response.getBody());
+            synchronized (this) {
+                mConditionalHitCount++;
+                mBytesSaved += entry.mBody.length;
+            }
+            entry.update(response.getHeaders(), now);
+            write(key, entry);
+            return entry.toResponse();
+        }
+        if (response.getStatus() != STATUS_OK) {
+            return response;
+        }
+        byte[] body = readFully(response.getBody());
+        Entry fetched = new Entry(request.getUrl(), response.getHeaders(), body, now);
+        if (fetched.isCacheable()) {
+            write(key, fetched);
+        } else if (entry != null) {
+            delete(new File(mDirectory, key));
+        }
+        return fetched.toResponse();
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return number of requests that went to the network, including revalidations
+     */
+    public synchronized long getNetworkCount() {
+        return mNetworkCount;
+    }
+
+    /**
+     * @return number of requests served from disk without going to the network
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of requests answered with a 304 and served from disk
+     */
+    public synchronized long getConditionalHitCount() {
+        return mConditionalHitCount;
+    }
+
+    /**
+     * @return bytes of response bodies served from disk instead of downloaded
+     */
+    public synchronized long getBytesSaved() {
+        return mBytesSaved;
+    }
+
+    private Response network(Request request) throws IOException {
+        synchronized (this) {
+            mNetworkCount++;
+        }
+        return mClient.execute(request);
+    }
+
+    private Entry read(String key) {
+        File file = new File(mDirectory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            Entry entry = Entry.read(in);
+            // Recently read responses are the last to be deleted
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    private void write(String key, Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = new File(mDirectory, key);
+        File temp = new File(mDirectory, key + TEMP_SUFFIX + Thread.currentThread().getId());
+        boolean written = false;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeByte(VERSION);
+            entry.write(out);
+            out.close();
+            out = null;
+            written = true;
+        } catch (IOException e) {
+            // Treated as not stored
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failed
+                }
+            }
+        }
+        synchronized (this) {
+            long previous = file.length();
+            if (!written || !temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                return;
+            }
+            if (mBytes >= 0) {
+                mBytes += file.length() - previous;
+            }
+            trim();
+        }
+    }
+
+    private synchronized void delete(File file) {
+        long length = file.length();
+        if (file.delete() && mBytes >= 0) {
+            mBytes -= length;
+        }
+    }
+
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (mBytes < 0) {
+            mBytes = 0;
+            for (File file : files) {
+                mBytes += file.length();
+            }
+        }
+        if (mBytes <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && mBytes > mMaxBytes; i++) {
+            long length = files[i].length();
+            if (!files[i].getName().contains(TEMP_SUFFIX) && files[i].delete()) {
+                mBytes -= length;
+            }
+        }
+    }
+
+    private static String key(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFully(TypedInput body) throws IOException {
+        if (body == null) {
+            return new byte[0];
+        }
+        if (body instanceof TypedByteArray) {
+            return ((TypedByteArray) body).getBytes();
+        }
+        InputStream in = body.in();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length() > 0 ? (int) body.length() : 4096);
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void consume(TypedInput body) throws IOException {
+        if (body != null) {
+            body.in().close();
+        }
+    }
+
+    private static String header(List<Header> headers, String name) {
+        for (Header header : headers) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+
+        private final String mUrl;
+        private final String mMimeType;
+        private final byte[] mBody;
+        private String mETag;
+        private String mLastModified;
+        private boolean mNoStore;
+        private long mMaxAge;
+        private long mStoredAt;
+
+        private Entry(String url, String mimeType, byte[] body) {
+            mUrl = url;
+            mMimeType = mimeType;
+            mBody = body;
+        }
+
+        private Entry(String url, List<Header> headers, byte[] body, long now) {
+            this(url, mimeType(headers), body);
+            update(headers, now);
+        }
+
+        /**
+         * Takes the validators and freshness of a response, keeping the validators a 304 left out.
+         */
+        private void update(List<Header> headers, long now) {
+            String eTag = header(headers, ETAG);
+            String lastModified = header(headers, LAST_MODIFIED);
+            mETag = eTag != null ? eTag : mETag;
+            mLastModified = lastModified != null ? lastModified : mLastModified;
+            mMaxAge = -1;
+            mNoStore = false;
+            String cacheControl = header(headers, CACHE_CONTROL);
+            if (cacheControl != null) {
+                for (String directive : cacheControl.split(",")) {
+                    directive = directive.trim();
+                    if (directive.equals(NO_STORE)) {
+                        mNoStore = true;
+                    } else if (directive.startsWith(MAX_AGE)) {
+                        try {
+                            mMaxAge = Long.parseLong(directive.substring(MAX_AGE.length()));
+                        } catch (NumberFormatException e) {
+                            mMaxAge = -1;
+                        }
+                    }
+                }
+            }
+            mStoredAt = now;
+        }
+
+        private boolean isCacheable() {
+            return !mNoStore && (mETag != null || mLastModified != null || mMaxAge > 0);
+        }
+
+        private Response toResponse() {
+            List<Header> headers = new ArrayList<>();
+            headers.add(new Header(CONTENT_TYPE, mMimeType));
+            if (mETag != null) {
+                headers.add(new Header(ETAG, mETag));
+            }
+            if (mLastModified != null) {
+                headers.add(new Header(LAST_MODIFIED, mLastModified));
+            }
+            return new Response(mUrl, STATUS_OK, "OK", headers, new TypedByteArray(mMimeType, mBody));
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(mUrl);
+            out.writeUTF(mMimeType);
+            out.writeBoolean(mETag != null);
+            if (mETag != null) {
+                out.writeUTF(mETag);
+            }
+            out.writeBoolean(mLastModified != null);
+            if (mLastModified != null) {
+                out.writeUTF(mLastModified);
+            }
+            out.writeLong(mMaxAge);
+            out.writeLong(mStoredAt);
+            out.writeInt(mBody.length);
+            out.write(mBody);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String url = in.readUTF();
+            String mimeType = in.readUTF();
+            String eTag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            long maxAge = in.readLong();
+            long storedAt = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            Entry entry = new Entry(url, mimeType, body);
+            entry.mETag = eTag;
+            entry.mLastModified = lastModified;
+            entry.mMaxAge = maxAge;
+            entry.mStoredAt = storedAt;
+            return entry;
+        }
+
+        private static String mimeType(List<Header> headers) {
+            String mimeType = header(headers, CONTENT_TYPE);
+            return mimeType != null ? mimeType : DEFAULT_MIME_TYPE;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * Converter that reads the api DTOs straight from the JSON token stream, without reflection and
+ * without boxing the kids. Other types fall back to Gson.
+ */
+public class ItemConverter implements Converter {
+
+    private static final String UTF_8 = "UTF-8";
+    private static final int INITIAL_KIDS_SIZE = 16;
+
+    private final Converter mFallback;
+
+    public ItemConverter() {
+        mFallback = new GsonConverter(new Gson());
+    }
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        if (type != HackerNewsApi.Item.class && !isIntegerList(type)) {
+            return mFallback.fromBody(body, type);
+        }
+        JsonReader reader = null;
+        try {
+            reader = new JsonReader(open(body));
+            // Match Gson, which reads leniently so that a missing item's bare null is accepted
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                return null;
+            }
+            if (type == HackerNewsApi.Item.class) {
+                return readItem(reader);
+            } else {
+                return readIntegerList(reader);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new ConversionException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                    // Body is already consumed
+                }
+            }
+        }
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        return mFallback.toBody(object);
+    }
+
+    /**
+     * Retrofit has already buffered the body of a non streaming call, so decode the bytes in one
+     * go rather than through the 8k buffer of an InputStreamReader.
+     */
+    private static Reader open(TypedInput body) throws IOException {
+        if (body instanceof TypedByteArray) {
+            return new StringReader(new String(((TypedByteArray) body).getBytes(), UTF_8));
+        }
+        return new InputStreamReader(body.in(), UTF_8);
+    }
+
+    private static HackerNewsApi.Item readItem(JsonReader reader) throws IOException {
+        HackerNewsApi.Item item = new HackerNewsApi.Item();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    item.id = reader.nextInt();
+                    break;
+                case "type":
+                    item.type = reader.nextString();
+                    break;
+                case "title":
+                    item.title = reader.nextString();
+                    break;
+                case "text":
+                    item.text = reader.nextString();
+                    break;
+                case "by":
+                    item.by = reader.nextString();
+                    break;
+                case "score":
+                    item.score = reader.nextInt();
+                    break;
+                case "url":
+                    item.url = reader.nextString();
+                    break;
+                case "parent":
+                    item.parent = reader.nextInt();
+                    break;
+                case "kids":
+                    item.kids = readIntArray(reader);
+                    break;
+                case "time":
+                    item.time = reader.nextLong();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return item;
+    }
+
+    private static int[] readIntArray(JsonReader reader) throws IOException {
+        int[] values = new int[INITIAL_KIDS_SIZE];
+        int size = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = reader.nextInt();
+        }
+        reader.endArray();
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    private static List<Integer> readIntegerList(JsonReader reader) throws IOException {
+        List<Integer> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextInt());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    private static boolean isIntegerList(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterizedType = (ParameterizedType) type;
+        return parameterizedType.getRawType() == List.class
+                && parameterizedType.getActualTypeArguments()[0] == Integer.class;
+    }
+}
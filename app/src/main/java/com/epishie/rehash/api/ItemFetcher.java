@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+/**
+ * Source of items fetched in batches, all that a loader of items needs from an api.
+ */
+public interface ItemFetcher {
+
+    /**
+     * Fetches several items at once, ahead of or behind other fetches according to the priority.
+     *
+     * @return the items in the order of the ids, with null for an item that does not exist
+     */
+    HackerNewsApi.Item[] getItems(int[] ids, HackerNewsApi.Priority priority);
+
+    /**
+     * Fetches several items at once from the network, past any copy kept on the way, for a refresh
+     * the user asked for. Copies may still be served when the network cannot be reached.
+     *
+     * @return the items in the order of the ids, with null for an item that does not exist
+     */
+    HackerNewsApi.Item[] refreshItems(int[] ids, HackerNewsApi.Priority priority);
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Disk store of api records. Each record is kept in its own file in a compact binary format and
+ * is replaced atomically, so a reader never sees a partially written record.
+ *
+ * <p>The store may be bounded by the bytes held on disk, in which case the least recently used
+ * records are deleted first. The top stories are always kept.</p>
+ */
+public class ItemStore {
+
+    private static final int VERSION = 2;
+    private static final String TOP_STORIES = "topstories";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FLAG_BY = 1;
+    private static final int FLAG_TITLE = 1 << 1;
+    private static final int FLAG_URL = 1 << 2;
+    private static final int FLAG_TEXT = 1 << 3;
+    private static final int FLAG_KIDS = 1 << 4;
+    private static final int FLAG_TYPE = 1 << 5;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private long mBytes = -1;
+
+    public ItemStore(File directory) {
+        this(directory, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes maximum size in bytes of the records kept on disk
+     */
+    public ItemStore(File directory, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1");
+        }
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the stored record or null if there is none or it cannot be read
+     */
+    public Record readItem(int id) {
+        DataInputStream in = open(Integer.toString(id));
+        if (in == null) {
+            return null;
+        }
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            Record record = new Record();
+            record.fetchedAt = in.readLong();
+            record.id = in.readInt();
+            int flags = in.readByte();
+            record.time = in.readLong();
+            record.score = in.readInt();
+            record.parent = in.readInt();
+            record.type = (flags & FLAG_TYPE) != 0 ? readString(in) : null;
+            record.by = (flags & FLAG_BY) != 0 ? readString(in) : null;
+            record.title = (flags & FLAG_TITLE) != 0 ? readString(in) : null;
+            record.url = (flags & FLAG_URL) != 0 ? readString(in) : null;
+            record.text = (flags & FLAG_TEXT) != 0 ? readString(in) : null;
+            record.kids = (flags & FLAG_KIDS) != 0 ? readIdArray(in) : null;
+            // Recently read records are the last to be deleted
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, Integer.toString(id)).setLastModified(System.currentTimeMillis());
+            return record;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void writeItem(Record record) {
+        DataOutputStream out = create(Integer.toString(record.id));
+        if (out == null) {
+            return;
+        }
+        boolean written = false;
+        try {
+            int flags = (record.by != null ? FLAG_BY : 0)
+                    | (record.title != null ? FLAG_TITLE : 0)
+                    | (record.url != null ? FLAG_URL : 0)
+                    | (record.text != null ? FLAG_TEXT : 0)
+                    | (record.kids != null ? FLAG_KIDS : 0)
+                    | (record.type != null ? FLAG_TYPE : 0);
+            out.writeByte(VERSION);
+            out.writeLong(record.fetchedAt);
+            out.writeInt(record.id);
+            out.writeByte(flags);
+            out.writeLong(record.time);
+            out.writeInt(record.score);
+            out.writeInt(record.parent);
+            if (record.type != null) {
+                writeString(out, record.type);
+            }
+            if (record.by != null) {
+                writeString(out, record.by);
+            }
+            if (record.title != null) {
+                writeString(out, record.title);
+            }
+            if (record.url != null) {
+                writeString(out, record.url);
+            }
+            if (record.text != null) {
+                writeString(out, record.text);
+            }
+            if (record.kids != null) {
+                writeIdArray(out, record.kids);
+            }
+            written = true;
+        } catch (IOException e) {
+            // Treated as not stored
+        } finally {
+            commit(Integer.toString(record.id), out, written);
+        }
+    }
+
+    /**
+     * @return the stored top stories or null if there are none or they cannot be read
+     */
+    public List<Integer> readTopStories() {
+        DataInputStream in = open(TOP_STORIES);
+        if (in == null) {
+            return null;
+        }
+        try {
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            return readIds(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void writeTopStories(List<Integer> ids) {
+        DataOutputStream out = create(TOP_STORIES);
+        if (out == null) {
+            return;
+        }
+        boolean written = false;
+        try {
+            out.writeByte(VERSION);
+            writeIds(out, ids);
+            written = true;
+        } catch (IOException e) {
+            // Treated as not stored
+        } finally {
+            commit(TOP_STORIES, out, written);
+        }
+    }
+
+    private DataInputStream open(String name) {
+        File file = new File(mDirectory, name);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private DataOutputStream create(String name) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return null;
+        }
+        try {
+            File temp = new File(mDirectory, name + TEMP_SUFFIX + Thread.currentThread().getId());
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void commit(String name, DataOutputStream out, boolean written) {
+        File temp = new File(mDirectory, name + TEMP_SUFFIX + Thread.currentThread().getId());
+        try {
+            out.close();
+        } catch (IOException e) {
+            written = false;
+        }
+        synchronized (this) {
+            File file = new File(mDirectory, name);
+            long previous = file.length();
+            if (!written || !temp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                return;
+            }
+            if (mBytes >= 0) {
+                mBytes += file.length() - previous;
+            }
+            trim();
+        }
+    }
+
+    private void trim() {
+        if (mMaxBytes == Long.MAX_VALUE) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (mBytes < 0) {
+            mBytes = 0;
+            for (File file : files) {
+                mBytes += file.length();
+            }
+        }
+        if (mBytes <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && mBytes > mMaxBytes; i++) {
+            String name = files[i].getName();
+            long length = files[i].length();
+            if (!name.equals(TOP_STORIES) && !name.contains(TEMP_SUFFIX) && files[i].delete()) {
+                mBytes -= length;
+            }
+        }
+    }
+
+    private static void close(DataInputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing left to read
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<Integer> readIds(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<Integer> ids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ids.add(in.readInt());
+        }
+        return ids;
+    }
+
+    private static void writeIds(DataOutputStream out, List<Integer> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    private static int[] readIdArray(DataInputStream in) throws IOException {
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+        }
+        return ids;
+    }
+
+    private static void writeIdArray(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    /**
+     * Fields of the item endpoint that the app reads.
+     */
+    public static class Record {
+        public long fetchedAt;
+        public int id;
+        public String type;
+        public int parent;
+        public String by;
+        public long time;
+        public int score;
+        public String title;
+        public String url;
+        public String text;
+        public int[] kids;
+    }
+}
@@ -16,23 +16,54 @@
 
 package com.epishie.rehash.api;
 
+import com.epishie.rehash.util.IntObjectMap;
+
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import retrofit.RestAdapter;
 import retrofit.client.Client;
 import retrofit.http.GET;
+import retrofit.http.Header;
 import retrofit.http.Path;
 
 public class RetrofitHackerNewsApi implements HackerNewsApi {
 
     private static final String ENDPOINT = "https://hacker-news.firebaseio.com";
+    private static final int DEFAULT_CONCURRENCY = 4;
+    // Makes an http cache revalidate its copy instead of serving it
+    private static final String NO_CACHE = "no-cache";
 
     private final HackerNews mHackerNews;
+    private final FetchQueue mQueue;
+    private final IntObjectMap<ItemRequest> mInFlight;
 
     public RetrofitHackerNewsApi(Client client) {
+        this(client, Executors.newFixedThreadPool(DEFAULT_CONCURRENCY), DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param executor bounded pool on which the requests of a batch are made
+     * @param concurrency maximum number of requests made at once, at most the size of the pool
+     */
+    public RetrofitHackerNewsApi(Client client, Executor executor, int concurrency) {
+        this(client, executor, concurrency, ENDPOINT);
+    }
+
+    /**
+     * @param endpoint url of the api, such as that of a local stand-in server
+     */
+    public RetrofitHackerNewsApi(Client client, Executor executor, int concurrency, String endpoint) {
+        mQueue = new FetchQueue(executor, concurrency);
+        mInFlight = new IntObjectMap<>();
         RestAdapter restAdapter = new RestAdapter.Builder()
-                .setEndpoint(ENDPOINT)
+                .setEndpoint(endpoint)
                 .setClient(client)
+                .setConverter(new ItemConverter())
                 .build();
         mHackerNews = restAdapter.create(HackerNews.class);
     }
@@ -43,18 +74,116 @@ public class RetrofitHackerNewsApi implements HackerNewsApi {
     }
 
     @Override
-    public Story getStory(int id) {
-        return mHackerNews.story(id);
+    public Updates getUpdates() {
+        return mHackerNews.updates();
     }
 
     @Override
-    public Comment getComment(int id) {
-        return mHackerNews.comment(id);
+    public int getMaxItem() {
+        return mHackerNews.maxItem();
     }
 
     @Override
     public Item getItem(int id) {
-        return mHackerNews.item(id);
+        return await(request(id, Priority.VISIBLE, false));
+    }
+
+    @Override
+    public Item[] getItems(int[] ids) {
+        return getItems(ids, Priority.VISIBLE);
+    }
+
+    @Override
+    public Item[] getItems(int[] ids, Priority priority) {
+        return getItems(ids, priority, false);
+    }
+
+    @Override
+    public Item[] refreshItems(int[] ids, Priority priority) {
+        return getItems(ids, priority, true);
+    }
+
+    private Item[] getItems(int[] ids, Priority priority, boolean refresh) {
+        ItemRequest[] requests = new ItemRequest[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            requests[i] = request(ids[i], priority, refresh);
+        }
+        Item[] items = new Item[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            items[i] = await(requests[i]);
+        }
+        return items;
+    }
+
+    /**
+     * Returns the request in flight for the id, promoted to the priority if it is less important,
+     * or queues a new one. A refresh does not join a request that may be served by the http cache.
+     */
+    private ItemRequest request(int id, Priority priority, boolean refresh) {
+        ItemRequest request;
+        boolean inFlight;
+        synchronized (mInFlight) {
+            request = mInFlight.get(id);
+            inFlight = request != null && (request.mRefresh || !refresh);
+            if (!inFlight) {
+                request = new ItemRequest(id, priority, refresh);
+                mInFlight.put(id, request);
+            } else if (request.mPriority.compareTo(priority) > 0) {
+                request.mPriority = priority;
+            } else {
+                return request;
+            }
+        }
+        if (inFlight) {
+            mQueue.promote(request, priority);
+        } else {
+            mQueue.execute(request, priority);
+        }
+        return request;
+    }
+
+    private static Item await(ItemRequest request) {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private final class ItemRequest extends FutureTask<Item> {
+
+        private final int mId;
+        private final boolean mRefresh;
+        // Guarded by mInFlight
+        private Priority mPriority;
+
+        private ItemRequest(final int id, Priority priority, final boolean refresh) {
+            super(new Callable<Item>() {
+
+                @Override
+                public Item call() {
+                    return refresh ? mHackerNews.item(id, NO_CACHE) : mHackerNews.item(id);
+                }
+            });
+            mId = id;
+            mRefresh = refresh;
+            mPriority = priority;
+        }
+
+        @Override
+        protected void done() {
+            synchronized (mInFlight) {
+                if (mInFlight.get(mId) == this) {
+                    mInFlight.remove(mId);
+                }
+            }
+        }
     }
 
     public interface HackerNews {
@@ -63,12 +192,15 @@ public class RetrofitHackerNewsApi implements HackerNewsApi {
         List<Integer> topStories();
 
         @GET("/v0/item/{id}.json")
-        Story story(@Path("id")int id);
+        Item item(@Path("id")int id);
 
         @GET("/v0/item/{id}.json")
-        Comment comment(@Path("id")int id);
+        Item item(@Path("id")int id, @Header("Cache-Control") String cacheControl);
 
-        @GET("/v0/item/{id}.json")
-        Item item(@Path("id")int id);
+        @GET("/v0/updates.json")
+        Updates updates();
+
+        @GET("/v0/maxitem.json")
+        Integer maxItem();
     }
 }
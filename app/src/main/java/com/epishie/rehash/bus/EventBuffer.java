@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus;
+
+import java.util.ArrayDeque;
+
+import rx.Observable;
+import rx.Producer;
+import rx.Subscriber;
+import rx.exceptions.Exceptions;
+import rx.exceptions.OnErrorThrowable;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Bounded buffer between the bus and one subscriber. Events are only handed downstream as they
+ * are requested, for instance by observeOn() as it drains its queue, and the buffer applies its
+ * overflow policy once it holds as many events as its capacity.
+ *
+ * <p>A buffer serves a single subscription, so that its metrics are those of one subscriber.</p>
+ */
+public class EventBuffer<T> implements Observable.Operator<T, T> {
+
+    public enum Overflow {
+        /** Drops the oldest buffered event to make room. */
+        DROP_OLDEST,
+        /** Replaces the newest buffered event, so that only the latest of a burst is kept. */
+        COALESCE_LATEST,
+        /**
+         * Makes the posting thread wait for room. It must not be the thread that drains, nor the
+         * thread that subscribes to a sticky class, since the replay is posted from it.
+         */
+        BLOCK
+    }
+
+    private static final Object NULL = new Object();
+
+    private final int mCapacity;
+    private final Overflow mOverflow;
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final ArrayDeque<Object> mQueue;
+    private long mRequested;
+    private boolean mEmitting;
+    private boolean mMissed;
+    private boolean mSubscribed;
+    private boolean mCancelled;
+    private boolean mCompleted;
+    private int mMaxDepth;
+    private long mReceivedCount;
+    private long mDeliveredCount;
+    private long mOverflowCount;
+    private long mBlockedCount;
+
+    public EventBuffer(int capacity, Overflow overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mCapacity = capacity;
+        mOverflow = overflow;
+        mQueue = new ArrayDeque<>(capacity);
+    }
+
+    @Override
+    public Subscriber<? super T> call(final Subscriber<? super T> child) {
+        synchronized (mLock) {
+            if (mSubscribed) {
+                throw new IllegalStateException("An EventBuffer serves a single subscriber");
+            }
+            mSubscribed = true;
+        }
+        Subscriber<T> parent = new Subscriber<T>() {
+
+            @Override
+            public void onStart() {
+                // The bus does not apply backpressure, the buffer does
+                request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(T t) {
+                if (offer(t != null ? t : NULL)) {
+                    drain(child);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                cancel();
+                child.onError(e);
+            }
+
+            @Override
+            public void onCompleted() {
+                synchronized (mLock) {
+                    mCompleted = true;
+                }
+                drain(child);
+            }
+        };
+        child.add(parent);
+        child.add(Subscriptions.create(new Action0() {
+
+            @Override
+            public void call() {
+                cancel();
+            }
+        }));
+        child.setProducer(new Producer() {
+
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    return;
+                }
+                synchronized (mLock) {
+                    mRequested = mRequested + n < 0 ? Long.MAX_VALUE : mRequested + n;
+                }
+                drain(child);
+            }
+        });
+        return parent;
+    }
+
+    /**
+     * @return number of events buffered and not yet requested
+     */
+    public int getDepth() {
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * @return highest number of events buffered at once
+     */
+    public int getMaxDepth() {
+        synchronized (mLock) {
+            return mMaxDepth;
+        }
+    }
+
+    public long getReceivedCount() {
+        synchronized (mLock) {
+            return mReceivedCount;
+        }
+    }
+
+    public long getDeliveredCount() {
+        synchronized (mLock) {
+            return mDeliveredCount;
+        }
+    }
+
+    /**
+     * @return number of events dropped or coalesced because the buffer was full
+     */
+    public long getOverflowCount() {
+        synchronized (mLock) {
+            return mOverflowCount;
+        }
+    }
+
+    /**
+     * @return number of posts that had to wait for room
+     */
+    public long getBlockedCount() {
+        synchronized (mLock) {
+            return mBlockedCount;
+        }
+    }
+
+    private boolean offer(Object o) {
+        synchronized (mLock) {
+            if (mCancelled) {
+                return false;
+            }
+            mReceivedCount++;
+            if (mQueue.size() >= mCapacity) {
+                switch (mOverflow) {
+                    case DROP_OLDEST:
+                        mQueue.pollFirst();
+                        mOverflowCount++;
+                        break;
+                    case COALESCE_LATEST:
+                        mQueue.pollLast();
+                        mOverflowCount++;
+                        break;
+                    case BLOCK:
+                        mBlockedCount++;
+                        while (mQueue.size() >= mCapacity && !mCancelled) {
+                            try {
+                                mLock.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return false;
+                            }
+                        }
+                        if (mCancelled) {
+                            return false;
+                        }
+                        break;
+                }
+            }
+            mQueue.offerLast(o);
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+            return true;
+        }
+    }
+
+    private void cancel() {
+        synchronized (mLock) {
+            mCancelled = true;
+            mQueue.clear();
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Emits what was requested from the calling thread, unless another thread is already
+     * emitting, in which case that thread emits it too. An event the subscriber throws on cancels
+     * the buffer and is handed back to it as an error.
+     */
+    @SuppressWarnings("unchecked")
+    private void drain(Subscriber<? super T> child) {
+        synchronized (mLock) {
+            if (mEmitting) {
+                mMissed = true;
+                return;
+            }
+            mEmitting = true;
+        }
+        while (true) {
+            Object o = null;
+            boolean completed = false;
+            synchronized (mLock) {
+                if (mCancelled) {
+                    mEmitting = false;
+                    return;
+                }
+                if (mRequested > 0 && !mQueue.isEmpty()) {
+                    o = mQueue.pollFirst();
+                    if (mRequested != Long.MAX_VALUE) {
+                        mRequested--;
+                    }
+                    mDeliveredCount++;
+                    mLock.notifyAll();
+                } else if (mCompleted && mQueue.isEmpty()) {
+                    mCancelled = true;
+                    completed = true;
+                } else if (mMissed) {
+                    mMissed = false;
+                    continue;
+                } else {
+                    mEmitting = false;
+                    return;
+                }
+            }
+            if (completed) {
+                try {
+                    child.onCompleted();
+                } finally {
+                    synchronized (mLock) {
+                        mEmitting = false;
+                    }
+                }
+                return;
+            }
+            try {
+                child.onNext(o != NULL ? (T) o : null);
+            } catch (Throwable e) {
+                // A subscriber that throws ends the buffer, which would otherwise stay emitting
+                cancel();
+                synchronized (mLock) {
+                    mEmitting = false;
+                }
+                Exceptions.throwIfFatal(e);
+                child.onError(OnErrorThrowable.addValueAsLastCause(e, o != NULL ? o : null));
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus;
+
+import com.epishie.rehash.util.MpscLinkedQueue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.subjects.PublishSubject;
+import rx.subjects.ReplaySubject;
+import rx.subjects.Subject;
+
+/**
+ * RxEventBus that hands posted events to a single dispatch loop on a scheduler. Posting threads
+ * only append to a lock-free queue, so they never block on each other or on the subscribers, and
+ * as events are delivered from one thread at a time the subjects need no serialization.
+ *
+ * <p>Unlike RxEventBus, subscribers receive the events asynchronously, after post() returns.</p>
+ */
+public class QueuedRxEventBus extends RxEventBus {
+
+    private static final Object NULL = new Object();
+
+    private final MpscLinkedQueue<Object> mQueue = new MpscLinkedQueue<>();
+    // Whether the dispatch loop is scheduled or running, so that posting is a read in the common case
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final Scheduler.Worker mWorker;
+    private final Action0 mDrain = new Action0() {
+
+        @Override
+        public void call() {
+            drain();
+        }
+    };
+
+    /**
+     * @param scheduler scheduler on which events are delivered
+     */
+    public QueuedRxEventBus(Scheduler scheduler) {
+        mWorker = scheduler.createWorker();
+    }
+
+    @Override
+    public void post(Object o) {
+        mQueue.offer(o != null ? o : NULL);
+        if (!mScheduled.get() && mScheduled.compareAndSet(false, true)) {
+            mWorker.schedule(mDrain);
+        }
+    }
+
+    @Override
+    protected Subject<Object, Object> createSubject(int replayDepth) {
+        if (replayDepth > 0) {
+            return ReplaySubject.createWithSize(replayDepth);
+        }
+        return PublishSubject.create();
+    }
+
+    private void drain() {
+        RuntimeException error = null;
+        while (true) {
+            Object o;
+            while ((o = mQueue.poll()) != null || !mQueue.isEmpty()) {
+                if (o == null) {
+                    // A post swapped in its event and is about to link it
+                    Thread.yield();
+                    continue;
+                }
+                try {
+                    dispatch(o != NULL ? o : null);
+                } catch (RuntimeException e) {
+                    // Deliver the rest first, the loop would not be scheduled again otherwise
+                    error = error == null ? e : error;
+                }
+            }
+            mScheduled.set(false);
+            // A post that found the loop still scheduled has to be picked up before leaving
+            if (mQueue.isEmpty() || !mScheduled.compareAndSet(false, true)) {
+                break;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -16,23 +16,131 @@
 
 package com.epishie.rehash.bus;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import rx.Observable;
 import rx.subjects.PublishSubject;
+import rx.subjects.ReplaySubject;
 import rx.subjects.SerializedSubject;
 import rx.subjects.Subject;
 
+/**
+ * Event bus with a subject per subscribed class. An event is only handed to the subjects of its
+ * class and of its supertypes, looked up in a table built the first time the class is posted, so
+ * that posting does not go through the subscribers of unrelated events.
+ *
+ * <p>A class can be made sticky with {@link #setReplayDepth(Class, int)}: its latest events are
+ * then kept and replayed to every new subscriber, including events posted while it had none.</p>
+ */
 public class RxEventBus {
-    private final Subject<Object, Object> bus = new SerializedSubject<>(PublishSubject.create());
+
+    private static final Subject[] NO_SUBJECTS = new Subject[0];
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final Map<Class<?>, Subject<Object, Object>> mSubjects = new IdentityHashMap<>();
+    // Subjects an event of a class is posted to; cleared whenever a subject is added
+    private final Map<Class<?>, Subject[]> mDispatch = new ConcurrentHashMap<>();
 
     public void post(Object o) {
-        bus.onNext(o);
+        dispatch(o);
+    }
+
+    /**
+     * Keeps the latest events of the class, up to the given depth, for new subscribers. This has
+     * to be set before the class is subscribed to.
+     */
+    public void setReplayDepth(Class<?> klass, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        synchronized (mLock) {
+            if (mSubjects.containsKey(klass)) {
+                throw new IllegalStateException(klass.getName() + " is already subscribed to");
+            }
+            mSubjects.put(klass, createSubject(depth));
+            mDispatch.clear();
+        }
+    }
+
+    /**
+     * Delivers an event to the subscribers of its class and supertypes on the calling thread.
+     */
+    @SuppressWarnings("unchecked")
+    protected void dispatch(Object o) {
+        Subject[] subjects = o != null ? dispatch(o.getClass()) : dispatch(Object.class);
+        for (Subject subject : subjects) {
+            subject.onNext(o);
+        }
     }
 
+    @SuppressWarnings("unchecked")
     public <T> Observable<T> events(Class<T> klass) {
-        return events().ofType(klass);
+        // Only instances of the class are posted to its subject
+        return (Observable<T>) subject(klass).asObservable();
+    }
+
+    /**
+     * Returns the events of the class through a bounded buffer, for a subscriber that may not
+     * keep up with them.
+     *
+     * @param buffer buffer of this subscriber only
+     */
+    public <T> Observable<T> events(Class<T> klass, EventBuffer<T> buffer) {
+        return events(klass).lift(buffer);
     }
 
     public Observable<Object> events() {
-        return bus.asObservable();
+        return events(Object.class);
+    }
+
+    /**
+     * Creates the subject of a class. Events may be posted from several threads at once, so the
+     * subject is serialized.
+     *
+     * @param replayDepth number of latest events replayed to new subscribers, or 0 for none
+     */
+    protected Subject<Object, Object> createSubject(int replayDepth) {
+        if (replayDepth > 0) {
+            return new SerializedSubject<>(ReplaySubject.<Object>createWithSize(replayDepth));
+        }
+        return new SerializedSubject<>(PublishSubject.<Object>create());
+    }
+
+    private Subject<Object, Object> subject(Class<?> klass) {
+        synchronized (mLock) {
+            Subject<Object, Object> subject = mSubjects.get(klass);
+            if (subject == null) {
+                subject = createSubject(0);
+                mSubjects.put(klass, subject);
+                mDispatch.clear();
+            }
+            return subject;
+        }
+    }
+
+    private Subject[] dispatch(Class<?> klass) {
+        Subject[] subjects = mDispatch.get(klass);
+        if (subjects != null) {
+            return subjects;
+        }
+        synchronized (mLock) {
+            subjects = mDispatch.get(klass);
+            if (subjects == null) {
+                List<Subject> matching = new ArrayList<>();
+                for (Map.Entry<Class<?>, Subject<Object, Object>> entry : mSubjects.entrySet()) {
+                    if (entry.getKey().isAssignableFrom(klass)) {
+                        matching.add(entry.getValue());
+                    }
+                }
+                subjects = matching.isEmpty() ? NO_SUBJECTS : matching.toArray(new Subject[matching.size()]);
+                mDispatch.put(klass, subjects);
+            }
+            return subjects;
+        }
     }
 }
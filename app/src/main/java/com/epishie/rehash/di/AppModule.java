@@ -16,14 +16,38 @@
 
 package com.epishie.rehash.di;
 
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Build;
+import android.text.Html;
+import android.text.SpannedString;
 
+import com.epishie.rehash.BuildConfig;
 import com.epishie.rehash.action.ActionCreator;
+import com.epishie.rehash.api.CachingHackerNewsApi;
 import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.api.HttpCacheClient;
+import com.epishie.rehash.api.ItemStore;
 import com.epishie.rehash.api.RetrofitHackerNewsApi;
+import com.epishie.rehash.bus.QueuedRxEventBus;
 import com.epishie.rehash.bus.RxEventBus;
+import com.epishie.rehash.model.CommentsList;
+import com.epishie.rehash.model.ItemUpdates;
+import com.epishie.rehash.model.StoryBundle;
 import com.epishie.rehash.store.CommentsStore;
+import com.epishie.rehash.store.ItemCache;
+import com.epishie.rehash.store.Prefetcher;
 import com.epishie.rehash.store.StoriesStore;
+import com.epishie.rehash.store.TextRenderer;
+import com.epishie.rehash.store.UpdateSync;
+import com.epishie.rehash.util.PagingController;
+import com.epishie.rehash.util.SchedulerService;
+import com.epishie.rehash.util.TimeLabels;
+import com.epishie.rehash.view.adapter.RelativeTimeFormatter;
+import com.epishie.rehash.view.widget.TextLayoutCache;
+
+import java.io.File;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -33,23 +57,63 @@ import dagger.Provides;
 import retrofit.android.AndroidApacheClient;
 import retrofit.client.Client;
 import retrofit.client.UrlConnectionClient;
+import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
 
 @Module
 public class AppModule {
 
+    // Concurrent network and disk calls
+    private static final int IO_THREADS = 8;
+    // Stores, which wait on the io threads
+    private static final int BACKGROUND_THREADS = 4;
+    private static final int COMPUTATION_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    // Prefetches, cache revalidations and update syncs, behind everything else
+    private static final int IDLE_THREADS = 2;
+    private static final String ITEM_STORE_DIRECTORY = "items";
+    private static final long ITEM_STORE_MAX_AGE = 60 * 1000;
+    private static final long ITEM_STORE_MAX_BYTES = 5 * 1024 * 1024;
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+    private static final long HTTP_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    // Only the latest page is replayed to new subscribers, it carries everything shown since the first one
+    private static final int STORY_REPLAY_DEPTH = 1;
+    private static final int COMMENTS_REPLAY_DEPTH = 1;
+    // The latest updates carry every story updated since the latest page
+    private static final int UPDATES_REPLAY_DEPTH = 1;
+    // Comments of the first stories of every page shown, as many as the first page of StoryDetailActivity
+    private static final int PREFETCH_STORY_COUNT = 3;
+    private static final int PREFETCH_COMMENT_COUNT = 5;
+    private static final int PREFETCH_MAX_REQUESTS = 40;
+    private static final long PREFETCH_MAX_BYTES = 128 * 1024;
+    private static final long UPDATE_INTERVAL = 30 * 1000;
+    private static final int RENDERED_TEXT_MAX_ENTRIES = 1000;
+    private static final long RENDERED_TEXT_MAX_BYTES = 2 * 1024 * 1024;
+    // Layouts of a few screens of rows
+    private static final int TEXT_LAYOUT_MAX_ENTRIES = 100;
+
+    private final Context mContext;
+
+    public AppModule(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
     @Named("data")
     @Singleton
     @Provides
     public RxEventBus provideDataBus() {
-        return new RxEventBus();
+        RxEventBus dataBus = createEventBus();
+        // Activities recreated on a configuration change rebuild their lists from the latest page
+        dataBus.setReplayDepth(StoryBundle.class, STORY_REPLAY_DEPTH);
+        dataBus.setReplayDepth(CommentsList.class, COMMENTS_REPLAY_DEPTH);
+        dataBus.setReplayDepth(ItemUpdates.class, UPDATES_REPLAY_DEPTH);
+        return dataBus;
     }
 
     @Named("action")
     @Singleton
     @Provides
     public RxEventBus provideActionBus() {
-        return new RxEventBus();
+        return createEventBus();
     }
 
     @Singleton
@@ -58,31 +122,152 @@ public class AppModule {
         return new ActionCreator(actionBus);
     }
 
+    @Singleton
+    @Provides
+    public SchedulerService provideSchedulerService() {
+        return new SchedulerService(IO_THREADS, BACKGROUND_THREADS, COMPUTATION_THREADS, IDLE_THREADS);
+    }
+
     @Singleton
     @Provides
     public StoriesStore providedStoriesStore(@Named("action") RxEventBus actionBus,
                                              @Named("data") RxEventBus dataBus,
-                                             HackerNewsApi api) {
-        return new StoriesStore(actionBus, dataBus, Schedulers.newThread(), api);
+                                             SchedulerService schedulers,
+                                             HackerNewsApi api,
+                                             ItemCache cache,
+                                             Prefetcher prefetcher) {
+        return new StoriesStore(actionBus, dataBus, schedulers.background(), api, cache, prefetcher);
     }
 
     @Singleton
     @Provides
     public CommentsStore providedCommentsStore(@Named("action") RxEventBus actionBus,
                                              @Named("data") RxEventBus dataBus,
-                                             HackerNewsApi api) {
-        return new CommentsStore(actionBus, dataBus, Schedulers.newThread(), api);
+                                             SchedulerService schedulers,
+                                             HackerNewsApi api,
+                                             ItemCache cache,
+                                             TextRenderer renderer) {
+        return new CommentsStore(actionBus, dataBus, schedulers.background(), api, cache, renderer);
+    }
+
+    @Singleton
+    @Provides
+    public TextRenderer provideTextRenderer() {
+        return new TextRenderer(new TextRenderer.Renderer() {
+
+            @Override
+            public CharSequence render(String html) {
+                // Copied into an immutable string, as the rendered text is shared between binds
+                return new SpannedString(Html.fromHtml(html));
+            }
+        }, RENDERED_TEXT_MAX_ENTRIES, RENDERED_TEXT_MAX_BYTES, Schedulers.immediate());
+    }
+
+    @Singleton
+    @Provides
+    public Prefetcher providePrefetcher(SchedulerService schedulers, HackerNewsApi api, ItemCache cache) {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return new Prefetcher(api, cache, schedulers.idle(), new Prefetcher.Policy() {
+
+            @Override
+            public boolean isPrefetchAllowed() {
+                // Only on connections that do not cost the user
+                NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+                if (network == null || !network.isConnected()) {
+                    return false;
+                }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    return !connectivityManager.isActiveNetworkMetered();
+                }
+                return network.getType() == ConnectivityManager.TYPE_WIFI;
+            }
+        }, PREFETCH_STORY_COUNT, PREFETCH_COMMENT_COUNT, PREFETCH_MAX_REQUESTS, PREFETCH_MAX_BYTES);
+    }
+
+    @Named("stories")
+    @Singleton
+    @Provides
+    public PagingController provideStoriesPagingController() {
+        return new PagingController(Schedulers.immediate());
+    }
+
+    @Named("comments")
+    @Singleton
+    @Provides
+    public PagingController provideCommentsPagingController() {
+        return new PagingController(Schedulers.immediate());
     }
 
+    @Named("stories")
     @Singleton
     @Provides
-    public HackerNewsApi provideHackerNewsApi() {
+    public TextLayoutCache provideStoriesTextLayoutCache(SchedulerService schedulers) {
+        return new TextLayoutCache(schedulers.computation(), TEXT_LAYOUT_MAX_ENTRIES);
+    }
+
+    @Named("comments")
+    @Singleton
+    @Provides
+    public TextLayoutCache provideCommentsTextLayoutCache(SchedulerService schedulers) {
+        return new TextLayoutCache(schedulers.computation(), TEXT_LAYOUT_MAX_ENTRIES);
+    }
+
+    @Singleton
+    @Provides
+    public TimeLabels provideTimeLabels() {
+        // Ticks on the main thread, which binds the labels
+        return new TimeLabels(new RelativeTimeFormatter(), AndroidSchedulers.mainThread());
+    }
+
+    @Singleton
+    @Provides
+    public ItemCache provideItemCache() {
+        return new ItemCache(ItemCache.DEFAULT_MAX_ENTRIES, ItemCache.DEFAULT_MAX_BYTES, ItemCache.DEFAULT_TTL,
+                Schedulers.immediate());
+    }
+
+    @Singleton
+    @Provides
+    public UpdateSync provideUpdateSync(HackerNewsApi api,
+                                        ItemCache cache,
+                                        @Named("data") RxEventBus dataBus,
+                                        SchedulerService schedulers,
+                                        TextRenderer renderer,
+                                        StoriesStore storiesStore) {
+        // Refreshes the disk records as well, which would otherwise be served until they are old
+        return new UpdateSync(api, cache, dataBus, schedulers.idle(), UPDATE_INTERVAL, renderer, storiesStore);
+    }
+
+    @Named("network")
+    @Singleton
+    @Provides
+    public HackerNewsApi provideNetworkHackerNewsApi(SchedulerService schedulers) {
         Client client;
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
             client = new AndroidApacheClient();
         } else {
             client = new UrlConnectionClient();
         }
-        return new RetrofitHackerNewsApi(client);
+        client = new HttpCacheClient(client, new File(mContext.getCacheDir(), HTTP_CACHE_DIRECTORY),
+                HTTP_CACHE_MAX_BYTES, Schedulers.immediate());
+        return new RetrofitHackerNewsApi(client, schedulers.ioExecutor(), IO_THREADS);
+    }
+
+    @Singleton
+    @Provides
+    public HackerNewsApi provideHackerNewsApi(@Named("network") HackerNewsApi api, SchedulerService schedulers) {
+        return new CachingHackerNewsApi(api,
+                new ItemStore(new File(mContext.getCacheDir(), ITEM_STORE_DIRECTORY), ITEM_STORE_MAX_BYTES),
+                schedulers.idle(),
+                ITEM_STORE_MAX_AGE);
+    }
+
+    private static RxEventBus createEventBus() {
+        // Set by the build, so that either bus can be profiled without a code change
+        if (BuildConfig.QUEUED_EVENT_BUS) {
+            return new QueuedRxEventBus(Schedulers.newThread());
+        }
+        return new RxEventBus();
     }
 }
@@ -25,13 +25,22 @@ public class Comment {
     private final String mAuthor;
     private final Date mTime;
     private final int mLevel;
+    private final CharSequence mRenderedText;
 
     public Comment(int id, String text, String author, Date time, int level)  {
+        this(id, text, author, time, level, null);
+    }
+
+    /**
+     * @param renderedText text rendered from the html text, or null if it was not rendered
+     */
+    public Comment(int id, String text, String author, Date time, int level, CharSequence renderedText)  {
         mId = id;
         mText = text;
         mAuthor = author;
         mTime = time;
         mLevel = level;
+        mRenderedText = renderedText;
     }
 
     public int getId() {
@@ -54,15 +63,23 @@ public class Comment {
         return mLevel;
     }
 
+    /**
+     * @return text rendered from the html text, or null if it was not rendered
+     */
+    public CharSequence getRenderedText() {
+        return mRenderedText;
+    }
+
     public static class Builder {
         private int mId;
         private String mText = "";
         private String mAuthor = "";
         private Date mTime = new Date();
         private int mLevel = 0;
+        private CharSequence mRenderedText;
 
         public Comment build() {
-            return new Comment(mId, mText, mAuthor, mTime, mLevel);
+            return new Comment(mId, mText, mAuthor, mTime, mLevel, mRenderedText);
         }
 
         public Builder setId(int id) {
@@ -95,5 +112,10 @@ public class Comment {
             mLevel = level;
             return this;
         }
+
+        public Builder setRenderedText(CharSequence renderedText) {
+            mRenderedText = renderedText;
+            return this;
+        }
     }
 }
@@ -17,7 +17,79 @@
 package com.epishie.rehash.model;
 
 import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Page of the comments of a story. The first page of a load replaces the comments shown, and every
+ * page also carries all of the comments shown since then, so that a subscriber that missed pages
+ * rebuilds the thread from the latest one.
+ */
 public class CommentsList extends ArrayList<Comment> {
 
+    private int mStoryId;
+    private boolean mFirstPage;
+    private boolean mLastPage;
+    private long mSequence;
+    private long mRequest;
+    private List<Comment> mShown;
+
+    public int getStoryId() {
+        return mStoryId;
+    }
+
+    public void setStoryId(int storyId) {
+        mStoryId = storyId;
+    }
+
+    public boolean isFirstPage() {
+        return mFirstPage;
+    }
+
+    public void setFirstPage(boolean firstPage) {
+        mFirstPage = firstPage;
+    }
+
+    public boolean isLastPage() {
+        return mLastPage;
+    }
+
+    public void setLastPage(boolean lastPage) {
+        mLastPage = lastPage;
+    }
+
+    /**
+     * @return position of the page among all pages posted by the store, counting from 1, so that
+     * a subscriber can tell that it missed pages
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * @return number of the request the page answers, as given by the action, or 0 if it was not
+     * numbered
+     */
+    public long getRequest() {
+        return mRequest;
+    }
+
+    public void setRequest(long request) {
+        mRequest = request;
+    }
+
+    /**
+     * @return comments of the story shown since the first page, this page included, in a list that
+     * cannot be modified and shares its items with the lists of the other pages
+     */
+    public List<Comment> getShown() {
+        return mShown;
+    }
+
+    public void setShown(List<Comment> shown) {
+        mShown = shown;
+    }
 }
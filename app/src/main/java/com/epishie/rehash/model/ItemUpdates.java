@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.model;
+
+import java.util.List;
+
+/**
+ * Stories and comments that changed after they were emitted, to replace the ones shown with the
+ * same ids. The level of an updated comment is not known, so the level of the comment it replaces
+ * is kept. The stories are all of those shown that changed since the latest page of stories, so
+ * that the latest updates replayed after that page bring every row up to date.
+ */
+public class ItemUpdates {
+
+    private final List<Story> mStories;
+    private final List<Comment> mComments;
+    private final int mMaxItem;
+    private final long mSequence;
+
+    /**
+     * @param maxItem largest item id at the time of the update
+     */
+    public ItemUpdates(List<Story> stories, List<Comment> comments, int maxItem) {
+        this(stories, comments, maxItem, 0);
+    }
+
+    /**
+     * @param sequence sequence of the latest page of stories posted before the updates
+     */
+    public ItemUpdates(List<Story> stories, List<Comment> comments, int maxItem, long sequence) {
+        mStories = stories;
+        mComments = comments;
+        mMaxItem = maxItem;
+        mSequence = sequence;
+    }
+
+    public List<Story> getStories() {
+        return mStories;
+    }
+
+    public List<Comment> getComments() {
+        return mComments;
+    }
+
+    public int getMaxItem() {
+        return mMaxItem;
+    }
+
+    /**
+     * @return sequence of the latest page of stories posted before the updates, which already
+     * carries the stories of any updates before it
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+}
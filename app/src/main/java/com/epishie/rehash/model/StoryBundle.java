@@ -17,7 +17,84 @@
 package com.epishie.rehash.model;
 
 import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Page of top stories. The first page of a load replaces the stories shown, and every page also
+ * carries all of the stories shown since then, so that a subscriber that missed pages rebuilds the
+ * list from the latest one. The first page of a refresh also carries the changes from the stories
+ * shown before it.
+ */
 public class StoryBundle extends ArrayList<Story> {
 
+    private boolean mFirstPage;
+    private boolean mLastPage;
+    private StoryChanges mChanges;
+    private long mSequence;
+    private long mRequest;
+    private List<Story> mShown;
+
+    public boolean isFirstPage() {
+        return mFirstPage;
+    }
+
+    public void setFirstPage(boolean firstPage) {
+        mFirstPage = firstPage;
+    }
+
+    public boolean isLastPage() {
+        return mLastPage;
+    }
+
+    public void setLastPage(boolean lastPage) {
+        mLastPage = lastPage;
+    }
+
+    /**
+     * @return changes from the stories shown before the refresh to this page, or null if it is
+     * not the first page of a refresh
+     */
+    public StoryChanges getChanges() {
+        return mChanges;
+    }
+
+    public void setChanges(StoryChanges changes) {
+        mChanges = changes;
+    }
+
+    /**
+     * @return position of the page among all pages posted by the store, counting from 1, so that
+     * a subscriber can tell that it missed pages
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * @return number of the request the page answers, as given by the action, or 0 if it was not
+     * numbered
+     */
+    public long getRequest() {
+        return mRequest;
+    }
+
+    public void setRequest(long request) {
+        mRequest = request;
+    }
+
+    /**
+     * @return stories shown since the first page, this page included, in a list that cannot be
+     * modified and shares its items with the lists of the other pages
+     */
+    public List<Story> getShown() {
+        return mShown;
+    }
+
+    public void setShown(List<Story> shown) {
+        mShown = shown;
+    }
 }
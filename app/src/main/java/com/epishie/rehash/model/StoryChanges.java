@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.model;
+
+import com.epishie.rehash.util.ListDiff;
+
+import java.util.List;
+
+/**
+ * Steps that turn the stories shown before a refresh into the stories of its first page. A story
+ * kept is changed unless it is the same instance.
+ */
+public class StoryChanges extends ListDiff {
+
+    private static final Callback<Story> CALLBACK = new Callback<Story>() {
+
+        @Override
+        public int getId(Story story) {
+            return story.getId();
+        }
+
+        @Override
+        public boolean isSameContent(Story oldStory, Story newStory) {
+            return false;
+        }
+    };
+
+    private StoryChanges(ListDiff diff) {
+        super(diff);
+    }
+
+    /**
+     * Computes the changes from the stories shown to the stories of a page.
+     *
+     * @param base stories shown
+     * @param page stories of the page, in which a story kept unchanged is the same instance
+     */
+    public static StoryChanges diff(List<Story> base, List<Story> page) {
+        return new StoryChanges(ListDiff.diff(base, page, CALLBACK));
+    }
+}
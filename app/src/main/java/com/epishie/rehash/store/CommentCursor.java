@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Depth-first walk over a comment tree that only fetches items as they are reached. The
+ * pending kids are kept on an explicit stack so that the walk can be resumed on the next
+ * page. Only the next item is fetched: the kids of an item are not known until it is, and
+ * they would push any sibling fetched along with it off the page.
+ */
+final class CommentCursor {
+
+    private final ItemLoader mLoader;
+    private final Deque<Pending> mPending = new ArrayDeque<>();
+    private final boolean mRefresh;
+    private int mLevel;
+
+    /**
+     * @param refresh whether cached items are ignored and fetched again
+     */
+    CommentCursor(ItemLoader loader, HackerNewsApi.Item story, boolean refresh) {
+        mLoader = loader;
+        mRefresh = refresh;
+        push(story, 0);
+    }
+
+    boolean hasNext() {
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * @param priority priority of the fetch of the item if it is not loaded yet
+     * @return the next comment, or null if its item does not exist
+     */
+    HackerNewsApi.Item next(HackerNewsApi.Priority priority) {
+        Pending pending = mPending.pop();
+        HackerNewsApi.Item item = mLoader.load(pending.mId, mRefresh, priority);
+        mLevel = pending.mLevel;
+        if (item == null) {
+            return null;
+        }
+        // Items are shared with the other stores, so the level is kept on the cursor
+        push(item, pending.mLevel + 1);
+        return item;
+    }
+
+    /**
+     * @return nesting level of the comment last returned by {@link #next}, 0 for a top-level one
+     */
+    int getLevel() {
+        return mLevel;
+    }
+
+    private void push(HackerNewsApi.Item item, int level) {
+        if (item == null || item.kids == null) {
+            return;
+        }
+        // Push in reverse so that the first kid is visited first
+        for (int i = item.kids.length - 1; i >= 0; i--) {
+            mPending.push(new Pending(item.kids[i], level));
+        }
+    }
+
+    private static final class Pending {
+
+        private final int mId;
+        private final int mLevel;
+
+        private Pending(int id, int level) {
+            mId = id;
+            mLevel = level;
+        }
+    }
+}
@@ -22,32 +22,44 @@ import com.epishie.rehash.api.HackerNewsApi;
 import com.epishie.rehash.bus.RxEventBus;
 import com.epishie.rehash.model.Comment;
 import com.epishie.rehash.model.CommentsList;
+import com.epishie.rehash.util.SnapshotList;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-
-import rx.Observable;
 import rx.Scheduler;
 import rx.functions.Action1;
-import rx.functions.Func1;
 
 public class CommentsStore {
 
     private final RxEventBus mActionBus;
     private final RxEventBus mDataBus;
     private final Scheduler mScheduler;
-    private final HackerNewsApi mApi;
-    private final Map<Integer, HackerNewsApi.Item> mCache;
+    private final ItemLoader mLoader;
+    private final TextRenderer mRenderer;
     private int mCurrentStoryId;
-    private int mCurrentIndex;
+    private CommentCursor mCursor;
+    // Comments emitted since the last first page
+    private SnapshotList<Comment> mShown = new SnapshotList<>();
+    private long mSequence;
 
     public CommentsStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api) {
+        this(actionBus, dataBus, scheduler, api, new ItemCache(scheduler));
+    }
+
+    public CommentsStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api,
+                         ItemCache cache) {
+        this(actionBus, dataBus, scheduler, api, cache, null);
+    }
+
+    /**
+     * @param cache item cache shared with the other stores
+     * @param renderer renderer of the comment texts before they are posted, or null
+     */
+    public CommentsStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api,
+                         ItemCache cache, TextRenderer renderer) {
         mActionBus = actionBus;
         mDataBus = dataBus;
         mScheduler = scheduler;
-        mApi = api;
-        mCache = new HashMap<>();
+        mLoader = new ItemLoader(api, cache);
+        mRenderer = renderer;
         mCurrentStoryId = Integer.MIN_VALUE;
 
         monitorGetCommentsAction();
@@ -60,83 +72,38 @@ public class CommentsStore {
 
                     @Override
                     public void call(GetCommentsAction getCommentsAction) {
-                        if (mCache.isEmpty() || mCurrentStoryId != getCommentsAction.getStoryId()
-                                || getCommentsAction.isRefresh()) {
-                            mCurrentIndex = 0;
-                            mCache.clear();
+                        boolean firstPage = mCursor == null || mCurrentStoryId != getCommentsAction.getStoryId()
+                                || getCommentsAction.isFirstPage();
+                        if (firstPage) {
+                            boolean refresh = getCommentsAction.isRefresh();
                             mCurrentStoryId = getCommentsAction.getStoryId();
+                            mCursor = new CommentCursor(mLoader, mLoader.load(mCurrentStoryId, refresh,
+                                    HackerNewsApi.Priority.VISIBLE), refresh);
+                            mShown = new SnapshotList<>();
                         }
+                        // Later pages are loaded ahead of the end of the list, behind whatever is opened
+                        HackerNewsApi.Priority priority = firstPage
+                                ? HackerNewsApi.Priority.VISIBLE : HackerNewsApi.Priority.PREFETCH;
                         final CommentsList comments = new CommentsList();
-                        getComments(getCommentsAction.getStoryId()).map(new CommentMapper())
-                                .skip(mCurrentIndex)
-                                .limit(getCommentsAction.getCount())
-                                .forEach(new Action1<Comment>() {
-
-                                    @Override
-                                    public void call(Comment comment) {
-                                        comments.add(comment);
-                                    }
-                                });
-                        mCurrentIndex += comments.size();
+                        comments.setStoryId(mCurrentStoryId);
+                        comments.setFirstPage(firstPage);
+                        while (comments.size() < getCommentsAction.getCount() && mCursor.hasNext()) {
+                            HackerNewsApi.Item item = mCursor.next(priority);
+                            if (item != null) {
+                                comments.add(ItemMapper.toComment(item, mCursor.getLevel(), mRenderer));
+                            }
+                        }
+                        boolean lastPage = comments.size() < getCommentsAction.getCount();
+                        comments.setLastPage(lastPage);
+                        comments.setSequence(++mSequence);
+                        comments.setRequest(getCommentsAction.getRequest());
+                        mShown.addAll(comments);
+                        comments.setShown(mShown.snapshot());
                         mDataBus.post(comments);
-                        if (comments.size() == 0 || comments.size() < getCommentsAction.getCount()) {
+                        if (lastPage) {
                             mDataBus.post(DataMarker.COMMENTS_END);
                         }
                     }
                 });
     }
-
-    private Observable<HackerNewsApi.Item> getComments(int storyId) {
-        HackerNewsApi.Item item = fetchItem(storyId);
-        return Observable.from(item.kids)
-                .flatMap(new Func1<Integer, Observable<HackerNewsApi.Item>>() {
-
-                    @Override
-                    public Observable<HackerNewsApi.Item> call(Integer id) {
-                        return getItems(id, 0);
-                    }
-                });
-    }
-
-    private Observable<HackerNewsApi.Item> getItems(int id, final int level) {
-        HackerNewsApi.Item item = fetchItem(id);
-        item.tag = level;
-        return Observable.just(item)
-                .concatMap(new Func1<HackerNewsApi.Item, Observable<? extends HackerNewsApi.Item>>() {
-
-                    @Override
-                    public Observable<? extends HackerNewsApi.Item> call(HackerNewsApi.Item item) {
-                        Observable<HackerNewsApi.Item> items = Observable.just(item);
-                        if (item.kids != null) {
-                            for (int kid : item.kids) {
-                                items = items.mergeWith(getItems(kid, level + 1));
-                            }
-                        }
-                        return items;
-                    }
-                });
-    }
-
-    private HackerNewsApi.Item fetchItem(int id) {
-        HackerNewsApi.Item item = mCache.get(id);
-        if (item == null) {
-            item = mApi.getItem(id);
-            mCache.put(id, item);
-        }
-        return item;
-    }
-
-    private class CommentMapper implements Func1<HackerNewsApi.Item, Comment> {
-
-        @Override
-        public Comment call(HackerNewsApi.Item item) {
-            return new Comment.Builder()
-                    .setId(item.id)
-                    .setText(item.text)
-                    .setAuthor(item.by)
-                    .setTime(new Date(item.time * 1000))
-                    .setLevel(item.tag)
-                    .build();
-        }
-    }
 }
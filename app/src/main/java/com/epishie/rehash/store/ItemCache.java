@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.util.IntObjectMap;
+
+import rx.Scheduler;
+
+/**
+ * Least recently used cache of api items keyed by item id. The cache is bounded both by entry
+ * count and by an estimate of the bytes held, and an entry older than the ttl is treated as a
+ * miss.
+ */
+public class ItemCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 2000;
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_TTL = 5 * 60 * 1000;
+
+    static final int OBJECT_OVERHEAD = 16;
+    private static final int REFERENCE_SIZE = 4;
+    private static final int INT_SIZE = 4;
+
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final long mTtl;
+    private final Scheduler mClock;
+    private final IntObjectMap<Entry> mEntries;
+    // Sentinel of a circular list of entries, from least (next) to most (previous) recently used
+    private final Entry mHead;
+    private long mBytes;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+    private long mExpirationCount;
+
+    public ItemCache(Scheduler clock) {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_TTL, clock);
+    }
+
+    /**
+     * @param maxEntries maximum number of items held
+     * @param maxBytes maximum estimated size in bytes of the items held
+     * @param ttl time in milliseconds after which an item is no longer served
+     * @param clock source of the current time
+     */
+    public ItemCache(int maxEntries, long maxBytes, long ttl, Scheduler clock) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("maxEntries and maxBytes must be at least 1");
+        }
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+        mTtl = ttl;
+        mClock = clock;
+        mEntries = new IntObjectMap<>();
+        mHead = new Entry(0, null, 0, 0);
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+    }
+
+    /**
+     * Returns the fresh item with the given id if it is of the given type, otherwise null.
+     */
+    public synchronized <T> T get(int id, Class<T> type) {
+        Entry entry = mEntries.get(id);
+        if (entry == null || !type.isInstance(entry.mValue)) {
+            mMissCount++;
+            return null;
+        }
+        if (mClock.now() - entry.mTime > mTtl) {
+            remove(id);
+            mExpirationCount++;
+            mMissCount++;
+            return null;
+        }
+        unlink(entry);
+        linkLast(entry);
+        mHitCount++;
+        return type.cast(entry.mValue);
+    }
+
+    /**
+     * Returns whether an item with the given id is held, fresh or not, without counting it as a
+     * use.
+     */
+    public synchronized boolean contains(int id) {
+        return mEntries.containsKey(id);
+    }
+
+    public synchronized void put(int id, Object value) {
+        if (value == null) {
+            return;
+        }
+        remove(id);
+        Entry entry = new Entry(id, value, mClock.now(), estimateBytes(value));
+        mEntries.put(id, entry);
+        linkLast(entry);
+        mBytes += entry.mBytes;
+        trim();
+    }
+
+    public synchronized void invalidate(int id) {
+        remove(id);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+        mBytes = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return mExpirationCount;
+    }
+
+    private void remove(int id) {
+        Entry entry = mEntries.remove(id);
+        if (entry != null) {
+            unlink(entry);
+            mBytes -= entry.mBytes;
+        }
+    }
+
+    private void trim() {
+        while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && mHead.mNext != mHead) {
+            remove(mHead.mNext.mId);
+            mEvictionCount++;
+        }
+    }
+
+    private void linkLast(Entry entry) {
+        entry.mPrevious = mHead.mPrevious;
+        entry.mNext = mHead;
+        mHead.mPrevious.mNext = entry;
+        mHead.mPrevious = entry;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.mPrevious.mNext = entry.mNext;
+        entry.mNext.mPrevious = entry.mPrevious;
+        entry.mPrevious = null;
+        entry.mNext = null;
+    }
+
+    static int estimateBytes(Object value) {
+        if (value instanceof HackerNewsApi.Item) {
+            HackerNewsApi.Item item = (HackerNewsApi.Item) value;
+            return OBJECT_OVERHEAD + REFERENCE_SIZE + estimateBytes(item.title) + estimateBytes(item.by)
+                    + estimateBytes(item.url) + estimateBytes(item.text) + estimateBytes(item.kids);
+        }
+        if (value instanceof Sized) {
+            return ((Sized) value).estimateBytes();
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+    static int estimateBytes(String string) {
+        return string == null ? REFERENCE_SIZE : OBJECT_OVERHEAD + string.length() * 2;
+    }
+
+    private static int estimateBytes(int[] ids) {
+        return ids == null ? REFERENCE_SIZE : OBJECT_OVERHEAD + ids.length * INT_SIZE;
+    }
+
+    /**
+     * Value other than an api item that estimates the bytes it holds.
+     */
+    public interface Sized {
+
+        /**
+         * @return estimated size in bytes of the value and of what only it references
+         */
+        int estimateBytes();
+    }
+
+    private static final class Entry {
+
+        private final int mId;
+        private final Object mValue;
+        private final long mTime;
+        private final int mBytes;
+        private Entry mPrevious;
+        private Entry mNext;
+
+        private Entry(int id, Object value, long time, int bytes) {
+            mId = id;
+            mValue = value;
+            mTime = time;
+            mBytes = bytes;
+        }
+    }
+}
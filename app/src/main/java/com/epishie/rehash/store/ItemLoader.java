@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.api.ItemFetcher;
+
+import java.util.List;
+
+/**
+ * Loads items through the shared cache, fetching every miss of a request in a single batch.
+ */
+final class ItemLoader {
+
+    private final ItemFetcher mFetcher;
+    private final ItemCache mCache;
+
+    ItemLoader(ItemFetcher fetcher, ItemCache cache) {
+        mFetcher = fetcher;
+        mCache = cache;
+    }
+
+    HackerNewsApi.Item load(int id, boolean refresh, HackerNewsApi.Priority priority) {
+        return load(new int[] {id}, refresh, priority)[0];
+    }
+
+    HackerNewsApi.Item[] load(List<Integer> ids, boolean refresh, HackerNewsApi.Priority priority) {
+        return load(toArray(ids), refresh, priority);
+    }
+
+    /**
+     * @param refresh whether cached items are ignored and fetched again from the network
+     * @param priority priority of the fetch of the items missing from the cache
+     * @return the items in the order of the ids, with null for an item that does not exist
+     */
+    HackerNewsApi.Item[] load(int[] ids, boolean refresh, HackerNewsApi.Priority priority) {
+        return load(ids, refresh, refresh, priority);
+    }
+
+    /**
+     * Serves the items still fresh in the cache and fetches the others from the network rather than
+     * from the copies kept on disk.
+     *
+     * @return the items in the order of the ids, with null for an item that does not exist
+     */
+    HackerNewsApi.Item[] revalidate(List<Integer> ids, HackerNewsApi.Priority priority) {
+        return load(toArray(ids), false, true, priority);
+    }
+
+    private HackerNewsApi.Item[] load(int[] ids, boolean skipCache, boolean refresh,
+                                      HackerNewsApi.Priority priority) {
+        HackerNewsApi.Item[] items = new HackerNewsApi.Item[ids.length];
+        int[] missing = new int[ids.length];
+        int missingCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            items[i] = skipCache ? null : mCache.get(ids[i], HackerNewsApi.Item.class);
+            if (items[i] == null) {
+                missing[missingCount++] = i;
+            }
+        }
+        if (missingCount == 0) {
+            return items;
+        }
+        int[] missingIds = new int[missingCount];
+        for (int i = 0; i < missingCount; i++) {
+            missingIds[i] = ids[missing[i]];
+        }
+        HackerNewsApi.Item[] fetched = refresh
+                ? mFetcher.refreshItems(missingIds, priority) : mFetcher.getItems(missingIds, priority);
+        for (int i = 0; i < missingCount; i++) {
+            items[missing[i]] = fetched[i];
+            mCache.put(missingIds[i], fetched[i]);
+        }
+        return items;
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.model.Comment;
+import com.epishie.rehash.model.Story;
+
+import java.util.Date;
+
+/**
+ * Maps api items to the models emitted by the stores.
+ */
+final class ItemMapper {
+
+    private ItemMapper() {
+    }
+
+    /**
+     * @return builder of the story without its comments
+     */
+    static Story.Builder toStoryBuilder(HackerNewsApi.Item story) {
+        return new Story.Builder()
+                .setId(story.id)
+                .setTitle(story.title)
+                .setAuthor(story.by)
+                .setScore(story.score)
+                .setTime(new Date(story.time * 1000))
+                .setUrl(story.url)
+                .setText(story.text);
+    }
+
+    static Comment toComment(HackerNewsApi.Item comment, int level) {
+        return toComment(comment, level, null);
+    }
+
+    /**
+     * @param renderer renderer of the comment text, or null to leave it unrendered
+     */
+    static Comment toComment(HackerNewsApi.Item comment, int level, TextRenderer renderer) {
+        Comment.Builder builder = new Comment.Builder()
+                .setId(comment.id)
+                .setText(comment.text)
+                .setAuthor(comment.by)
+                .setTime(new Date(comment.time * 1000))
+                .setLevel(level);
+        if (renderer != null && comment.text != null) {
+            builder.setRenderedText(renderer.render(comment.id, comment.text));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.api.ItemFetcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+/**
+ * Fetches into the item cache what the user is likely to open next, so that it is served from
+ * the cache when it is asked for: the page of top stories after the one just shown, and the first
+ * page of comments of the first stories of that page.
+ *
+ * <p>Prefetches are made at {@link HackerNewsApi.Priority#PREFETCH}, so they wait while the user
+ * waits on anything else, and only when the policy allows it, such as on an unmetered connection.
+ * Each page shown may spend a budget of requests and bytes, and a new page supersedes what is
+ * left of the prefetch for the one before.</p>
+ */
+public class Prefetcher {
+
+    public static final int DEFAULT_STORY_COUNT = 3;
+    public static final int DEFAULT_COMMENT_COUNT = 5;
+    public static final int DEFAULT_MAX_REQUESTS = 40;
+    public static final long DEFAULT_MAX_BYTES = 128 * 1024;
+
+    private final HackerNewsApi mApi;
+    private final ItemCache mCache;
+    private final Scheduler mScheduler;
+    private final Policy mPolicy;
+    private final int mStoryCount;
+    private final int mCommentCount;
+    private final int mMaxRequests;
+    private final long mMaxBytes;
+    private Scheduler.Worker mWorker;
+    private long mRequestCount;
+    private long mByteCount;
+
+    public Prefetcher(HackerNewsApi api, ItemCache cache, Scheduler scheduler, Policy policy) {
+        this(api, cache, scheduler, policy, DEFAULT_STORY_COUNT, DEFAULT_COMMENT_COUNT, DEFAULT_MAX_REQUESTS,
+                DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param cache item cache shared with the stores
+     * @param scheduler scheduler on which prefetches run
+     * @param storyCount number of stories of a page whose comments are prefetched
+     * @param commentCount number of comments prefetched for each story, the size of the first
+     *                     page of comments
+     * @param maxRequests maximum number of items fetched for each page shown
+     * @param maxBytes estimated size in bytes of the items fetched for each page shown after which
+     *                 prefetching stops
+     */
+    public Prefetcher(HackerNewsApi api, ItemCache cache, Scheduler scheduler, Policy policy, int storyCount,
+                      int commentCount, int maxRequests, long maxBytes) {
+        mApi = api;
+        mCache = cache;
+        mScheduler = scheduler;
+        mPolicy = policy;
+        mStoryCount = storyCount;
+        mCommentCount = commentCount;
+        mMaxRequests = maxRequests;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Prefetches for a page of top stories that was just shown.
+     *
+     * @param storyIds ids of the top stories
+     * @param end index in the top stories of the story after the page
+     * @param pageSize number of stories in a page
+     * @param stories items of the stories of the page, in order
+     */
+    public synchronized void onPage(List<Integer> storyIds, int end, int pageSize, HackerNewsApi.Item[] stories) {
+        final int[] nextIds = new int[Math.max(0, Math.min(end + pageSize, storyIds.size()) - end)];
+        for (int i = 0; i < nextIds.length; i++) {
+            nextIds[i] = storyIds.get(end + i);
+        }
+        final List<HackerNewsApi.Item> openable = new ArrayList<>(mStoryCount);
+        for (int i = 0; i < stories.length && openable.size() < mStoryCount; i++) {
+            if (stories[i] != null && stories[i].kids != null && stories[i].kids.length > 0) {
+                openable.add(stories[i]);
+            }
+        }
+        if (mWorker != null) {
+            mWorker.unsubscribe();
+        }
+        final Scheduler.Worker worker = mScheduler.createWorker();
+        mWorker = worker;
+        worker.schedule(new Action0() {
+
+            @Override
+            public void call() {
+                try {
+                    if (mPolicy.isPrefetchAllowed()) {
+                        prefetch(new Budget(worker), nextIds, openable);
+                    }
+                } catch (RuntimeException e) {
+                    // Nothing is lost, the items are fetched again when they are asked for
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+
+    public synchronized void cancel() {
+        if (mWorker != null) {
+            mWorker.unsubscribe();
+            mWorker = null;
+        }
+    }
+
+    /**
+     * @return number of items fetched by prefetches
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return estimated size in bytes of the items fetched by prefetches
+     */
+    public synchronized long getByteCount() {
+        return mByteCount;
+    }
+
+    private void prefetch(Budget budget, int[] nextIds, List<HackerNewsApi.Item> stories) {
+        ItemLoader loader = new ItemLoader(budget, mCache);
+        loader.load(nextIds, false, HackerNewsApi.Priority.PREFETCH);
+        for (HackerNewsApi.Item story : stories) {
+            // The same walk as the first page of CommentsStore, so that it finds every item cached
+            CommentCursor cursor = new CommentCursor(loader, story, false);
+            int count = 0;
+            while (count < mCommentCount && cursor.hasNext() && budget.hasRemaining()) {
+                if (cursor.next(HackerNewsApi.Priority.PREFETCH) != null) {
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetcher through which a prefetch fetches its items, that stops fetching once the budget is
+     * spent or the prefetch is superseded. Items it does not fetch are returned as null, which the
+     * loader does not cache.
+     */
+    private final class Budget implements ItemFetcher {
+
+        private final Scheduler.Worker mWorker;
+        private int mRequests;
+        private long mBytes;
+
+        private Budget(Scheduler.Worker worker) {
+            mWorker = worker;
+        }
+
+        private boolean hasRemaining() {
+            return !mWorker.isUnsubscribed() && mRequests < mMaxRequests && mBytes < mMaxBytes;
+        }
+
+        @Override
+        public HackerNewsApi.Item[] getItems(int[] ids, HackerNewsApi.Priority priority) {
+            return fetch(ids, priority, false);
+        }
+
+        @Override
+        public HackerNewsApi.Item[] refreshItems(int[] ids, HackerNewsApi.Priority priority) {
+            return fetch(ids, priority, true);
+        }
+
+        private HackerNewsApi.Item[] fetch(int[] ids, HackerNewsApi.Priority priority, boolean refresh) {
+            HackerNewsApi.Item[] items = new HackerNewsApi.Item[ids.length];
+            if (!hasRemaining()) {
+                return items;
+            }
+            int count = Math.min(ids.length, mMaxRequests - mRequests);
+            int[] fetchedIds = count == ids.length ? ids : Arrays.copyOf(ids, count);
+            HackerNewsApi.Item[] fetched = refresh
+                    ? mApi.refreshItems(fetchedIds, priority) : mApi.getItems(fetchedIds, priority);
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                items[i] = fetched[i];
+                bytes += fetched[i] == null ? 0 : ItemCache.estimateBytes(fetched[i]);
+            }
+            mRequests += count;
+            mBytes += bytes;
+            synchronized (Prefetcher.this) {
+                mRequestCount += count;
+                mByteCount += bytes;
+            }
+            return items;
+        }
+    }
+
+    /**
+     * Decides whether prefetching is worth its cost at the moment.
+     */
+    public interface Policy {
+
+        boolean isPrefetchAllowed();
+    }
+}
@@ -22,15 +22,21 @@ import com.epishie.rehash.action.OpenStoryAction;
 import com.epishie.rehash.api.HackerNewsApi;
 import com.epishie.rehash.bus.RxEventBus;
 import com.epishie.rehash.model.Comment;
+import com.epishie.rehash.model.ItemUpdates;
 import com.epishie.rehash.model.Story;
 import com.epishie.rehash.model.StoryBundle;
+import com.epishie.rehash.model.StoryChanges;
+import com.epishie.rehash.util.IntObjectMap;
+import com.epishie.rehash.util.IntSet;
+import com.epishie.rehash.util.SnapshotList;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
 
 import rx.Observable;
 import rx.Scheduler;
+import rx.functions.Action0;
 import rx.functions.Action1;
 import rx.functions.Func1;
 
@@ -42,14 +48,45 @@ public class StoriesStore {
     private final RxEventBus mDataBus;
     private final Scheduler mScheduler;
     private final HackerNewsApi mApi;
+    private final ItemLoader mLoader;
+    private final Prefetcher mPrefetcher;
+    private final Object mPostLock = new Object();
     private List<Integer> mStoryIds;
     private int mCurrentIndex;
+    // Stories emitted since the last first page, and the items they were mapped from
+    private SnapshotList<Story> mShown = new SnapshotList<>();
+    private IntObjectMap<Shown> mShownById = new IntObjectMap<>();
+    // Ids of the stories shown that were updated since the latest page
+    private IntSet mUpdatedIds = new IntSet();
+    private long mSequence;
+    // Worker running the GetStoriesActions since the last refresh, and the count of refreshes
+    private Scheduler.Worker mWorker;
+    private int mGeneration;
 
     public StoriesStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api) {
+        this(actionBus, dataBus, scheduler, api, new ItemCache(scheduler));
+    }
+
+    /**
+     * @param cache item cache shared with the other stores
+     */
+    public StoriesStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api,
+                        ItemCache cache) {
+        this(actionBus, dataBus, scheduler, api, cache, null);
+    }
+
+    /**
+     * @param cache item cache shared with the other stores
+     * @param prefetcher prefetcher told of every page of stories emitted, or null
+     */
+    public StoriesStore(RxEventBus actionBus, RxEventBus dataBus, Scheduler scheduler, HackerNewsApi api,
+                        ItemCache cache, Prefetcher prefetcher) {
         mActionBus = actionBus;
         mDataBus = dataBus;
         mScheduler = scheduler;
         mApi = api;
+        mLoader = new ItemLoader(api, cache);
+        mPrefetcher = prefetcher;
 
         monitorGetStoriesAction();
         monitorOpenStoryAction();
@@ -57,50 +94,185 @@ public class StoriesStore {
 
     private void monitorGetStoriesAction() {
         mActionBus.events(GetStoriesAction.class)
-                .observeOn(mScheduler)
                 .subscribe(new Action1<GetStoriesAction>() {
                     @Override
                     public void call(GetStoriesAction getStoriesAction) {
-                        if (mStoryIds == null || getStoriesAction.isRefresh()) {
-                            mStoryIds = mApi.getTopStories();
-                            mCurrentIndex = 0;
-                        }
-                        if (mCurrentIndex >= mStoryIds.size()) {
-                            mDataBus.post(DataMarker.STORY_END);
-                            return;
-                        }
-                        int end = Math.min(mCurrentIndex + getStoriesAction.getCount(), mStoryIds.size());
-                        List<Integer> storyIds = mStoryIds.subList(mCurrentIndex, end);
-                        mCurrentIndex = end;
-                        final StoryBundle stories = new StoryBundle();
-                        Observable.from(storyIds).map(new Func1<Integer, HackerNewsApi.Story>() {
-
-                            @Override
-                            public HackerNewsApi.Story call(Integer integer) {
-                                return mApi.getStory(integer);
-                            }
-                        }).map(new StoryMapper(false)).toBlocking().forEach(new Action1<Story>() {
-
-                            @Override
-                            public void call(Story story) {
-                                stories.add(story);
-                            }
-                        });
-                        mDataBus.post(stories);
-                        if (mCurrentIndex == mStoryIds.size()) {
-                            mDataBus.post(DataMarker.STORY_END);
-                        }
+                        schedule(getStoriesAction);
                     }
                 });
     }
 
+    /**
+     * Queues the action behind the ones before it, unless it is a refresh. A refresh supersedes
+     * everything before it: queued actions are dropped and whatever the one running still returns
+     * is discarded. The one running is only interrupted by schedulers that interrupt on
+     * unsubscribe, which those of executors such as SchedulerService's do not. It then holds its
+     * thread until its fetch returns, while the refresh runs on another one.
+     */
+    private synchronized void schedule(final GetStoriesAction getStoriesAction) {
+        if (mWorker == null || getStoriesAction.isRefresh()) {
+            if (mWorker != null) {
+                mWorker.unsubscribe();
+            }
+            mWorker = mScheduler.createWorker();
+            mGeneration++;
+        }
+        final int generation = mGeneration;
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    getStories(getStoriesAction, generation);
+                } catch (RuntimeException e) {
+                    if (!isSuperseded(generation)) {
+                        throw e;
+                    }
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isSuperseded(int generation) {
+        return generation != mGeneration;
+    }
+
+    private void getStories(GetStoriesAction getStoriesAction, int generation) {
+        boolean refresh = getStoriesAction.isRefresh();
+        List<Integer> storyIds;
+        int index;
+        synchronized (this) {
+            storyIds = mStoryIds;
+            index = mCurrentIndex;
+        }
+        if (storyIds == null || refresh) {
+            storyIds = mApi.getTopStories();
+            index = 0;
+        }
+        int end = Math.min(index + getStoriesAction.getCount(), storyIds.size());
+        HackerNewsApi.Item[] items = new HackerNewsApi.Item[0];
+        if (index < end) {
+            // Later pages are loaded ahead of the end of the list, behind whatever is opened. A
+            // refresh only fetches the stories that are new or no longer fresh in the cache, from
+            // the network rather than from disk.
+            HackerNewsApi.Priority priority = index == 0
+                    ? HackerNewsApi.Priority.VISIBLE : HackerNewsApi.Priority.PREFETCH;
+            items = refresh ? mLoader.revalidate(storyIds.subList(index, end), priority)
+                    : mLoader.load(storyIds.subList(index, end), false, priority);
+        }
+        // The page is built under the store lock and posted under the post lock only, so that
+        // subscribers never hold up schedule(), while pages are still posted in sequence
+        synchronized (mPostLock) {
+            StoryBundle stories = null;
+            synchronized (this) {
+                if (isSuperseded(generation)) {
+                    return;
+                }
+                mStoryIds = storyIds;
+                mCurrentIndex = end;
+                if (index < storyIds.size()) {
+                    stories = materialize(items, index == 0);
+                    stories.setFirstPage(index == 0);
+                    stories.setLastPage(end == storyIds.size());
+                    stories.setSequence(++mSequence);
+                    stories.setRequest(getStoriesAction.getRequest());
+                    stories.setShown(mShown.snapshot());
+                    mUpdatedIds.clear();
+                }
+            }
+            if (stories != null) {
+                mDataBus.post(stories);
+            }
+            if (end == storyIds.size()) {
+                mDataBus.post(DataMarker.STORY_END);
+            }
+        }
+        if (mPrefetcher != null && index < storyIds.size()) {
+            mPrefetcher.onPage(storyIds, end, getStoriesAction.getCount(), items);
+        }
+    }
+
+    /**
+     * Replaces the stories shown that were updated, so that the pages posted after them carry them
+     * among the stories shown, and posts them with the other items updated.
+     *
+     * @param items items updated other than comments
+     * @param comments comments updated
+     * @param maxItem largest item id at the time of the update
+     * @return whether updates were posted, which they are not when none of the items is shown
+     */
+    public boolean postUpdates(HackerNewsApi.Item[] items, List<Comment> comments, int maxItem) {
+        synchronized (mPostLock) {
+            ItemUpdates updates;
+            synchronized (this) {
+                StoryMapper mapper = new StoryMapper(false);
+                boolean updated = false;
+                for (HackerNewsApi.Item item : items) {
+                    if (mShownById.containsKey(item.id)) {
+                        mShownById.put(item.id, new Shown(item, mapper.call(item)));
+                        mUpdatedIds.add(item.id);
+                        updated = true;
+                    }
+                }
+                if (updated) {
+                    List<Story> shown = mShown.snapshot();
+                    mShown = new SnapshotList<>();
+                    for (int i = 0; i < shown.size(); i++) {
+                        mShown.add(mShownById.get(shown.get(i).getId()).mStory);
+                    }
+                } else if (comments.isEmpty()) {
+                    return false;
+                }
+                List<Story> stories = new ArrayList<>(mUpdatedIds.size());
+                List<Story> shown = mShown.snapshot();
+                for (int i = 0; i < shown.size() && !mUpdatedIds.isEmpty(); i++) {
+                    if (mUpdatedIds.contains(shown.get(i).getId())) {
+                        stories.add(shown.get(i));
+                    }
+                }
+                updates = new ItemUpdates(stories, comments, maxItem, mSequence);
+            }
+            mDataBus.post(updates);
+        }
+        return true;
+    }
+
+    /**
+     * Maps the items of a page to stories, reusing the story shown for an item that has not
+     * changed. The first page of a refresh carries the changes from the stories shown before.
+     */
+    private StoryBundle materialize(HackerNewsApi.Item[] items, boolean firstPage) {
+        List<Story> shown = mShown.snapshot();
+        IntObjectMap<Shown> shownById = mShownById;
+        if (firstPage) {
+            mShown = new SnapshotList<>();
+            mShownById = new IntObjectMap<>();
+        }
+        StoryBundle stories = new StoryBundle();
+        StoryMapper mapper = new StoryMapper(false);
+        for (HackerNewsApi.Item item : items) {
+            if (item == null) {
+                continue;
+            }
+            Shown previous = shownById.get(item.id);
+            Story story = previous != null && previous.mItem == item ? previous.mStory : mapper.call(item);
+            stories.add(story);
+            mShown.add(story);
+            mShownById.put(item.id, new Shown(item, story));
+        }
+        if (firstPage && !shown.isEmpty()) {
+            stories.setChanges(StoryChanges.diff(shown, stories));
+        }
+        return stories;
+    }
+
     private void monitorOpenStoryAction() {
         mActionBus.events(OpenStoryAction.class)
                 .observeOn(mScheduler)
                 .subscribe(new Action1<OpenStoryAction>() {
                     @Override
                     public void call(OpenStoryAction openStoryAction) {
-                        Story story = Observable.just(mApi.getStory(openStoryAction.getId()))
+                        Story story = Observable.just(mLoader.load(openStoryAction.getId(), false,
+                                HackerNewsApi.Priority.VISIBLE))
                                 .map(new StoryMapper(true))
                                 .toBlocking()
                                 .first();
@@ -109,7 +281,7 @@ public class StoriesStore {
                 });
     }
 
-    private final class StoryMapper implements Func1<HackerNewsApi.Story, Story> {
+    private final class StoryMapper implements Func1<HackerNewsApi.Item, Story> {
 
         private final boolean mInflateComments;
 
@@ -118,56 +290,49 @@ public class StoriesStore {
         }
 
         @Override
-        public Story call(HackerNewsApi.Story story) {
-            final Story.Builder builder = new Story.Builder()
-                    .setId(story.id)
-                    .setTitle(story.title)
-                    .setAuthor(story.by)
-                    .setScore(story.score)
-                    .setTime(new Date(story.time * 1000))
-                    .setUrl(story.url)
-                    .setText(story.text);
-            if (mInflateComments) {
-                Observable.from(story.kids).map(new Func1<Integer, HackerNewsApi.Comment>() {
-
-                    @Override
-                    public HackerNewsApi.Comment call(Integer integer) {
-                        return mApi.getComment(integer);
+        public Story call(HackerNewsApi.Item story) {
+            Story.Builder builder = ItemMapper.toStoryBuilder(story);
+            if (mInflateComments && story.kids != null) {
+                // One batch for the comments and one for the first reply of each
+                HackerNewsApi.Item[] comments = mLoader.load(
+                        Arrays.copyOf(story.kids, Math.min(COMMENT_SIZE, story.kids.length)), false,
+                        HackerNewsApi.Priority.VISIBLE);
+                int[] replyIds = new int[comments.length];
+                int replyCount = 0;
+                for (HackerNewsApi.Item comment : comments) {
+                    if (comment != null && comment.kids != null && comment.kids.length > 0) {
+                        replyIds[replyCount++] = comment.kids[0];
                     }
-                }).limit(COMMENT_SIZE).concatMap(new CommentMapper()).toBlocking().forEach(new Action1<Comment>() {
-
-                    @Override
-                    public void call(Comment comment) {
-                        builder.addComment(comment);
+                }
+                HackerNewsApi.Item[] replies = mLoader.load(Arrays.copyOf(replyIds, replyCount), false,
+                        HackerNewsApi.Priority.VISIBLE);
+                int replyIndex = 0;
+                for (HackerNewsApi.Item comment : comments) {
+                    if (comment == null) {
+                        continue;
                     }
-                });
+                    builder.addComment(ItemMapper.toComment(comment, 0));
+                    if (comment.kids != null && comment.kids.length > 0) {
+                        HackerNewsApi.Item reply = replies[replyIndex++];
+                        if (reply != null) {
+                            builder.addComment(ItemMapper.toComment(reply, 1));
+                        }
+                    }
+                }
             }
 
             return builder.build();
         }
     }
 
-    private final class CommentMapper implements Func1<HackerNewsApi.Comment, Observable<Comment>> {
+    private static final class Shown {
 
-        @Override
-        public Observable<Comment> call(HackerNewsApi.Comment comment) {
-            List<Comment> comments = new ArrayList<>();
-            comments.add(transform(comment, 0));
-            if (comment.kids != null && !comment.kids.isEmpty()) {
-                HackerNewsApi.Comment reply = mApi.getComment(comment.kids.get(0));
-                comments.add(transform(reply, 1));
-            }
-            return Observable.from(comments);
-        }
+        private final HackerNewsApi.Item mItem;
+        private final Story mStory;
 
-        private Comment transform(HackerNewsApi.Comment comment, int level) {
-            return new Comment.Builder()
-                    .setId(comment.id)
-                    .setText(comment.text)
-                    .setAuthor(comment.by)
-                    .setTime(new Date(comment.time * 1000))
-                    .setLevel(level)
-                    .build();
+        private Shown(HackerNewsApi.Item item, Story story) {
+            mItem = item;
+            mStory = story;
         }
     }
 }
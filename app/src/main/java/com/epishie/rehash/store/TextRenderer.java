@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import rx.Scheduler;
+
+/**
+ * Renders the html text of items off the main thread, keeping the rendered text of the most
+ * recently rendered items so that a page replayed or updated with the same text is not rendered
+ * again.
+ */
+public class TextRenderer {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    private final Renderer mRenderer;
+    private final ItemCache mCache;
+    private long mRenderCount;
+
+    public TextRenderer(Renderer renderer, Scheduler clock) {
+        this(renderer, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, clock);
+    }
+
+    /**
+     * @param maxEntries maximum number of rendered texts held
+     * @param maxBytes maximum estimated size in bytes of the rendered texts held
+     * @param clock source of the current time
+     */
+    public TextRenderer(Renderer renderer, int maxEntries, long maxBytes, Scheduler clock) {
+        mRenderer = renderer;
+        // Rendered text does not go stale, only its source does
+        mCache = new ItemCache(maxEntries, maxBytes, Long.MAX_VALUE, clock);
+    }
+
+    /**
+     * @param id id of the item the text is of
+     * @param html text to render
+     * @return rendered text, which must not be modified
+     */
+    public CharSequence render(int id, String html) {
+        Rendered rendered = mCache.get(id, Rendered.class);
+        if (rendered != null && rendered.mSource.equals(html)) {
+            return rendered.mText;
+        }
+        CharSequence text = mRenderer.render(html);
+        mCache.put(id, new Rendered(html, text));
+        synchronized (this) {
+            mRenderCount++;
+        }
+        return text;
+    }
+
+    public synchronized long getRenderCount() {
+        return mRenderCount;
+    }
+
+    public long getHitCount() {
+        return mCache.getHitCount();
+    }
+
+    public long getBytes() {
+        return mCache.getBytes();
+    }
+
+    public interface Renderer {
+
+        CharSequence render(String html);
+    }
+
+    static final class Rendered implements ItemCache.Sized {
+
+        final String mSource;
+        final CharSequence mText;
+
+        private Rendered(String source, CharSequence text) {
+            mSource = source;
+            mText = text;
+        }
+
+        @Override
+        public int estimateBytes() {
+            // The rendered text holds its characters and, for each span, about as much again
+            return ItemCache.OBJECT_OVERHEAD + ItemCache.estimateBytes(mSource) + ItemCache.OBJECT_OVERHEAD
+                    + mText.length() * 4;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store;
+
+import com.epishie.rehash.api.HackerNewsApi;
+import com.epishie.rehash.bus.RxEventBus;
+import com.epishie.rehash.model.Comment;
+import com.epishie.rehash.model.ItemUpdates;
+import com.epishie.rehash.model.Story;
+import com.epishie.rehash.util.IntSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+/**
+ * Keeps the items the stores hold up to date without a refresh. The updates and the max item of
+ * the api are polled, the cached items among the updated ones are refreshed through the api, so
+ * that any copy it keeps is replaced too, and replaced in the item cache. The stories and
+ * comments they map to are posted on the data bus as
+ * {@link ItemUpdates}, so that only the rows showing them change. With a stories store, they are
+ * posted through it, so that it replaces the stories it has shown first.
+ *
+ * <p>The updates list a window of recently changed items, so an item is fetched again only
+ * when it newly appears in them. Items that were not cached are left alone, as they are fetched
+ * fresh when they are asked for.</p>
+ */
+public class UpdateSync {
+
+    public static final long DEFAULT_INTERVAL = 30 * 1000;
+
+    private final HackerNewsApi mApi;
+    private final ItemCache mCache;
+    private final RxEventBus mDataBus;
+    private final Scheduler mScheduler;
+    private final long mInterval;
+    private final TextRenderer mRenderer;
+    private final StoriesStore mStories;
+    private Scheduler.Worker mWorker;
+    private int mStartCount;
+    // Guarded by the poll, which runs on one worker at a time
+    private IntSet mLastUpdates = new IntSet();
+    private int mMaxItem;
+    private long mPollCount;
+    private long mFetchCount;
+    private long mPostCount;
+
+    /**
+     * @param api api polled for the updates and through which the updated items are refreshed
+     * @param cache item cache shared with the stores
+     * @param scheduler scheduler on which the polls run
+     * @param interval time in milliseconds between polls
+     */
+    public UpdateSync(HackerNewsApi api, ItemCache cache, RxEventBus dataBus, Scheduler scheduler, long interval) {
+        this(api, cache, dataBus, scheduler, interval, null);
+    }
+
+    /**
+     * @param renderer renderer of the texts of the comments updated, or null
+     */
+    public UpdateSync(HackerNewsApi api, ItemCache cache, RxEventBus dataBus, Scheduler scheduler, long interval,
+                      TextRenderer renderer) {
+        this(api, cache, dataBus, scheduler, interval, renderer, null);
+    }
+
+    /**
+     * @param stories store through which the updates are posted, or null to post them directly
+     */
+    public UpdateSync(HackerNewsApi api, ItemCache cache, RxEventBus dataBus, Scheduler scheduler, long interval,
+                      TextRenderer renderer, StoriesStore stories) {
+        mApi = api;
+        mCache = cache;
+        mDataBus = dataBus;
+        mScheduler = scheduler;
+        mInterval = interval;
+        mRenderer = renderer;
+        mStories = stories;
+    }
+
+    /**
+     * Starts polling, unless already started. Each start must be matched by a stop, so that the
+     * screens using the updates can start and stop it independently.
+     */
+    public synchronized void start() {
+        if (mStartCount++ > 0) {
+            return;
+        }
+        mWorker = mScheduler.createWorker();
+        mWorker.schedulePeriodically(new Action0() {
+
+            @Override
+            public void call() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // Offline or failed, the next poll tries again
+                }
+            }
+        }, 0, mInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (mStartCount == 0 || --mStartCount > 0) {
+            return;
+        }
+        mWorker.unsubscribe();
+        mWorker = null;
+    }
+
+    public synchronized long getPollCount() {
+        return mPollCount;
+    }
+
+    /**
+     * @return number of items fetched again because they changed
+     */
+    public synchronized long getFetchCount() {
+        return mFetchCount;
+    }
+
+    /**
+     * @return number of ItemUpdates posted
+     */
+    public synchronized long getPostCount() {
+        return mPostCount;
+    }
+
+    public synchronized int getMaxItem() {
+        return mMaxItem;
+    }
+
+    /**
+     * Polls the api once and applies the updates.
+     */
+    void poll() {
+        HackerNewsApi.Updates updates = mApi.getUpdates();
+        int maxItem = mApi.getMaxItem();
+        int[] updated = updates == null || updates.items == null ? new int[0] : updates.items;
+        IntSet lastUpdates = mLastUpdates;
+        mLastUpdates = new IntSet(updated.length);
+        int[] changed = new int[updated.length];
+        int changedCount = 0;
+        for (int id : updated) {
+            mLastUpdates.add(id);
+            if (!lastUpdates.contains(id) && mCache.contains(id)) {
+                changed[changedCount++] = id;
+            }
+        }
+        synchronized (this) {
+            mPollCount++;
+            mMaxItem = maxItem;
+        }
+        if (changedCount == 0) {
+            return;
+        }
+
+        int[] ids = Arrays.copyOf(changed, changedCount);
+        HackerNewsApi.Item[] items = mApi.refreshItems(ids, HackerNewsApi.Priority.BACKGROUND);
+        HackerNewsApi.Item[] storyItems = new HackerNewsApi.Item[ids.length];
+        int storyCount = 0;
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            HackerNewsApi.Item item = items[i];
+            if (item == null) {
+                mCache.invalidate(ids[i]);
+            } else {
+                mCache.put(ids[i], item);
+                if (HackerNewsApi.Item.TYPE_COMMENT.equals(item.type)) {
+                    comments.add(ItemMapper.toComment(item, 0, mRenderer));
+                } else {
+                    storyItems[storyCount++] = item;
+                }
+            }
+        }
+        boolean posted = false;
+        if (storyCount > 0 || !comments.isEmpty()) {
+            posted = post(Arrays.copyOf(storyItems, storyCount), comments, maxItem);
+        }
+        synchronized (this) {
+            mFetchCount += ids.length;
+            if (posted) {
+                mPostCount++;
+            }
+        }
+    }
+
+    private boolean post(HackerNewsApi.Item[] storyItems, List<Comment> comments, int maxItem) {
+        if (mStories != null) {
+            return mStories.postUpdates(storyItems, comments, maxItem);
+        }
+        List<Story> stories = new ArrayList<>(storyItems.length);
+        for (HackerNewsApi.Item item : storyItems) {
+            stories.add(ItemMapper.toStoryBuilder(item).build());
+        }
+        mDataBus.post(new ItemUpdates(stories, comments, maxItem));
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+/**
+ * Least recently used cache from primitive int keys to objects, bounded by entry count. Keys are
+ * never boxed, so a hit does not allocate.
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class IntLruCache<V> {
+
+    private final int mMaxEntries;
+    private final IntObjectMap<Entry<V>> mEntries;
+    // Sentinel of a circular list of entries, from least (next) to most (previous) recently used
+    private final Entry<V> mHead;
+
+    /**
+     * @param maxEntries maximum number of entries held
+     */
+    public IntLruCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        mMaxEntries = maxEntries;
+        mEntries = new IntObjectMap<>();
+        mHead = new Entry<>(0, null);
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+    }
+
+    /**
+     * Returns the value of the key, which becomes the most recently used, or null if there is none.
+     */
+    public synchronized V get(int key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        unlink(entry);
+        linkLast(entry);
+        return entry.mValue;
+    }
+
+    /**
+     * Holds the value for the key, evicting the least recently used entry when full.
+     */
+    public synchronized void put(int key, V value) {
+        remove(key);
+        if (value == null) {
+            return;
+        }
+        Entry<V> entry = new Entry<>(key, value);
+        mEntries.put(key, entry);
+        linkLast(entry);
+        while (mEntries.size() > mMaxEntries) {
+            remove(mHead.mNext.mKey);
+        }
+    }
+
+    public synchronized void remove(int key) {
+        Entry<V> entry = mEntries.remove(key);
+        if (entry != null) {
+            unlink(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mHead.mPrevious = mHead;
+        mHead.mNext = mHead;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private void linkLast(Entry<V> entry) {
+        entry.mPrevious = mHead.mPrevious;
+        entry.mNext = mHead;
+        mHead.mPrevious.mNext = entry;
+        mHead.mPrevious = entry;
+    }
+
+    private static <V> void unlink(Entry<V> entry) {
+        entry.mPrevious.mNext = entry.mNext;
+        entry.mNext.mPrevious = entry.mPrevious;
+        entry.mPrevious = null;
+        entry.mNext = null;
+    }
+
+    private static final class Entry<V> {
+
+        private final int mKey;
+        private final V mValue;
+        private Entry<V> mPrevious;
+        private Entry<V> mNext;
+
+        private Entry(int key, V value) {
+            mKey = key;
+            mValue = value;
+        }
+    }
+}
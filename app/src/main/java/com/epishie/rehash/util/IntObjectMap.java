@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive int keys to objects using open addressing with linear probing. Keys are
+ * never boxed and entries are held in two parallel arrays, so lookups do not allocate.
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class IntObjectMap<V> {
+
+    private static final int FREE = 0;
+    private static final int MIN_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+    private int mThreshold;
+    private boolean mHasZeroKey;
+    private Object mZeroValue;
+
+    public IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == FREE) {
+            return (V) mZeroValue;
+        }
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        int current;
+        while ((current = mKeys[index]) != FREE) {
+            if (current == key) {
+                return (V) mValues[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) {
+            return mHasZeroKey;
+        }
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value previously mapped to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == FREE) {
+            V previous = (V) mZeroValue;
+            if (!mHasZeroKey) {
+                mHasZeroKey = true;
+                mSize++;
+            }
+            mZeroValue = value;
+            return previous;
+        }
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        int current;
+        while ((current = mKeys[index]) != FREE) {
+            if (current == key) {
+                V previous = (V) mValues[index];
+                mValues[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+        mKeys[index] = key;
+        mValues[index] = value;
+        if (++mSize > mThreshold) {
+            rehash(mKeys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value that was mapped to the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == FREE) {
+            V previous = (V) mZeroValue;
+            if (mHasZeroKey) {
+                mHasZeroKey = false;
+                mZeroValue = null;
+                mSize--;
+            }
+            return previous;
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V previous = (V) mValues[index];
+        shiftKeys(index);
+        mSize--;
+        return previous;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, FREE);
+        Arrays.fill(mValues, null);
+        mHasZeroKey = false;
+        mZeroValue = null;
+        mSize = 0;
+    }
+
+    private int indexOf(int key) {
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        int current;
+        while ((current = mKeys[index]) != FREE) {
+            if (current == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Backward shift deletion: moves the entries following a removed slot so that no probe
+     * sequence is broken, which avoids tombstones.
+     */
+    private void shiftKeys(int index) {
+        int mask = mKeys.length - 1;
+        int last;
+        int current;
+        while (true) {
+            last = index;
+            index = (index + 1) & mask;
+            while (true) {
+                current = mKeys[index];
+                if (current == FREE) {
+                    mKeys[last] = FREE;
+                    mValues[last] = null;
+                    return;
+                }
+                int slot = hash(current) & mask;
+                if (last <= index ? (last >= slot || slot > index) : (last >= slot && slot > index)) {
+                    break;
+                }
+                index = (index + 1) & mask;
+            }
+            mKeys[last] = current;
+            mValues[last] = mValues[index];
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        Object[] values = mValues;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            if (key != FREE) {
+                int index = hash(key) & mask;
+                while (mKeys[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                mKeys[index] = key;
+                mValues[index] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mValues = new Object[capacity];
+        mThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(int key) {
+        // Item ids are mostly sequential, so spread them before masking
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
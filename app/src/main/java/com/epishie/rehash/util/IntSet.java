@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+/**
+ * Set of primitive ints, backed by an {@link IntObjectMap}, so that ids are never boxed.
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class IntSet {
+
+    private static final Object PRESENT = new Object();
+
+    private final IntObjectMap<Object> mMap;
+
+    public IntSet() {
+        mMap = new IntObjectMap<>();
+    }
+
+    public IntSet(int expectedSize) {
+        mMap = new IntObjectMap<>(expectedSize);
+    }
+
+    /**
+     * @return whether the value was not in the set already
+     */
+    public boolean add(int value) {
+        return mMap.put(value, PRESENT) == null;
+    }
+
+    public boolean contains(int value) {
+        return mMap.containsKey(value);
+    }
+
+    /**
+     * @return whether the value was in the set
+     */
+    public boolean remove(int value) {
+        return mMap.remove(value) != null;
+    }
+
+    public int size() {
+        return mMap.size();
+    }
+
+    public boolean isEmpty() {
+        return mMap.isEmpty();
+    }
+
+    public void clear() {
+        mMap.clear();
+    }
+}
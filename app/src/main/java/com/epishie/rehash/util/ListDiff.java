@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Steps that turn a list of items into another, so that a list view can move, insert and remove
+ * rows instead of replacing all of them. Applied in order to a list of the base ids, the steps
+ * give the ids of the target; an inserted or changed item is the one at the same position in
+ * the target.
+ */
+public class ListDiff {
+
+    public static final int REMOVE = 0;
+    public static final int INSERT = 1;
+    public static final int MOVE = 2;
+    public static final int CHANGE = 3;
+
+    private final int[] mBaseIds;
+    private final List<Change> mChanges;
+
+    protected ListDiff(ListDiff diff) {
+        this(diff.mBaseIds, diff.mChanges);
+    }
+
+    private ListDiff(int[] baseIds, List<Change> changes) {
+        mBaseIds = baseIds;
+        mChanges = changes;
+    }
+
+    /**
+     * @return ids of the items the changes apply to, in order
+     */
+    public int[] getBaseIds() {
+        return mBaseIds;
+    }
+
+    public List<Change> getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * Computes the changes from one list to another, matching their items by id. Removals come
+     * first, from the last one. The items kept that lie on the longest run already in target
+     * order stay where they are, and each other item kept is moved right after the one before it
+     * in the target, so that an item that fell any number of places is a single move. The new
+     * items are then inserted from the first position, and the items kept whose content differs
+     * are changed last.
+     */
+    public static <T> ListDiff diff(List<T> base, List<T> target, Callback<T> callback) {
+        int[] baseIds = new int[base.size()];
+        for (int i = 0; i < baseIds.length; i++) {
+            baseIds[i] = callback.getId(base.get(i));
+        }
+        IntObjectMap<Slot<T>> slotsById = new IntObjectMap<>(target.size());
+        List<Slot<T>> slots = new ArrayList<>(target.size());
+        for (int i = 0; i < target.size(); i++) {
+            Slot<T> slot = new Slot<>(i);
+            slotsById.put(callback.getId(target.get(i)), slot);
+            slots.add(slot);
+        }
+        List<Change> changes = new ArrayList<>();
+        List<Slot<T>> current = new ArrayList<>(base.size());
+        for (int i = base.size() - 1; i >= 0; i--) {
+            Slot<T> slot = slotsById.get(baseIds[i]);
+            if (slot == null) {
+                changes.add(new Change(REMOVE, i, i));
+            } else {
+                slot.mBase = base.get(i);
+                current.add(slot);
+            }
+        }
+        Collections.reverse(current);
+        for (int i = 0; i < current.size(); i++) {
+            current.get(i).mPosition = i;
+        }
+        keepLongestRun(current);
+        Slot<T> previous = null;
+        for (Slot<T> slot : slots) {
+            if (slot.mBase == null) {
+                continue;
+            }
+            if (!slot.mKept) {
+                int from = slot.mPosition;
+                int to = previous == null ? 0 : previous.mPosition + 1;
+                if (from < to) {
+                    to--;
+                }
+                if (from != to) {
+                    current.add(to, current.remove(from));
+                    reposition(current, Math.min(from, to), Math.max(from, to));
+                    changes.add(new Change(MOVE, from, to));
+                }
+            }
+            previous = slot;
+        }
+        for (int i = 0; i < target.size(); i++) {
+            if (slots.get(i).mBase == null) {
+                changes.add(new Change(INSERT, i, i));
+            }
+        }
+        for (int i = 0; i < target.size(); i++) {
+            T item = slots.get(i).mBase;
+            if (item != null && item != target.get(i) && !callback.isSameContent(item, target.get(i))) {
+                changes.add(new Change(CHANGE, i, i));
+            }
+        }
+        return new ListDiff(baseIds, Collections.unmodifiableList(changes));
+    }
+
+    /**
+     * Marks as kept the items on the longest run of increasing target positions, preferring the
+     * earliest items of the list where runs are as long.
+     */
+    private static <T> void keepLongestRun(List<Slot<T>> items) {
+        // Scanning from the end, heads[n] is the item with the greatest target position that
+        // starts a run of n + 1 items, and next[i] the item after item i on its run
+        int[] heads = new int[items.size()];
+        int[] next = new int[items.size()];
+        int length = 0;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            int target = items.get(i).mTarget;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (items.get(heads[middle]).mTarget > target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            next[i] = low > 0 ? heads[low - 1] : -1;
+            heads[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        for (int i = length > 0 ? heads[length - 1] : -1; i >= 0; i = next[i]) {
+            items.get(i).mKept = true;
+        }
+    }
+
+    private static <T> void reposition(List<Slot<T>> items, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            items.get(i).mPosition = i;
+        }
+    }
+
+    public interface Callback<T> {
+
+        int getId(T item);
+
+        /**
+         * @return whether the two items with the same id would be shown the same
+         */
+        boolean isSameContent(T oldItem, T newItem);
+    }
+
+    /**
+     * Item of the target while the changes are computed.
+     */
+    private static final class Slot<T> {
+
+        final int mTarget;
+        // Position among the items kept while they are moved
+        int mPosition;
+        // Item of the base with the same id, or null for a new item
+        T mBase;
+        // Whether the item stays where it is, the others being moved around it
+        boolean mKept;
+
+        Slot(int target) {
+            mTarget = target;
+        }
+    }
+
+    public static final class Change {
+
+        private final int mType;
+        private final int mFrom;
+        private final int mTo;
+
+        private Change(int type, int from, int to) {
+            mType = type;
+            mFrom = from;
+            mTo = to;
+        }
+
+        /**
+         * @return {@link #REMOVE}, {@link #INSERT}, {@link #MOVE} or {@link #CHANGE}
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return position of the item removed, moved or changed
+         */
+        public int getFrom() {
+            return mFrom;
+        }
+
+        /**
+         * @return position of the item inserted, moved or changed
+         */
+        public int getTo() {
+            return mTo;
+        }
+    }
+}
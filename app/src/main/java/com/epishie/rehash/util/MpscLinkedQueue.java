@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer. Producers link a node with
+ * one atomic swap of the tail and never wait on each other or on the consumer.
+ *
+ * <p>{@link #offer(Object)} can be called from any thread, {@link #poll()} from one thread at a
+ * time only. An element whose offer has not returned yet may not be visible to poll, even if
+ * elements offered after it are.</p>
+ */
+public class MpscLinkedQueue<E> {
+
+    private final AtomicReference<Node<E>> mTail;
+    // Consumer side only: the last node polled, whose value has already been taken
+    private Node<E> mHead;
+
+    public MpscLinkedQueue() {
+        mHead = new Node<>(null);
+        mTail = new AtomicReference<>(mHead);
+    }
+
+    public void offer(E value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        Node<E> node = new Node<>(value);
+        Node<E> previous = mTail.getAndSet(node);
+        previous.lazySet(node);
+    }
+
+    /**
+     * Returns whether nothing has been offered since the last element polled. Unlike a null from
+     * {@link #poll()}, false means an element is about to become available.
+     */
+    public boolean isEmpty() {
+        return mHead == mTail.get();
+    }
+
+    /**
+     * @return the oldest element or null if there is none ready
+     */
+    public E poll() {
+        Node<E> next = mHead.get();
+        if (next == null) {
+            return null;
+        }
+        E value = next.mValue;
+        next.mValue = null;
+        mHead = next;
+        return value;
+    }
+
+    // The node is its own link to the next node, so an offer allocates a single object
+    private static final class Node<E> extends AtomicReference<Node<E>> {
+
+        private E mValue;
+
+        private Node(E value) {
+            mValue = value;
+        }
+    }
+}
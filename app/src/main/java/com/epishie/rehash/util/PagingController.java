@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import rx.Scheduler;
+
+/**
+ * Tunes the size of the pages of a list and how far from its end the next page is requested,
+ * from how long pages take to load and how fast the list is scrolled.
+ *
+ * <p>Pages grow by the smallest page size while they load within the target page time, and
+ * shrink in proportion once they take longer, so that fast links make few large requests and slow
+ * links show the first items sooner. Only the page that answers the latest request is measured,
+ * since the items of a page are fetched in parallel and a page replayed or answering another
+ * request says nothing about the time of this one. The next page is requested once the items left
+ * below the screen would be scrolled past before it could load. Until a page has been measured,
+ * the smallest page size and fetch offset are used.</p>
+ *
+ * <p>The controller is meant to be used from the main thread only.</p>
+ */
+public class PagingController {
+
+    public static final int DEFAULT_MIN_PAGE_SIZE = 5;
+    public static final int DEFAULT_MAX_PAGE_SIZE = 30;
+    public static final int DEFAULT_MIN_FETCH_OFFSET = 3;
+    public static final int DEFAULT_MAX_FETCH_OFFSET = 15;
+    public static final long DEFAULT_TARGET_PAGE_TIME = 800;
+
+    // Weight of a new sample in the moving averages
+    private static final double SMOOTHING = 0.3;
+    // Scroll positions are sampled at most this often, and a longer pause starts a new gesture
+    private static final long SCROLL_SAMPLE_INTERVAL = 100;
+    private static final long SCROLL_GAP = 500;
+
+    private final int mMinPageSize;
+    private final int mMaxPageSize;
+    private final int mMinFetchOffset;
+    private final int mMaxFetchOffset;
+    private final long mTargetPageTime;
+    private final Scheduler mClock;
+    // Milliseconds per page, or negative until a page has been measured
+    private double mPageLatency;
+    // Items per millisecond
+    private double mScrollVelocity;
+    private long mRequest;
+    private long mRequestedAt;
+    private int mScrollPosition;
+    private long mScrollSampledAt;
+    private int mPageSize;
+    private int mFetchOffset;
+    private long mPageCount;
+    private long mAdjustmentCount;
+
+    public PagingController(Scheduler clock) {
+        this(DEFAULT_MIN_PAGE_SIZE, DEFAULT_MAX_PAGE_SIZE, DEFAULT_MIN_FETCH_OFFSET, DEFAULT_MAX_FETCH_OFFSET,
+                DEFAULT_TARGET_PAGE_TIME, clock);
+    }
+
+    /**
+     * @param targetPageTime time in milliseconds a page should take to load
+     * @param clock source of the current time
+     */
+    public PagingController(int minPageSize, int maxPageSize, int minFetchOffset, int maxFetchOffset,
+                            long targetPageTime, Scheduler clock) {
+        if (minPageSize < 1 || maxPageSize < minPageSize || minFetchOffset < 1 || maxFetchOffset < minFetchOffset) {
+            throw new IllegalArgumentException("Page sizes and fetch offsets must be at least 1 and ordered");
+        }
+        mMinPageSize = minPageSize;
+        mMaxPageSize = maxPageSize;
+        mMinFetchOffset = minFetchOffset;
+        mMaxFetchOffset = maxFetchOffset;
+        mTargetPageTime = targetPageTime;
+        mClock = clock;
+        mPageLatency = -1;
+        mRequestedAt = -1;
+        mScrollSampledAt = -1;
+        mPageSize = minPageSize;
+        mFetchOffset = minFetchOffset;
+    }
+
+    /**
+     * Starts timing a page, superseding the request before it if it is still pending.
+     *
+     * @return number of the request, which the page that answers it is to be tagged with
+     */
+    public long onPageRequested() {
+        mRequestedAt = mClock.now();
+        return ++mRequest;
+    }
+
+    /**
+     * Measures the page if it answers the pending request. Pages that answer other requests, or
+     * none, such as replayed ones, are not measured.
+     *
+     * @param request number of the request the page answers
+     */
+    public void onPageLoaded(long request) {
+        if (mRequestedAt < 0 || request != mRequest) {
+            return;
+        }
+        double latency = Math.max(mClock.now() - mRequestedAt, 1);
+        mRequestedAt = -1;
+        mPageLatency = mPageLatency < 0 ? latency : smooth(mPageLatency, latency);
+        mPageCount++;
+        if (mPageLatency <= mTargetPageTime) {
+            resize(mPageSize + mMinPageSize);
+        } else {
+            resize((int) (mPageSize * mTargetPageTime / mPageLatency));
+        }
+        decide();
+    }
+
+    /**
+     * @param firstVisiblePosition adapter position of the first item on screen
+     */
+    public void onScrolled(int firstVisiblePosition) {
+        long now = mClock.now();
+        if (mScrollSampledAt < 0 || now - mScrollSampledAt > SCROLL_GAP) {
+            mScrollPosition = firstVisiblePosition;
+            mScrollSampledAt = now;
+            return;
+        }
+        long interval = now - mScrollSampledAt;
+        if (interval < SCROLL_SAMPLE_INTERVAL) {
+            return;
+        }
+        double velocity = (double) Math.abs(firstVisiblePosition - mScrollPosition) / interval;
+        mScrollVelocity = smooth(mScrollVelocity, velocity);
+        mScrollPosition = firstVisiblePosition;
+        mScrollSampledAt = now;
+        decide();
+    }
+
+    public void onScrollStopped() {
+        mScrollVelocity = smooth(mScrollVelocity, 0);
+        mScrollSampledAt = -1;
+        decide();
+    }
+
+    /**
+     * @return number of items to request in the next page
+     */
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * @return number of items from the end of the list at which the next page is requested
+     */
+    public int getFetchOffset() {
+        return mFetchOffset;
+    }
+
+    /**
+     * @return average milliseconds a page took to load, or a negative value until a page has been
+     * measured
+     */
+    public double getPageLatency() {
+        return mPageLatency;
+    }
+
+    /**
+     * @return average items scrolled past per second
+     */
+    public double getScrollVelocity() {
+        return mScrollVelocity * 1000;
+    }
+
+    /**
+     * @return number of pages measured
+     */
+    public long getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * @return number of times the page size or the fetch offset changed
+     */
+    public long getAdjustmentCount() {
+        return mAdjustmentCount;
+    }
+
+    private void resize(int pageSize) {
+        pageSize = clamp(pageSize, mMinPageSize, mMaxPageSize);
+        if (pageSize != mPageSize) {
+            mPageSize = pageSize;
+            mAdjustmentCount++;
+        }
+    }
+
+    private void decide() {
+        if (mPageLatency < 0) {
+            return;
+        }
+        // Items scrolled past while the next page loads, and the one the progress is shown on
+        int fetchOffset = clamp((int) Math.ceil(mScrollVelocity * mPageLatency) + 1, mMinFetchOffset,
+                mMaxFetchOffset);
+        if (fetchOffset != mFetchOffset) {
+            mFetchOffset = fetchOffset;
+            mAdjustmentCount++;
+        }
+    }
+
+    private static double smooth(double average, double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
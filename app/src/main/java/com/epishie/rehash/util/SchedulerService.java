@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Thread pools shared by the app, so that concurrency is tuned in one place.
+ *
+ * <ul>
+ *     <li>The io pool makes network and disk calls, and its tasks never wait on other tasks.</li>
+ *     <li>The background pool runs the stores and other work that waits on the io pool.</li>
+ *     <li>The computation pool maps and pre-processes data and should never block.</li>
+ *     <li>The idle pool runs work that nobody waits on, such as prefetches, revalidations and
+ *     syncs, on threads of the lowest priority, so that it never holds up the stores.</li>
+ * </ul>
+ *
+ * <p>A worker of a pool's scheduler runs its tasks one at a time, so a subscription observed on
+ * it still sees its events in order.</p>
+ */
+public class SchedulerService {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Pool mIo;
+    private final Pool mBackground;
+    private final Pool mComputation;
+    private final Pool mIdle;
+
+    public SchedulerService(int ioThreads, int backgroundThreads, int computationThreads, int idleThreads) {
+        mIo = new Pool("io", ioThreads, Thread.NORM_PRIORITY);
+        mBackground = new Pool("background", backgroundThreads, Thread.NORM_PRIORITY);
+        mComputation = new Pool("computation", computationThreads, Thread.NORM_PRIORITY);
+        mIdle = new Pool("idle", idleThreads, Thread.MIN_PRIORITY);
+    }
+
+    public Executor ioExecutor() {
+        return mIo;
+    }
+
+    public Scheduler io() {
+        return mIo.mScheduler;
+    }
+
+    public Scheduler background() {
+        return mBackground.mScheduler;
+    }
+
+    public Scheduler computation() {
+        return mComputation.mScheduler;
+    }
+
+    public Scheduler idle() {
+        return mIdle.mScheduler;
+    }
+
+    public Pool getIoPool() {
+        return mIo;
+    }
+
+    public Pool getBackgroundPool() {
+        return mBackground;
+    }
+
+    public Pool getComputationPool() {
+        return mComputation;
+    }
+
+    public Pool getIdlePool() {
+        return mIdle;
+    }
+
+    public void shutdown() {
+        mIo.shutdown();
+        mBackground.shutdown();
+        mComputation.shutdown();
+        mIdle.shutdown();
+    }
+
+    /**
+     * Fixed size pool of named threads of one priority that measures how busy its threads are.
+     * Idle threads are let go after a while.
+     */
+    public static final class Pool extends ThreadPoolExecutor {
+
+        private final String mName;
+        private final Scheduler mScheduler;
+        private final long mCreatedAt;
+        private final AtomicLong mBusyTime = new AtomicLong();
+        private final ThreadLocal<Long> mTaskStart = new ThreadLocal<>();
+
+        private Pool(final String name, int threads, final int priority) {
+            super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "rehash-" + name + "-" + mCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            thread.setPriority(priority);
+                            return thread;
+                        }
+                    });
+            allowCoreThreadTimeOut(true);
+            mName = name;
+            mScheduler = Schedulers.from(this);
+            mCreatedAt = System.nanoTime();
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return nanoseconds the threads of the pool have spent running tasks
+         */
+        public long getBusyTime() {
+            return mBusyTime.get();
+        }
+
+        /**
+         * @return share of the time of all threads of the pool spent running tasks since it was
+         * created, from 0 to 1
+         */
+        public double getUtilization() {
+            long elapsed = System.nanoTime() - mCreatedAt;
+            return elapsed <= 0 ? 0 : (double) mBusyTime.get() / ((double) elapsed * getMaximumPoolSize());
+        }
+
+        /**
+         * @return number of tasks waiting for a thread
+         */
+        public int getQueuedCount() {
+            return getQueue().size();
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            mTaskStart.set(System.nanoTime());
+        }
+
+        @Override
+        protected void afterExecute(Runnable runnable, Throwable throwable) {
+            Long start = mTaskStart.get();
+            if (start != null) {
+                mBusyTime.addAndGet(System.nanoTime() - start);
+                mTaskStart.remove();
+            }
+            super.afterExecute(runnable, throwable);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List that is only appended to, and whose snapshots share its items instead of copying them. A
+ * snapshot holds the items added before it was taken, which are never written again, so it can
+ * be read from other threads once it is safely published.
+ *
+ * <p>Adding is not thread safe.</p>
+ */
+public class SnapshotList<T> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Object[] mItems = new Object[INITIAL_CAPACITY];
+    private int mSize;
+
+    public void add(T item) {
+        if (mSize == mItems.length) {
+            // Snapshots keep the array they were taken from, so it is copied rather than reused
+            mItems = Arrays.copyOf(mItems, mSize * 2);
+        }
+        mItems[mSize++] = item;
+    }
+
+    public void addAll(List<? extends T> items) {
+        for (int i = 0; i < items.size(); i++) {
+            add(items.get(i));
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return unmodifiable list of the items added so far, which later additions do not change
+     */
+    public List<T> snapshot() {
+        return new Snapshot<>(mItems, mSize);
+    }
+
+    private static final class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+
+        private final Object[] mItems;
+        private final int mSize;
+
+        private Snapshot(Object[] items, int size) {
+            mItems = items;
+            mSize = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int location) {
+            if (location < 0 || location >= mSize) {
+                throw new IndexOutOfBoundsException("Invalid index " + location + ", size is " + mSize);
+            }
+            return (T) mItems[location];
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+/**
+ * Labels of times relative to now, to the minute. The label of a minute is formatted once and
+ * served until the minute ends, and listeners are told once a minute to refresh the labels they
+ * show.
+ */
+public class TimeLabels {
+
+    public static final long MINUTE = 60 * 1000;
+
+    private final Formatter mFormatter;
+    private final Scheduler mScheduler;
+    // Labels of the minutes of the times, as of the current minute
+    private final IntObjectMap<CharSequence> mLabels;
+    private final List<Listener> mListeners;
+    private long mMinute;
+    // Minute started at the last tick, which may run a little early
+    private long mTickMinute;
+    private Scheduler.Worker mWorker;
+    private long mFormatCount;
+    private long mTickCount;
+
+    /**
+     * @param scheduler source of the current time, on which the listeners are told of each minute
+     */
+    public TimeLabels(Formatter formatter, Scheduler scheduler) {
+        mFormatter = formatter;
+        mScheduler = scheduler;
+        mLabels = new IntObjectMap<>();
+        mListeners = new ArrayList<>();
+    }
+
+    /**
+     * @param time time in milliseconds
+     * @return label of the time relative to the current minute, the same instance until it ends
+     */
+    public synchronized CharSequence get(long time) {
+        long minute = Math.max(floor(mScheduler.now()), mTickMinute);
+        if (minute != mMinute) {
+            mMinute = minute;
+            mLabels.clear();
+        }
+        int key = (int) (floor(time) / MINUTE);
+        CharSequence label = mLabels.get(key);
+        if (label == null) {
+            label = mFormatter.format(key * MINUTE, minute);
+            mLabels.put(key, label);
+            mFormatCount++;
+        }
+        return label;
+    }
+
+    /**
+     * Tells the listener at the start of every minute, until it is removed. Ticks while there are
+     * listeners.
+     */
+    public synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mWorker != null) {
+            return;
+        }
+        long now = mScheduler.now();
+        mWorker = mScheduler.createWorker();
+        mWorker.schedulePeriodically(new Action0() {
+
+            @Override
+            public void call() {
+                tick();
+            }
+        }, floor(now) + MINUTE - now, MINUTE, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty() && mWorker != null) {
+            mWorker.unsubscribe();
+            mWorker = null;
+        }
+    }
+
+    public synchronized long getFormatCount() {
+        return mFormatCount;
+    }
+
+    public synchronized long getTickCount() {
+        return mTickCount;
+    }
+
+    private void tick() {
+        List<Listener> listeners;
+        synchronized (this) {
+            mTickCount++;
+            mTickMinute = floor(mScheduler.now() + MINUTE / 2);
+            listeners = new ArrayList<>(mListeners);
+        }
+        for (Listener listener : listeners) {
+            listener.onMinute();
+        }
+    }
+
+    private static long floor(long time) {
+        return time - ((time % MINUTE) + MINUTE) % MINUTE;
+    }
+
+    public interface Formatter {
+
+        /**
+         * @param time time in milliseconds
+         * @param now current time in milliseconds
+         */
+        CharSequence format(long time, long now);
+    }
+
+    public interface Listener {
+
+        void onMinute();
+    }
+}
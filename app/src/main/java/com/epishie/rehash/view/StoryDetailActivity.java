@@ -30,13 +30,19 @@ import android.view.View;
 
 import com.epishie.rehash.R;
 import com.epishie.rehash.action.ActionCreator;
-import com.epishie.rehash.action.DataMarker;
+import com.epishie.rehash.bus.EventBuffer;
 import com.epishie.rehash.bus.RxEventBus;
 import com.epishie.rehash.di.AppComponent;
 import com.epishie.rehash.di.HasComponent;
 import com.epishie.rehash.model.CommentsList;
+import com.epishie.rehash.model.ItemUpdates;
+import com.epishie.rehash.store.UpdateSync;
+import com.epishie.rehash.util.PagingController;
+import com.epishie.rehash.util.SchedulerService;
+import com.epishie.rehash.util.TimeLabels;
 import com.epishie.rehash.view.adapter.CommentsAdapter;
 import com.epishie.rehash.view.widget.DividerItemDecoration;
+import com.epishie.rehash.view.widget.TextLayoutCache;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -56,18 +62,35 @@ public class StoryDetailActivity extends AppCompatActivity {
     private static final String TAG_RETAIN = "retain";
     public static final String EXTRA_STORY_ID = "com.epishie.rehash.EXTRA_STORY_ID";
     public static final String EXTRA_STORY_TEXT = "com.epishie.rehash.EXTRA_STORY_TEXT";
-    private static final int FETCH_COUNT = 5;
+    // The first page has the size of the comments prefetched for a story
+    private static final int FIRST_PAGE_SIZE = 5;
+    private static final int PAGE_BUFFER_SIZE = 16;
 
     @Named("data")
     @Inject
     protected RxEventBus mDataBus;
     @Inject
     protected ActionCreator mActionCreator;
+    @Named("comments")
+    @Inject
+    protected PagingController mPaging;
+    @Inject
+    protected UpdateSync mUpdateSync;
+    @Named("comments")
+    @Inject
+    protected TextLayoutCache mLayouts;
+    @Inject
+    protected SchedulerService mSchedulers;
+    @Inject
+    protected TimeLabels mTimeLabels;
     @Bind(R.id.list)
     protected RecyclerView mList;
     @Bind(R.id.spacer)
     protected View mSpacer;
+    private CommentsAdapter mAdapter;
     private StateFragment mState;
+    // Sequence of the last page shown, a page that does not follow it means pages were missed
+    private long mLastSequence;
     private CompositeSubscription mSubscriptions;
 
     @Override
@@ -91,6 +114,12 @@ public class StoryDetailActivity extends AppCompatActivity {
         HasComponent<AppComponent> appComponentSource = (HasComponent<AppComponent>) getApplication();
         appComponentSource.getComponent().injectActivity(this);
 
+        if (!mState.mIsRelaunched.get()) {
+            Intent intent = getIntent();
+            mState.mStoryId.set(intent.getIntExtra(EXTRA_STORY_ID, 0));
+            mState.mStoryText.set(intent.getStringExtra(EXTRA_STORY_TEXT));
+        }
+
         // SETUP VIEWS
         setupViews();
 
@@ -98,10 +127,9 @@ public class StoryDetailActivity extends AppCompatActivity {
         setupBus();
 
         if (!mState.mIsRelaunched.get()) {
-            Intent intent = getIntent();
-            mState.mStoryId.set(intent.getIntExtra(EXTRA_STORY_ID, 0));
-            mState.mStoryText.set(intent.getStringExtra(EXTRA_STORY_TEXT));
-            mActionCreator.createGetCommentsAction(mState.mStoryId.get(), true, FETCH_COUNT);
+            // Starts over, served from the cache when the comments were prefetched
+            long request = mPaging.onPageRequested();
+            mActionCreator.createGetCommentsAction(mState.mStoryId.get(), true, false, FIRST_PAGE_SIZE, request);
         }
     }
 
@@ -111,9 +139,25 @@ public class StoryDetailActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mUpdateSync.start();
+        // Ages may have changed while stopped
+        mAdapter.onMinute();
+        mTimeLabels.addListener(mAdapter);
+    }
+
+    @Override
+    protected void onStop() {
+        mTimeLabels.removeListener(mAdapter);
+        mUpdateSync.stop();
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
-        mState.mCommentsAdapter.setListener(null);
+        mAdapter.setListener(null);
         mSubscriptions.unsubscribe();
         super.onDestroy();
     }
@@ -128,13 +172,30 @@ public class StoryDetailActivity extends AppCompatActivity {
             getSupportActionBar().setTitle("");
         }
 
-        LinearLayoutManager lm = new LinearLayoutManager(this);
+        final LinearLayoutManager lm = new LinearLayoutManager(this);
         lm.setOrientation(LinearLayoutManager.VERTICAL);
-        if (mState.mCommentsAdapter == null) {
-            mState.mCommentsAdapter = new CommentsAdapter(mState.mStoryText.get(), getResources().getDisplayMetrics());
-        }
+        // The latest page of comments is replayed by the data bus
+        mAdapter = new CommentsAdapter(mState.mStoryText.get(), getResources().getDisplayMetrics(), mLayouts,
+                mSchedulers.computation(), mTimeLabels);
+        mAdapter.setFetchOffset(mPaging.getFetchOffset());
         mList.setLayoutManager(lm);
-        mList.setAdapter(mState.mCommentsAdapter);
+        mList.setAdapter(mAdapter);
+        mList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mPaging.onScrolled(lm.findFirstVisibleItemPosition());
+                mAdapter.setFetchOffset(mPaging.getFetchOffset());
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    mPaging.onScrollStopped();
+                    mAdapter.setFetchOffset(mPaging.getFetchOffset());
+                }
+            }
+        });
         mList.addItemDecoration(new DividerItemDecoration(this, DividerItemDecoration.VERTICAL_LIST));
         if (mState.mStoryText.get() == null || mState.mStoryText.get().isEmpty()) {
             CoordinatorLayout.LayoutParams layoutParams = (CoordinatorLayout.LayoutParams) mList.getLayoutParams();
@@ -143,40 +204,64 @@ public class StoryDetailActivity extends AppCompatActivity {
             mSpacer.setVisibility(View.GONE);
         }
 
-        mState.mCommentsAdapter.setListener(new CommentsAdapter.Listener() {
+        mAdapter.setListener(new CommentsAdapter.Listener() {
 
             @Override
             public void onRequestMoreComments() {
-                mActionCreator.createGetCommentsAction(mState.mStoryId.get(), false, FETCH_COUNT);
+                long request = mPaging.onPageRequested();
+                mActionCreator.createGetCommentsAction(mState.mStoryId.get(), false, false, mPaging.getPageSize(),
+                        request);
             }
         });
     }
 
     private void setupBus() {
         mSubscriptions = new CompositeSubscription();
-        mSubscriptions.add(mDataBus.events(CommentsList.class)
+        // The replay reaches the buffer on the main thread, so it must never block. A page that
+        // follows dropped ones is shown from the list it carries.
+        mSubscriptions.add(mDataBus.events(CommentsList.class,
+                new EventBuffer<CommentsList>(PAGE_BUFFER_SIZE, EventBuffer.Overflow.DROP_OLDEST))
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Action1<CommentsList>() {
 
                     @Override
                     public void call(CommentsList comments) {
-                        mState.mCommentsAdapter.addComments(comments);
+                        // The latest page replayed may be of the story opened before
+                        if (comments.getStoryId() != mState.mStoryId.get()) {
+                            return;
+                        }
+                        mPaging.onPageLoaded(comments.getRequest());
+                        mAdapter.setFetchOffset(mPaging.getFetchOffset());
+                        boolean missed = comments.getSequence() != mLastSequence + 1;
+                        mLastSequence = comments.getSequence();
+                        if (missed) {
+                            // Pages replayed or posted before the subscription are all in the latest
+                            mAdapter.refreshComments(comments.getShown());
+                        } else if (comments.isFirstPage()) {
+                            mAdapter.refreshComments(comments);
+                        } else {
+                            mAdapter.addComments(comments);
+                        }
+                        if (comments.isLastPage()) {
+                            mAdapter.setDataEnded(true);
+                        }
                     }
                 }));
-        mSubscriptions.add(mDataBus.events(DataMarker.class)
+        // An update dropped only leaves its rows as they were until the next one
+        mSubscriptions.add(mDataBus.events(ItemUpdates.class,
+                new EventBuffer<ItemUpdates>(PAGE_BUFFER_SIZE, EventBuffer.Overflow.DROP_OLDEST))
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(new Action1<DataMarker>() {
+                .subscribe(new Action1<ItemUpdates>() {
 
                     @Override
-                    public void call(DataMarker dataMarker) {
-                        mState.mCommentsAdapter.setDataEnded(true);
+                    public void call(ItemUpdates updates) {
+                        mAdapter.updateComments(updates.getComments());
                     }
                 }));
     }
 
     public static class StateFragment extends Fragment {
 
-        public CommentsAdapter mCommentsAdapter;
         public AtomicInteger mStoryId = new AtomicInteger();
         public AtomicReference<String> mStoryText = new AtomicReference<>();
         public AtomicBoolean mIsRelaunched = new AtomicBoolean(false);
@@ -29,11 +29,18 @@ import android.support.v7.widget.RecyclerView;
 import com.epishie.rehash.R;
 import com.epishie.rehash.action.ActionCreator;
 import com.epishie.rehash.action.DataMarker;
+import com.epishie.rehash.bus.EventBuffer;
 import com.epishie.rehash.bus.RxEventBus;
 import com.epishie.rehash.di.AppComponent;
 import com.epishie.rehash.di.HasComponent;
+import com.epishie.rehash.model.ItemUpdates;
 import com.epishie.rehash.model.StoryBundle;
+import com.epishie.rehash.store.UpdateSync;
+import com.epishie.rehash.util.PagingController;
+import com.epishie.rehash.util.SchedulerService;
+import com.epishie.rehash.util.TimeLabels;
 import com.epishie.rehash.view.adapter.TopStoriesAdapter;
+import com.epishie.rehash.view.widget.TextLayoutCache;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,19 +53,32 @@ import butterknife.Bind;
 import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.functions.Action1;
+import rx.functions.Func1;
 
 import static butterknife.ButterKnife.bind;
 
 public class TopStoriesActivity extends AppCompatActivity {
 
     private static final String TAG_RETAIN = "retain";
-    private static final int FETCH_COUNT = 5;
+    private static final int PAGE_BUFFER_SIZE = 16;
 
     @Named("data")
     @Inject
     protected RxEventBus mDataBus;
     @Inject
     protected ActionCreator mActionCreator;
+    @Named("stories")
+    @Inject
+    protected PagingController mPaging;
+    @Inject
+    protected UpdateSync mUpdateSync;
+    @Named("stories")
+    @Inject
+    protected TextLayoutCache mLayouts;
+    @Inject
+    protected SchedulerService mSchedulers;
+    @Inject
+    protected TimeLabels mTimeLabels;
     @Bind(R.id.list)
     protected RecyclerView mList;
     @Bind(R.id.refresher)
@@ -66,6 +86,8 @@ public class TopStoriesActivity extends AppCompatActivity {
     private TopStoriesAdapter mAdapter;
     private List<Subscription> mSubscriptions;
     private StateFragment mState;
+    // Sequence of the last page shown, a page that does not follow it means pages were missed
+    private long mLastSequence;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -92,7 +114,7 @@ public class TopStoriesActivity extends AppCompatActivity {
         setupBus();
 
         if (!mState.mIsRelaunched.get()) {
-            mActionCreator.createGetStoriesAction(false, FETCH_COUNT);
+            requestStories(false);
         }
         // Show refresh on
         if (mState.mIsRefreshing.get()) {
@@ -105,10 +127,25 @@ public class TopStoriesActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mUpdateSync.start();
+        // Ages may have changed while stopped
+        mAdapter.onMinute();
+        mTimeLabels.addListener(mAdapter);
+    }
+
+    @Override
+    protected void onStop() {
+        mTimeLabels.removeListener(mAdapter);
+        mUpdateSync.stop();
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
         mAdapter.setListener(null);
-        mState.mAdapter = mAdapter;
         for (Subscription subscription : mSubscriptions) {
             subscription.unsubscribe();
         }
@@ -120,21 +157,36 @@ public class TopStoriesActivity extends AppCompatActivity {
         bind(this);
 
         // SETUP RECYCLER VIEW
-        LinearLayoutManager lm = new LinearLayoutManager(this);
+        final LinearLayoutManager lm = new LinearLayoutManager(this);
         lm.setOrientation(LinearLayoutManager.VERTICAL);
-        mAdapter = mState.mAdapter;
-        if (mAdapter == null) {
-            mAdapter = new TopStoriesAdapter();
-        }
+        // The latest page of stories is replayed by the data bus
+        mAdapter = new TopStoriesAdapter(mLayouts, mSchedulers.computation(), mTimeLabels);
+        mAdapter.setFetchOffset(mPaging.getFetchOffset());
         mList.setLayoutManager(lm);
         mList.setAdapter(mAdapter);
+        mList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mPaging.onScrolled(lm.findFirstVisibleItemPosition());
+                mAdapter.setFetchOffset(mPaging.getFetchOffset());
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    mPaging.onScrollStopped();
+                    mAdapter.setFetchOffset(mPaging.getFetchOffset());
+                }
+            }
+        });
 
         // SETUP ADAPTER LISTENER
         mAdapter.setListener(new TopStoriesAdapter.Listener() {
 
             @Override
             public void onRequestMoreStories() {
-                mActionCreator.createGetStoriesAction(false, FETCH_COUNT);
+                requestStories(false);
             }
 
             @Override
@@ -160,29 +212,69 @@ public class TopStoriesActivity extends AppCompatActivity {
             @Override
             public void onRefresh() {
                 mState.mIsRefreshing.set(true);
-                mActionCreator.createGetStoriesAction(true, FETCH_COUNT);
+                requestStories(true);
             }
         });
     }
 
+    private void requestStories(boolean refresh) {
+        long request = mPaging.onPageRequested();
+        mActionCreator.createGetStoriesAction(refresh, mPaging.getPageSize(), request);
+    }
+
+    private void showFirstPage(StoryBundle stories) {
+        // A refresh moves the rows kept instead of rebinding all of them
+        if (stories.getChanges() != null) {
+            mAdapter.applyChanges(stories);
+        } else {
+            mAdapter.refreshStories(stories);
+        }
+    }
+
     private void setupBus() {
         mSubscriptions = new ArrayList<>();
-        Subscription storySubscription = mDataBus.events(StoryBundle.class)
+        // The replay reaches the buffer on the main thread, so it must never block. A page that
+        // follows dropped ones is shown from the list it carries.
+        Subscription storySubscription = mDataBus.events(StoryBundle.class,
+                new EventBuffer<StoryBundle>(PAGE_BUFFER_SIZE, EventBuffer.Overflow.DROP_OLDEST))
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Action1<StoryBundle>() {
 
                     @Override
                     public void call(StoryBundle stories) {
-                        if (mState.mIsRefreshing.get()) {
+                        mPaging.onPageLoaded(stories.getRequest());
+                        mAdapter.setFetchOffset(mPaging.getFetchOffset());
+                        boolean missed = stories.getSequence() != mLastSequence + 1;
+                        mLastSequence = stories.getSequence();
+                        boolean refreshed = mState.mIsRefreshing.get();
+                        if (refreshed) {
                             mState.mIsRefreshing.set(false);
                             mRefresher.setRefreshing(false);
-                            mAdapter.refreshStories(stories);
+                        }
+                        if (missed) {
+                            // Pages replayed or posted before the subscription are all in the latest
+                            mAdapter.refreshStories(stories.getShown());
+                        } else if (refreshed || stories.isFirstPage()) {
+                            showFirstPage(stories);
                         } else {
                             mAdapter.addStories(stories);
                         }
+                        if (stories.isLastPage()) {
+                            mAdapter.setDataEnded(true);
+                        }
                     }
                 });
+        // Other markers are filtered out before the buffer, so that none of them can coalesce
+        // the end of the stories away
         Subscription storiesEndedSubscription = mDataBus.events(DataMarker.class)
+                .filter(new Func1<DataMarker, Boolean>() {
+
+                    @Override
+                    public Boolean call(DataMarker dataMarker) {
+                        return dataMarker == DataMarker.STORY_END;
+                    }
+                })
+                .lift(new EventBuffer<DataMarker>(1, EventBuffer.Overflow.COALESCE_LATEST))
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Action1<DataMarker>() {
 
@@ -195,15 +287,29 @@ public class TopStoriesActivity extends AppCompatActivity {
                         mAdapter.setDataEnded(true);
                     }
                 });
+        // Updates carry every story updated since the latest page, so the next one makes up for one dropped
+        Subscription updatesSubscription = mDataBus.events(ItemUpdates.class,
+                new EventBuffer<ItemUpdates>(PAGE_BUFFER_SIZE, EventBuffer.Overflow.DROP_OLDEST))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new Action1<ItemUpdates>() {
+
+                    @Override
+                    public void call(ItemUpdates updates) {
+                        // Updates replayed from before the latest page are already in the stories it carries
+                        if (updates.getSequence() >= mLastSequence) {
+                            mAdapter.updateStories(updates.getStories());
+                        }
+                    }
+                });
         mSubscriptions.add(storySubscription);
         mSubscriptions.add(storiesEndedSubscription);
+        mSubscriptions.add(updatesSubscription);
     }
 
     public static class StateFragment extends Fragment {
 
         public AtomicBoolean mIsRefreshing = new AtomicBoolean(false);
         public AtomicBoolean mIsRelaunched = new AtomicBoolean(false);
-        public TopStoriesAdapter mAdapter;
 
         @Override
         public void onCreate(Bundle savedInstanceState) {
@@ -19,7 +19,6 @@ package com.epishie.rehash.view.adapter;
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
 import android.text.Html;
-import android.text.format.DateUtils;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.TypedValue;
@@ -32,33 +31,70 @@ import android.widget.TextView;
 
 import com.epishie.rehash.R;
 import com.epishie.rehash.model.Comment;
+import com.epishie.rehash.util.IntObjectMap;
+import com.epishie.rehash.util.ListDiff;
+import com.epishie.rehash.util.TimeLabels;
+import com.epishie.rehash.view.widget.LayoutTextView;
+import com.epishie.rehash.view.widget.TextLayoutCache;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import butterknife.Bind;
+import rx.Scheduler;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 
 import static butterknife.ButterKnife.bind;
 
-public class CommentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class CommentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+        implements TimeLabels.Listener {
     private static final int ITEM_STORY_TEXT = 0;
     private static final int ITEM_COMMENT = 1;
     private static final int ITEM_MORE = 2;
     private static final int MARKER_WIDTH = 16; // DP
     private static final int FETCH_OFFSET = 3;
+    // Rows below the one bound whose text is laid out ahead
+    private static final int LAYOUT_AHEAD = 5;
 
     private final List<Comment> mComments;
+    private final ListUpdater<Comment> mUpdater;
     private final String mStoryText;
     private final DisplayMetrics mMetrics;
+    private final TextLayoutCache mLayouts;
+    private final TimeLabels mTimeLabels;
+    // By lines of the comments bound since the last minute
+    private final IntObjectMap<ByLine> mByLines;
+    private final List<CommentViewHolder> mAttached;
+    // Width of the text of a top level comment, once a comment was laid out
+    private int mTextWidth;
     private Listener mListener;
     private boolean mDataEnded;
+    private int mFetchOffset;
 
     public CommentsAdapter(String storyText, DisplayMetrics metrics) {
+        this(storyText, metrics, null, Schedulers.computation(),
+                new TimeLabels(new RelativeTimeFormatter(), AndroidSchedulers.mainThread()));
+    }
+
+    /**
+     * @param layouts cache of the layouts of the comment texts, or null to lay them out on bind
+     * @param scheduler scheduler on which refreshed comments are diffed with the comments shown
+     * @param timeLabels labels of the ages of the comments
+     */
+    public CommentsAdapter(String storyText, DisplayMetrics metrics, TextLayoutCache layouts, Scheduler scheduler,
+                           TimeLabels timeLabels) {
         mComments = new ArrayList<>();
         mComments.add(null);
+        mUpdater = new ListUpdater<>(this, mComments, new CommentCallback(), scheduler);
+        mUpdater.setOffset(storyText == null || storyText.isEmpty() ? 0 : 1);
         mStoryText = storyText;
         mMetrics = metrics;
+        mLayouts = layouts;
+        mTimeLabels = timeLabels;
+        mByLines = new IntObjectMap<>();
+        mAttached = new ArrayList<>();
+        mFetchOffset = FETCH_OFFSET;
     }
 
     @Override
@@ -96,40 +132,26 @@ public class CommentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
                 Comment comment = mComments.get(position - offset);
 
                 // By line
-                Date now = new Date();
-                CharSequence age = DateUtils.getRelativeTimeSpanString(comment.getTime().getTime(),
-                        now.getTime(),
-                        DateUtils.MINUTE_IN_MILLIS);
-                Context context = holder.itemView.getContext();
-                String byLine = context.getString(R.string.lbl_comment_by_line,
-                        comment.getAuthor(),
-                        age);
-                commentViewHolder.mCommentByLineText.setText(byLine);
-
-                // Content
-                commentViewHolder.mCommentText.setText(Html.fromHtml(comment.getText()));
-                int markerWidth = (int) TypedValue.applyDimension(
-                        TypedValue.COMPLEX_UNIT_DIP,
-                        comment.getLevel() * MARKER_WIDTH,
-                        mMetrics
-                );
+                commentViewHolder.mComment = comment;
+                commentViewHolder.mCommentByLineText.setText(getByLine(holder.itemView.getContext(), comment));
+
+                // Content, rendered by the store unless it was posted without a renderer
+                int markerWidth = getMarkerWidth(comment.getLevel());
+                if (mTextWidth == 0 && commentViewHolder.mCommentText.getWidth() > 0) {
+                    mTextWidth = commentViewHolder.mCommentText.getWidth() + markerWidth;
+                }
+                commentViewHolder.mCommentText.setText(comment.getId(), getText(comment), mLayouts);
                 RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(markerWidth,
                         ViewGroup.LayoutParams.WRAP_CONTENT);
                 commentViewHolder.mMarkerImage.setLayoutParams(layoutParams);
+                layOutAhead(position - offset + 1);
                 break;
             case ITEM_MORE:
                 return;
         }
 
-        if (!mDataEnded && position <= (getItemCount() - FETCH_OFFSET) && mComments.get(getItemCount() - 1) != null) {
-            mComments.add(null);
+        if (!mDataEnded && position <= (getItemCount() - mFetchOffset) && mUpdater.addPlaceholder(holder.itemView)) {
             mListener.onRequestMoreComments();
-            holder.itemView.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyItemInserted(mComments.size() - 1);
-                }
-            });
         }
     }
 
@@ -149,33 +171,165 @@ public class CommentsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
         }
     }
 
-    public void addComments(List<Comment> comments) {
-        if (!mComments.isEmpty() && mComments.get(mComments.size() - 1) == null) {
-            mComments.remove(mComments.size() - 1);
+    /**
+     * Returns the by line of the comment, formatted once for its age label.
+     */
+    private String getByLine(Context context, Comment comment) {
+        CharSequence age = mTimeLabels.get(comment.getTime().getTime());
+        ByLine byLine = mByLines.get(comment.getId());
+        if (byLine == null || byLine.mComment != comment || byLine.mAge != age) {
+            byLine = new ByLine(comment, age, context.getString(R.string.lbl_comment_by_line,
+                    comment.getAuthor(),
+                    age));
+            mByLines.put(comment.getId(), byLine);
+        }
+        return byLine.mText;
+    }
+
+    /**
+     * Refreshes the by lines of the rows shown with the labels of the new minute.
+     */
+    @Override
+    public void onMinute() {
+        mByLines.clear();
+        for (CommentViewHolder viewHolder : mAttached) {
+            if (viewHolder.mComment != null) {
+                viewHolder.mCommentByLineText.setText(getByLine(viewHolder.itemView.getContext(),
+                        viewHolder.mComment));
+            }
+        }
+    }
+
+    @Override
+    public void onViewAttachedToWindow(RecyclerView.ViewHolder holder) {
+        if (holder instanceof CommentViewHolder) {
+            mAttached.add((CommentViewHolder) holder);
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(RecyclerView.ViewHolder holder) {
+        mAttached.remove(holder);
+    }
+
+    private static CharSequence getText(Comment comment) {
+        CharSequence text = comment.getRenderedText();
+        return text != null ? text : Html.fromHtml(comment.getText());
+    }
+
+    private int getMarkerWidth(int level) {
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, level * MARKER_WIDTH, mMetrics);
+    }
+
+    /**
+     * Lays out the texts of the comments from the given index on the background, once the width
+     * of the text is known.
+     */
+    private void layOutAhead(int index) {
+        if (mLayouts == null || mTextWidth == 0) {
+            return;
         }
-        mComments.addAll(comments);
-        notifyDataSetChanged();
+        int end = Math.min(index + LAYOUT_AHEAD, mComments.size());
+        for (int i = index; i < end; i++) {
+            Comment comment = mComments.get(i);
+            if (comment != null && comment.getRenderedText() != null) {
+                mLayouts.precompute(comment.getId(), comment.getRenderedText(),
+                        mTextWidth - getMarkerWidth(comment.getLevel()));
+            }
+        }
+    }
+
+    public void addComments(List<Comment> comments) {
+        mUpdater.append(comments);
+    }
+
+    /**
+     * Replaces the comments shown, moving, inserting, removing and changing only the rows that
+     * differ once the comments are diffed.
+     */
+    public void refreshComments(List<Comment> comments) {
+        mDataEnded = false;
+        mUpdater.replace(comments);
+    }
+
+    /**
+     * Replaces the comments shown with the same ids, keeping their levels.
+     */
+    public void updateComments(final List<Comment> comments) {
+        mUpdater.run(new Runnable() {
+
+            @Override
+            public void run() {
+                int offset = getItemCount() - mComments.size();
+                for (Comment update : comments) {
+                    for (int i = 0; i < mComments.size(); i++) {
+                        Comment comment = mComments.get(i);
+                        if (comment != null && comment.getId() == update.getId()) {
+                            mComments.set(i, new Comment(update.getId(), update.getText(), update.getAuthor(),
+                                    update.getTime(), comment.getLevel(), update.getRenderedText()));
+                            notifyItemChanged(i + offset);
+                            break;
+                        }
+                    }
+                }
+            }
+        });
     }
 
     public void setDataEnded(boolean dataEnded) {
         mDataEnded = dataEnded;
-        if (!mComments.isEmpty() && mComments.get(mComments.size() - 1) == null) {
-            mComments.remove(mComments.size() - 1);
-            notifyItemRemoved(mComments.size() - 1);
-        }
+        mUpdater.clearPlaceholder();
+    }
+
+    /**
+     * @param fetchOffset number of items from the end of the list at which more comments are requested
+     */
+    public void setFetchOffset(int fetchOffset) {
+        mFetchOffset = fetchOffset;
     }
 
     public void setListener(Listener listener) {
         mListener = listener;
     }
 
+    private static final class ByLine {
+
+        private final Comment mComment;
+        private final CharSequence mAge;
+        private final String mText;
+
+        private ByLine(Comment comment, CharSequence age, String text) {
+            mComment = comment;
+            mAge = age;
+            mText = text;
+        }
+    }
+
+    private static final class CommentCallback implements ListDiff.Callback<Comment> {
+
+        @Override
+        public int getId(Comment comment) {
+            return comment.getId();
+        }
+
+        @Override
+        public boolean isSameContent(Comment oldComment, Comment newComment) {
+            return oldComment.getLevel() == newComment.getLevel()
+                    && oldComment.getText().equals(newComment.getText())
+                    && oldComment.getAuthor().equals(newComment.getAuthor())
+                    && oldComment.getTime().equals(newComment.getTime());
+        }
+    }
+
     public static class CommentViewHolder extends RecyclerView.ViewHolder {
         @Bind(R.id.comment_by_line)
         protected TextView mCommentByLineText;
         @Bind(R.id.comment_text)
-        protected TextView mCommentText;
+        protected LayoutTextView mCommentText;
         @Bind(R.id.marker)
         protected View mMarkerImage;
+        // Comment bound to the row
+        private Comment mComment;
 
         public CommentViewHolder(View itemView) {
             super(itemView);
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.adapter;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.epishie.rehash.util.ListDiff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Updates the items of an adapter, which may end with a null placeholder row, with the fewest
+ * item notifications. Replacing the items diffs them on a background scheduler; the updates made
+ * in the meantime wait for the diff to be applied, so that it applies to the items it was
+ * computed from. All methods must be called on the main thread.
+ */
+class ListUpdater<T> {
+
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final List<T> mItems;
+    private final ListDiff.Callback<T> mCallback;
+    private final Scheduler mScheduler;
+    private final Queue<Runnable> mQueued;
+    // Rows shown before the items
+    private int mOffset;
+    private boolean mDiffing;
+    // Whether the adapter was notified of the placeholder at the end of the items
+    private boolean mPlaceholderShown;
+
+    /**
+     * @param items items shown by the adapter, which are only changed through the updater
+     * @param scheduler scheduler on which the items are diffed
+     */
+    ListUpdater(RecyclerView.Adapter<?> adapter, List<T> items, ListDiff.Callback<T> callback, Scheduler scheduler) {
+        mAdapter = adapter;
+        mItems = items;
+        mCallback = callback;
+        mScheduler = scheduler;
+        mQueued = new ArrayDeque<>();
+        mPlaceholderShown = hasPlaceholder();
+    }
+
+    void setOffset(int offset) {
+        mOffset = offset;
+    }
+
+    /**
+     * Runs the update now, or once the diff being computed is applied.
+     */
+    void run(Runnable update) {
+        if (mDiffing) {
+            mQueued.add(update);
+        } else {
+            update.run();
+        }
+    }
+
+    /**
+     * Replaces the items shown, and their placeholder, with the given items once they are diffed.
+     */
+    void replace(final List<T> items) {
+        run(new Runnable() {
+
+            @Override
+            public void run() {
+                final List<T> base = new ArrayList<>(mItems);
+                if (!base.isEmpty() && base.get(base.size() - 1) == null) {
+                    base.remove(base.size() - 1);
+                }
+                final List<T> target = new ArrayList<>(items);
+                mDiffing = true;
+                Observable.just(base)
+                        .observeOn(mScheduler)
+                        .map(new Func1<List<T>, ListDiff>() {
+
+                            @Override
+                            public ListDiff call(List<T> base) {
+                                return ListDiff.diff(base, target, mCallback);
+                            }
+                        })
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(new Action1<ListDiff>() {
+
+                            @Override
+                            public void call(ListDiff diff) {
+                                mDiffing = false;
+                                apply(diff, target);
+                                while (!mDiffing && !mQueued.isEmpty()) {
+                                    mQueued.remove().run();
+                                }
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Appends items after the items shown, in place of their placeholder.
+     */
+    void append(final List<T> items) {
+        run(new Runnable() {
+
+            @Override
+            public void run() {
+                removePlaceholder();
+                int start = mItems.size();
+                mItems.addAll(items);
+                mAdapter.notifyItemRangeInserted(mOffset + start, items.size());
+            }
+        });
+    }
+
+    /**
+     * Applies the changes to the items shown, in place of their placeholder, or replaces them if
+     * the changes are not from the items shown.
+     *
+     * @param target items the changes lead to
+     */
+    void apply(ListDiff diff, List<T> target) {
+        removePlaceholder();
+        int[] baseIds = diff.getBaseIds();
+        boolean shown = baseIds.length == mItems.size();
+        for (int i = 0; shown && i < baseIds.length; i++) {
+            shown = mCallback.getId(mItems.get(i)) == baseIds[i];
+        }
+        if (!shown) {
+            mItems.clear();
+            mItems.addAll(target);
+            mAdapter.notifyDataSetChanged();
+            return;
+        }
+        // Runs of the same change on adjacent rows are notified at once
+        int type = -1;
+        int start = 0;
+        int count = 0;
+        for (ListDiff.Change change : diff.getChanges()) {
+            int position = change.getType() == ListDiff.REMOVE ? change.getFrom() : change.getTo();
+            if (change.getType() != type || change.getType() == ListDiff.MOVE
+                    || (type == ListDiff.REMOVE ? position != start - 1 : position != start + count)) {
+                notifyRange(type, start, count);
+                type = change.getType();
+                start = position;
+                count = 0;
+            }
+            switch (change.getType()) {
+                case ListDiff.REMOVE:
+                    mItems.remove(change.getFrom());
+                    start = position;
+                    break;
+                case ListDiff.INSERT:
+                    mItems.add(change.getTo(), target.get(change.getTo()));
+                    break;
+                case ListDiff.MOVE:
+                    mItems.add(change.getTo(), mItems.remove(change.getFrom()));
+                    mAdapter.notifyItemMoved(mOffset + change.getFrom(), mOffset + change.getTo());
+                    continue;
+                case ListDiff.CHANGE:
+                    mItems.set(change.getTo(), target.get(change.getTo()));
+                    break;
+            }
+            count++;
+        }
+        notifyRange(type, start, count);
+    }
+
+    private void notifyRange(int type, int start, int count) {
+        if (count == 0) {
+            return;
+        }
+        switch (type) {
+            case ListDiff.REMOVE:
+                mAdapter.notifyItemRangeRemoved(mOffset + start, count);
+                break;
+            case ListDiff.INSERT:
+                mAdapter.notifyItemRangeInserted(mOffset + start, count);
+                break;
+            case ListDiff.CHANGE:
+                mAdapter.notifyItemRangeChanged(mOffset + start, count);
+                break;
+        }
+    }
+
+    /**
+     * Adds a placeholder at the end of the items while a row is bound, notifying the adapter
+     * after the bind, unless there is one already.
+     *
+     * @param view view of the row bound
+     * @return whether a placeholder was added
+     */
+    boolean addPlaceholder(View view) {
+        if (hasPlaceholder()) {
+            return false;
+        }
+        mItems.add(null);
+        view.post(new Runnable() {
+
+            @Override
+            public void run() {
+                // Unless the placeholder was removed in the meantime
+                if (hasPlaceholder() && !mPlaceholderShown) {
+                    mPlaceholderShown = true;
+                    mAdapter.notifyItemInserted(mOffset + mItems.size() - 1);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes the placeholder at the end of the items, once the diff being computed is applied.
+     */
+    void clearPlaceholder() {
+        run(new Runnable() {
+
+            @Override
+            public void run() {
+                removePlaceholder();
+            }
+        });
+    }
+
+    private boolean hasPlaceholder() {
+        return !mItems.isEmpty() && mItems.get(mItems.size() - 1) == null;
+    }
+
+    private void removePlaceholder() {
+        if (hasPlaceholder()) {
+            mItems.remove(mItems.size() - 1);
+            if (mPlaceholderShown) {
+                mAdapter.notifyItemRemoved(mOffset + mItems.size());
+            }
+            mPlaceholderShown = false;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.adapter;
+
+import android.text.format.DateUtils;
+
+import com.epishie.rehash.util.TimeLabels;
+
+/**
+ * Formats times as the platform does, such as "5 minutes ago".
+ */
+public class RelativeTimeFormatter implements TimeLabels.Formatter {
+
+    @Override
+    public CharSequence format(long time, long now) {
+        return DateUtils.getRelativeTimeSpanString(time, now, DateUtils.MINUTE_IN_MILLIS);
+    }
+}
@@ -20,7 +20,6 @@ import android.content.Context;
 import android.net.Uri;
 import android.support.v7.widget.RecyclerView;
 import android.text.SpannableString;
-import android.text.format.DateUtils;
 import android.text.style.UnderlineSpan;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -29,29 +28,66 @@ import android.widget.TextView;
 
 import com.epishie.rehash.R;
 import com.epishie.rehash.model.Story;
+import com.epishie.rehash.model.StoryBundle;
+import com.epishie.rehash.util.IntObjectMap;
+import com.epishie.rehash.util.ListDiff;
+import com.epishie.rehash.util.TimeLabels;
+import com.epishie.rehash.view.widget.LayoutTextView;
+import com.epishie.rehash.view.widget.TextLayoutCache;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import butterknife.Bind;
+import rx.Scheduler;
+import rx.android.schedulers.AndroidSchedulers;
+import rx.schedulers.Schedulers;
 
 import static butterknife.ButterKnife.bind;
 
-public class TopStoriesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+public class TopStoriesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
+        implements TimeLabels.Listener {
 
     private static final int STORY_ITEM = 0;
     private static final int MORE_ITEM = 1;
     private static final int FETCH_OFFSET = 3;
+    // Rows below the one bound whose title is laid out ahead
+    private static final int LAYOUT_AHEAD = 5;
 
     private final List<Story> mStories;
+    private final ListUpdater<Story> mUpdater;
+    private final TextLayoutCache mLayouts;
+    private final TimeLabels mTimeLabels;
+    // Rows of the stories bound, and their by lines since the last minute
+    private final IntObjectMap<StoryRow> mRows;
+    private final IntObjectMap<ByLine> mByLines;
+    private final List<StoryViewHolder> mAttached;
+    // Width of the titles, once a title was laid out
+    private int mTitleWidth;
     private Listener mListener;
     private boolean mDataEnded;
+    private int mFetchOffset;
 
     public TopStoriesAdapter() {
+        this(null, Schedulers.computation(), new TimeLabels(new RelativeTimeFormatter(), AndroidSchedulers.mainThread()));
+    }
+
+    /**
+     * @param layouts cache of the layouts of the titles, or null to lay them out on bind
+     * @param scheduler scheduler on which refreshed stories are diffed with the stories shown
+     * @param timeLabels labels of the ages of the stories
+     */
+    public TopStoriesAdapter(TextLayoutCache layouts, Scheduler scheduler, TimeLabels timeLabels) {
         mStories = new ArrayList<>();
         mStories.add(null);
+        mUpdater = new ListUpdater<>(this, mStories, new StoryCallback(), scheduler);
+        mLayouts = layouts;
+        mTimeLabels = timeLabels;
+        mRows = new IntObjectMap<>();
+        mByLines = new IntObjectMap<>();
+        mAttached = new ArrayList<>();
         mListener = null;
+        mFetchOffset = FETCH_OFFSET;
     }
 
     @Override
@@ -74,61 +110,98 @@ public class TopStoriesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
             return;
         }
 
+        // Rebinding a story already bound allocates nothing and only sets what changed
         StoryViewHolder viewHolder = (StoryViewHolder) holder;
-        final Story story = mStories.get(position);
+        Story story = mStories.get(position);
+        StoryRow row = getRow(story);
+        viewHolder.mRow = row;
 
         // Title
-        viewHolder.mTitleText.setText(story.getTitle());
+        if (mTitleWidth == 0) {
+            mTitleWidth = viewHolder.mTitleText.getWidth();
+        }
+        viewHolder.mTitleText.setText(story.getId(), story.getTitle(), mLayouts);
+        layOutAhead(position + 1);
 
         // By line
-        Date now = new Date();
-        CharSequence age = DateUtils.getRelativeTimeSpanString(story.getTime().getTime(),
-                now.getTime(),
-                DateUtils.MINUTE_IN_MILLIS);
-        Context context = viewHolder.itemView.getContext();
-        String byLine = context.getString(R.string.lbl_by_line,
-                story.getScore(),
-                story.getAuthor(),
-                age);
-        viewHolder.mByLineText.setText(byLine);
+        viewHolder.setByLine(getByLine(viewHolder.itemView.getContext(), story));
 
         // Link
-        final Uri uri = Uri.parse(story.getUrl());
-        if (uri != null && !(uri.toString().isEmpty())) {
-            SpannableString hostString = new SpannableString(uri.getHost());
-            hostString.setSpan(new UnderlineSpan(), 0, uri.getHost().length(), 0);
-            viewHolder.mUrlText.setText(hostString);
-            viewHolder.mUrlText.setOnClickListener(new View.OnClickListener() {
-
-                @Override
-                public void onClick(View view) {
-                    if (mListener != null) {
-                        mListener.onOpenStoryLink(uri);
-                    }
-                }
-            });
+        viewHolder.setHost(row.mHost);
+
+        if (!mDataEnded && position <= (getItemCount() - mFetchOffset) && mUpdater.addPlaceholder(viewHolder.itemView)) {
+            mListener.onRequestMoreStories();
         }
+    }
 
-        // Item link
-        viewHolder.mCard.setOnClickListener(new View.OnClickListener() {
+    /**
+     * Returns the row of the story, made once for the story.
+     */
+    private StoryRow getRow(Story story) {
+        StoryRow row = mRows.get(story.getId());
+        if (row == null || row.mStory != story) {
+            row = new StoryRow(story);
+            mRows.put(story.getId(), row);
+        }
+        return row;
+    }
 
-            @Override
-            public void onClick(View view) {
-                if (mListener != null) {
-                    mListener.onSelectStory(story.getId());
-                }
+    /**
+     * Returns the by line of the story, formatted once for its age label.
+     */
+    private String getByLine(Context context, Story story) {
+        CharSequence age = mTimeLabels.get(story.getTime().getTime());
+        ByLine byLine = mByLines.get(story.getId());
+        if (byLine == null || byLine.mStory != story || byLine.mAge != age) {
+            byLine = new ByLine(story, age, context.getString(R.string.lbl_by_line,
+                    story.getScore(),
+                    story.getAuthor(),
+                    age));
+            mByLines.put(story.getId(), byLine);
+        }
+        return byLine.mText;
+    }
+
+    /**
+     * Refreshes the by lines of the rows shown with the labels of the new minute.
+     */
+    @Override
+    public void onMinute() {
+        mByLines.clear();
+        for (int i = 0; i < mAttached.size(); i++) {
+            StoryViewHolder viewHolder = mAttached.get(i);
+            if (viewHolder.mRow != null) {
+                viewHolder.setByLine(getByLine(viewHolder.itemView.getContext(), viewHolder.mRow.mStory));
             }
-        });
+        }
+    }
 
-        if (!mDataEnded && position <= (getItemCount() - FETCH_OFFSET) && mStories.get(mStories.size() - 1) != null) {
-            mStories.add(null);
-            mListener.onRequestMoreStories();
-            viewHolder.itemView.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyItemInserted(mStories.size() - 1);
-                }
-            });
+    @Override
+    public void onViewAttachedToWindow(RecyclerView.ViewHolder holder) {
+        if (holder instanceof StoryViewHolder) {
+            mAttached.add((StoryViewHolder) holder);
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(RecyclerView.ViewHolder holder) {
+        mAttached.remove(holder);
+    }
+
+    /**
+     * Lays out the titles of the stories from the given position on the background, once the
+     * width of the titles is known.
+     */
+    private void layOutAhead(int position) {
+        if (mLayouts == null || mTitleWidth == 0) {
+            return;
+        }
+        int end = Math.min(position + LAYOUT_AHEAD, mStories.size());
+        for (int i = position; i < end; i++) {
+            Story story = mStories.get(i);
+            if (story != null) {
+                mLayouts.precompute(story.getId(), story.getTitle(), mTitleWidth);
+            }
         }
     }
 
@@ -142,47 +215,208 @@ public class TopStoriesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHol
         return mStories.size();
     }
 
+    /**
+     * Replaces the stories shown with the same ids.
+     */
+    public void updateStories(final List<Story> stories) {
+        mUpdater.run(new Runnable() {
+
+            @Override
+            public void run() {
+                for (Story update : stories) {
+                    for (int i = 0; i < mStories.size(); i++) {
+                        Story story = mStories.get(i);
+                        if (story != null && story.getId() == update.getId()) {
+                            mStories.set(i, update);
+                            notifyItemChanged(i);
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     public void setDataEnded(boolean dataEnded) {
         mDataEnded = dataEnded;
-        if (!mStories.isEmpty() && mStories.get(mStories.size() - 1) == null) {
-            mStories.remove(mStories.size() - 1);
-            notifyItemRemoved(mStories.size() - 1);
-        }
+        mUpdater.clearPlaceholder();
     }
 
     public void addStories(List<Story> stories) {
-        if (!mStories.isEmpty() && mStories.get(mStories.size() - 1) == null) {
-            mStories.remove(mStories.size() - 1);
-        }
-        mStories.addAll(stories);
-        notifyDataSetChanged();
+        mUpdater.append(stories);
     }
 
+    /**
+     * Replaces the stories shown, moving, inserting, removing and changing only the rows that
+     * differ once the stories are diffed.
+     */
     public void refreshStories(List<Story> stories) {
-        mStories.clear();
-        mStories.addAll(stories);
         mDataEnded = false;
-        notifyDataSetChanged();
+        trimRows(stories);
+        mUpdater.replace(stories);
+    }
+
+    /**
+     * Turns the stories shown into the first page of a refresh with the changes it carries,
+     * replacing them if the changes are not from the stories shown.
+     */
+    public void applyChanges(final StoryBundle stories) {
+        mDataEnded = false;
+        trimRows(stories);
+        mUpdater.run(new Runnable() {
+
+            @Override
+            public void run() {
+                mUpdater.apply(stories.getChanges(), stories);
+            }
+        });
+    }
+
+    /**
+     * Drops the rows of the stories shown before the given first page, except the rows of the
+     * stories it keeps.
+     */
+    private void trimRows(List<Story> stories) {
+        IntObjectMap<StoryRow> rows = new IntObjectMap<>(stories.size());
+        for (Story story : stories) {
+            StoryRow row = mRows.get(story.getId());
+            if (row != null) {
+                rows.put(story.getId(), row);
+            }
+        }
+        mRows.clear();
+        for (Story story : stories) {
+            StoryRow row = rows.get(story.getId());
+            if (row != null) {
+                mRows.put(story.getId(), row);
+            }
+        }
+    }
+
+    /**
+     * @param fetchOffset number of items from the end of the list at which more stories are requested
+     */
+    public void setFetchOffset(int fetchOffset) {
+        mFetchOffset = fetchOffset;
     }
 
     public void setListener(Listener listener) {
         mListener = listener;
     }
 
-    public static class StoryViewHolder extends RecyclerView.ViewHolder {
+    private static final class ByLine {
+
+        private final Story mStory;
+        private final CharSequence mAge;
+        private final String mText;
+
+        private ByLine(Story story, CharSequence age, String text) {
+            mStory = story;
+            mAge = age;
+            mText = text;
+        }
+    }
+
+    private static final class StoryCallback implements ListDiff.Callback<Story> {
+
+        @Override
+        public int getId(Story story) {
+            return story.getId();
+        }
+
+        @Override
+        public boolean isSameContent(Story oldStory, Story newStory) {
+            return oldStory.getScore() == newStory.getScore()
+                    && oldStory.getTitle().equals(newStory.getTitle())
+                    && oldStory.getAuthor().equals(newStory.getAuthor())
+                    && oldStory.getUrl().equals(newStory.getUrl())
+                    && oldStory.getTime().equals(newStory.getTime());
+        }
+    }
+
+    /**
+     * What a row shows of a story that does not change with time, made once per story.
+     */
+    private static final class StoryRow {
+
+        private final Story mStory;
+        private final Uri mUri;
+        // Underlined host of the link, or null if the story has no link
+        private final CharSequence mHost;
+
+        private StoryRow(Story story) {
+            mStory = story;
+            Uri uri = story.getUrl().isEmpty() ? null : Uri.parse(story.getUrl());
+            String host = uri != null ? uri.getHost() : null;
+            if (host != null) {
+                SpannableString hostString = new SpannableString(host);
+                hostString.setSpan(new UnderlineSpan(), 0, host.length(), 0);
+                mUri = uri;
+                mHost = hostString;
+            } else {
+                mUri = null;
+                mHost = null;
+            }
+        }
+    }
+
+    public class StoryViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         @Bind(R.id.card)
         protected View mCard;
         @Bind(R.id.title)
-        protected TextView mTitleText;
+        protected LayoutTextView mTitleText;
         @Bind(R.id.by_line)
         protected TextView mByLineText;
         @Bind(R.id.url)
         protected TextView mUrlText;
+        // Row bound, and the texts set from it
+        private StoryRow mRow;
+        private CharSequence mByLine;
+        private CharSequence mHost;
+        private boolean mHostSet;
 
         public StoryViewHolder(View itemView) {
             super(itemView);
             bind(this, itemView);
+            mCard.setOnClickListener(this);
+            mUrlText.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            // The row bound at the position clicked, unless it is moving
+            if (mListener == null || getAdapterPosition() == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Story story = mStories.get(getAdapterPosition());
+            if (story == null) {
+                return;
+            }
+            if (view == mUrlText) {
+                StoryRow row = getRow(story);
+                if (row.mUri != null) {
+                    mListener.onOpenStoryLink(row.mUri);
+                }
+            } else {
+                mListener.onSelectStory(story.getId());
+            }
+        }
+
+        private void setByLine(CharSequence byLine) {
+            if (byLine != mByLine) {
+                mByLine = byLine;
+                mByLineText.setText(byLine);
+            }
+        }
+
+        private void setHost(CharSequence host) {
+            if (!mHostSet || host != mHost) {
+                mHostSet = true;
+                mHost = host;
+                mUrlText.setText(host);
+                mUrlText.setVisibility(host != null ? View.VISIBLE : View.GONE);
+            }
         }
     }
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.widget;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.TextView;
+
+/**
+ * Read only text view that draws a text layout, taken from a {@link TextLayoutCache} when it was
+ * laid out ahead of time. The text fills the width of the view, and is cut after its maximum
+ * number of lines. Accessibility services see it as a TextView of its text, but the text cannot
+ * be selected.
+ */
+public class LayoutTextView extends View {
+
+    // Sorted, as obtainStyledAttributes requires
+    private static final int[] ATTRS = new int[]{
+            android.R.attr.textSize,
+            android.R.attr.textColor,
+            android.R.attr.maxLines
+    };
+    private static final int DEFAULT_TEXT_SIZE = 14; // SP
+
+    private final TextPaint mPaint;
+    private final int mMaxLines;
+    private TextLayoutCache mCache;
+    private int mId;
+    private CharSequence mText;
+    private Layout mLayout;
+
+    public LayoutTextView(Context context) {
+        this(context, null);
+    }
+
+    public LayoutTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        final TypedArray a = context.obtainStyledAttributes(attrs, ATTRS);
+        mPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        mPaint.density = getResources().getDisplayMetrics().density;
+        mPaint.setTextSize(a.getDimension(0, TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP,
+                DEFAULT_TEXT_SIZE, getResources().getDisplayMetrics())));
+        ColorStateList color = a.getColorStateList(1);
+        if (color != null) {
+            mPaint.setColor(color.getDefaultColor());
+        }
+        mMaxLines = a.getInt(2, Integer.MAX_VALUE);
+        a.recycle();
+        mText = "";
+    }
+
+    /**
+     * @param id id of the item the text is of, which keys its layout in the cache
+     * @param text text to draw, which must not be modified afterwards
+     * @param cache cache of the layouts of the text, or null to lay it out on every change
+     */
+    public void setText(int id, CharSequence text, TextLayoutCache cache) {
+        if (text == null) {
+            text = "";
+        }
+        if (id == mId && text == mText && cache == mCache) {
+            return;
+        }
+        mId = id;
+        mText = text;
+        mCache = cache;
+        mLayout = null;
+        requestLayout();
+        invalidate();
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * @return paint the text is drawn with
+     */
+    public TextPaint getPaint() {
+        return mPaint;
+    }
+
+    /**
+     * @return the content description set, or else the text
+     */
+    @Override
+    public CharSequence getContentDescription() {
+        CharSequence description = super.getContentDescription();
+        return description != null ? description : mText;
+    }
+
+    @Override
+    public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
+        super.onInitializeAccessibilityEvent(event);
+        event.setClassName(TextView.class.getName());
+    }
+
+    @Override
+    public void onPopulateAccessibilityEvent(AccessibilityEvent event) {
+        super.onPopulateAccessibilityEvent(event);
+        if (!TextUtils.isEmpty(mText)) {
+            event.getText().add(mText);
+        }
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        info.setClassName(TextView.class.getName());
+        info.setText(mText);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int textWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+        if (mLayout == null || mLayout.getWidth() != textWidth) {
+            mLayout = mCache != null
+                    ? mCache.obtain(mId, mText, mPaint, textWidth)
+                    : TextLayoutCache.createLayout(mText, mPaint, textWidth);
+        }
+        int height = getPaddingTop() + getTextHeight() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.clipRect(0, 0, mLayout.getWidth(), getTextHeight());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+
+    private int getTextHeight() {
+        int lineCount = Math.min(mLayout.getLineCount(), mMaxLines);
+        return lineCount > 0 ? mLayout.getLineBottom(lineCount - 1) : 0;
+    }
+}
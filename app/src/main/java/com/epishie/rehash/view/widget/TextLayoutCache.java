@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.view.widget;
+
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import com.epishie.rehash.util.IntLruCache;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+
+/**
+ * Text layouts of the most recently shown items, keyed by item id and kept for the text, text
+ * size and width they were laid out for. Layouts of the rows about to be shown are laid out on a
+ * background scheduler, so that binding and measuring a row only takes its layout.
+ */
+public class TextLayoutCache {
+
+    // One worker for the cache, so layouts laid out ahead run in turn and share its paint
+    private final Scheduler.Worker mWorker;
+    private final IntLruCache<Entry> mLayouts;
+    // Copy of the paint of the views last laid out, used for the layouts laid out ahead
+    private TextPaint mPaint;
+    private long mLayoutCount;
+    private long mPrecomputeCount;
+
+    /**
+     * @param scheduler scheduler on which layouts are laid out ahead
+     * @param maxEntries maximum number of layouts held
+     */
+    public TextLayoutCache(Scheduler scheduler, int maxEntries) {
+        mWorker = scheduler.createWorker();
+        // Layouts do not go stale, only their text does
+        mLayouts = new IntLruCache<>(maxEntries);
+    }
+
+    /**
+     * Returns the layout of the text, laying it out now if it was not laid out ahead.
+     */
+    public Layout obtain(int id, CharSequence text, TextPaint paint, int width) {
+        Layout layout = get(id, text, paint.getTextSize(), width);
+        if (layout != null) {
+            return layout;
+        }
+        synchronized (this) {
+            if (mPaint == null || mPaint.getTextSize() != paint.getTextSize()
+                    || mPaint.getColor() != paint.getColor()) {
+                mPaint = new TextPaint(paint);
+            }
+            mLayoutCount++;
+        }
+        layout = createLayout(text, paint, width);
+        mLayouts.put(id, new Entry(text, paint.getTextSize(), layout));
+        return layout;
+    }
+
+    /**
+     * Lays out the text ahead on the background scheduler, with the paint of the views last laid
+     * out. Does nothing until a view was laid out.
+     */
+    public void precompute(final int id, final CharSequence text, final int width) {
+        final TextPaint paint;
+        synchronized (this) {
+            paint = mPaint;
+        }
+        if (paint == null || width <= 0 || get(id, text, paint.getTextSize(), width) != null) {
+            return;
+        }
+        mWorker.schedule(new Action0() {
+
+            @Override
+            public void call() {
+                if (get(id, text, paint.getTextSize(), width) == null) {
+                    // The paint is a copy only replaced, never changed, by obtain()
+                    Layout layout = createLayout(text, paint, width);
+                    mLayouts.put(id, new Entry(text, paint.getTextSize(), layout));
+                    synchronized (TextLayoutCache.this) {
+                        mPrecomputeCount++;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of layouts laid out when they were needed
+     */
+    public synchronized long getLayoutCount() {
+        return mLayoutCount;
+    }
+
+    /**
+     * @return number of layouts laid out ahead
+     */
+    public synchronized long getPrecomputeCount() {
+        return mPrecomputeCount;
+    }
+
+    static Layout createLayout(CharSequence text, TextPaint paint, int width) {
+        // Same spacing and padding as a TextView
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    private Layout get(int id, CharSequence text, float textSize, int width) {
+        Entry entry = mLayouts.get(id);
+        if (entry == null || entry.mText != text || entry.mTextSize != textSize
+                || entry.mLayout.getWidth() != width) {
+            return null;
+        }
+        return entry.mLayout;
+    }
+
+    private static final class Entry {
+
+        private final CharSequence mText;
+        private final float mTextSize;
+        private final Layout mLayout;
+
+        private Entry(CharSequence text, float textSize, Layout layout) {
+            mText = text;
+            mTextSize = textSize;
+            mLayout = layout;
+        }
+    }
+}
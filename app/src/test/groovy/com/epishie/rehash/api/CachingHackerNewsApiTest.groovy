@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+
+import com.epishie.rehash.api.HackerNewsApi.Item
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import retrofit.RetrofitError
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class CachingHackerNewsApiTest extends Specification {
+
+    static final long MAX_AGE = 60 * 1000
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def delegate = Mock(HackerNewsApi)
+    def scheduler = new TestScheduler()
+    ItemStore store
+
+    def setup() {
+        store = new ItemStore(folder.newFolder("items"))
+    }
+
+    def "getItem() fetches from api and stores the record on a miss"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+
+        when:
+        def result = api.getItem(1)
+
+        then:
+        1 * delegate.getItems([1] as int[], _) >> items(item(1, "Story #1"))
+        result.title == "Story #1"
+        store.readItem(1).title == "Story #1"
+    }
+
+    def "getItem() and getItems() are served from a stored record with its type"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.getItems(_, _) >> items(item(1, "Story #1"))
+        api.getItem(1)
+
+        when:
+        def item = api.getItem(1)
+        def batch = api.getItems([1] as int[])
+
+        then:
+        0 * delegate._
+        item.id == 1
+        item.type == Item.TYPE_STORY
+        item.kids == [2, 3]
+        batch[0].id == 1
+        batch[0].kids == [2, 3]
+    }
+
+    def "getItem() serves a stale record right away and revalidates it in the background"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.getItems(_, _) >>> [items(item(1, "Old")), items(item(1, "New"))]
+        api.getItem(1)
+        scheduler.advanceTimeBy(2, TimeUnit.MINUTES)
+
+        when:
+        def stale = api.getItem(1)
+        scheduler.triggerActions()
+        def fresh = api.getItem(1)
+
+        then:
+        stale.title == "Old"
+        fresh.title == "New"
+    }
+
+    def "getItem() serves stored record when offline"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.getItems(_, _) >>> [items(item(1, "Story #1"))] >> { throw RetrofitError.networkError("", new IOException()) }
+        api.getItem(1)
+        scheduler.advanceTimeBy(2, TimeUnit.MINUTES)
+
+        when:
+        def result = api.getItem(1)
+        scheduler.triggerActions()
+
+        then:
+        result.title == "Story #1"
+        store.readItem(1).title == "Story #1"
+    }
+
+    def "getTopStories() serves stored ids on first request and revalidates in the background"() {
+        given:
+        store.writeTopStories([1, 2, 3])
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+
+        when:
+        def topStories = api.topStories
+
+        then:
+        0 * delegate.getTopStories()
+        topStories == [1, 2, 3]
+
+        when:
+        scheduler.triggerActions()
+
+        then:
+        1 * delegate.getTopStories() >> [4, 5, 6]
+        store.readTopStories() == [4, 5, 6]
+    }
+
+    def "getTopStories() goes to the api after the first request and falls back to disk"() {
+        given:
+        store.writeTopStories([1, 2, 3])
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        api.topStories
+
+        when:
+        def topStories = api.topStories
+
+        then:
+        1 * delegate.getTopStories() >> { throw RetrofitError.networkError("", new IOException()) }
+        topStories == [1, 2, 3]
+    }
+
+    def "getItems() fetches only the missing items in one batch"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.getItems([1] as int[], _) >> items(item(1, "Story #1"))
+        api.getItem(1)
+
+        when:
+        def result = api.getItems([1, 2, 3] as int[])
+
+        then:
+        1 * delegate.getItems([2, 3] as int[], _) >> items(item(2, "Story #2"), null)
+        result[0].title == "Story #1"
+        result[1].title == "Story #2"
+        result[2] == null
+    }
+
+    def "refreshItems() goes to the api before disk and falls back to disk when offline"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.getItems(_, _) >> items(item(1, "Old"))
+        api.getItem(1)
+
+        when:
+        def fresh = api.refreshItems([1] as int[], HackerNewsApi.Priority.VISIBLE)
+        def offline = api.refreshItems([1] as int[], HackerNewsApi.Priority.VISIBLE)
+
+        then:
+        2 * delegate.refreshItems([1] as int[], _) >>> [items(item(1, "New"))] >>
+                { throw RetrofitError.networkError("", new IOException()) }
+        fresh[0].title == "New"
+        offline[0].title == "New"
+        store.readItem(1).title == "New"
+    }
+
+    def "refreshItems() fails when offline and an item is not on disk"() {
+        given:
+        def api = new CachingHackerNewsApi(delegate, store, scheduler, MAX_AGE)
+        delegate.refreshItems(_, _) >> { throw RetrofitError.networkError("", new IOException()) }
+
+        when:
+        api.refreshItems([1] as int[], HackerNewsApi.Priority.VISIBLE)
+
+        then:
+        thrown(RetrofitError)
+    }
+
+    def item(int id, String title) {
+        def item = new HackerNewsApi.Item()
+        item.id = id
+        item.type = Item.TYPE_STORY
+        item.title = title
+        item.kids = [2, 3]
+        return item
+    }
+
+    def items(Item... items) {
+        return items
+    }
+}
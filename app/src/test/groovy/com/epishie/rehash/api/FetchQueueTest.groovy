@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static com.epishie.rehash.api.HackerNewsApi.Priority.BACKGROUND
+import static com.epishie.rehash.api.HackerNewsApi.Priority.PREFETCH
+import static com.epishie.rehash.api.HackerNewsApi.Priority.VISIBLE
+
+class FetchQueueTest extends Specification {
+
+    def executor = Executors.newCachedThreadPool()
+    def started = Collections.synchronizedList([])
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "starts the most important queued fetch first"() {
+        given:
+        def queue = new FetchQueue(executor, 1)
+        def gate = new CountDownLatch(1)
+        def done = new CountDownLatch(4)
+
+        when:
+        queue.execute(fetch("first", gate, done), BACKGROUND)
+        queue.execute(fetch("background", null, done), BACKGROUND)
+        queue.execute(fetch("prefetch", null, done), PREFETCH)
+        queue.execute(fetch("visible", null, done), VISIBLE)
+        gate.countDown()
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        started == ["first", "visible", "prefetch", "background"]
+    }
+
+    def "holds back less important fetches while a more important one is running"() {
+        given:
+        def queue = new FetchQueue(executor, 4)
+        def gate = new CountDownLatch(1)
+        def done = new CountDownLatch(3)
+
+        when:
+        queue.execute(fetch("visible", gate, done), VISIBLE)
+        queue.execute(fetch("prefetch", null, done), PREFETCH)
+        queue.execute(fetch("background", null, done), BACKGROUND)
+        Thread.sleep(50)
+
+        then:
+        started == ["visible"]
+        queue.getRunningCount(VISIBLE) == 1
+        queue.getQueuedCount(PREFETCH) == 1
+        queue.getQueuedCount(BACKGROUND) == 1
+
+        when:
+        gate.countDown()
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        started == ["visible", "prefetch", "background"]
+    }
+
+    def "runs no more fetches at once than the concurrency"() {
+        given:
+        def queue = new FetchQueue(executor, 2)
+        def gate = new CountDownLatch(1)
+        def done = new CountDownLatch(5)
+
+        when:
+        5.times { queue.execute(fetch(it, gate, done), PREFETCH) }
+        Thread.sleep(50)
+
+        then:
+        started.size() == 2
+        queue.getQueuedCount(PREFETCH) == 3
+
+        when:
+        gate.countDown()
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        started.size() == 5
+    }
+
+    def "promote() moves a queued fetch ahead of the fetches at the new priority"() {
+        given:
+        def queue = new FetchQueue(executor, 1)
+        def gate = new CountDownLatch(1)
+        def done = new CountDownLatch(3)
+        def promoted = fetch("promoted", null, done)
+
+        when:
+        queue.execute(fetch("first", gate, done), VISIBLE)
+        queue.execute(fetch("visible", null, done), VISIBLE)
+        queue.execute(promoted, BACKGROUND)
+        queue.promote(promoted, VISIBLE)
+        gate.countDown()
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        started == ["first", "promoted", "visible"]
+    }
+
+    def fetch(Object name, CountDownLatch gate, CountDownLatch done) {
+        return {
+            started << name
+            gate?.await(5, TimeUnit.SECONDS)
+            done.countDown()
+        } as Runnable
+    }
+}
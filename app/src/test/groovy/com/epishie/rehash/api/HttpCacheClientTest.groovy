@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpHandler
+import com.sun.net.httpserver.HttpServer
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import retrofit.client.Header
+import retrofit.client.Request
+import retrofit.client.UrlConnectionClient
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class HttpCacheClientTest extends Specification {
+
+    static final String ITEM = '{"by":"pg","id":1,"kids":[15,234509],"score":57,"time":1160418111,' +
+            '"title":"Y Combinator","type":"story","url":"http://ycombinator.com"}'
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def scheduler = new TestScheduler()
+    def server = new StubServer()
+    HttpCacheClient client
+
+    def setup() {
+        server.start()
+        client = new HttpCacheClient(new UrlConnectionClient(), folder.newFolder("http"), 1024 * 1024, scheduler)
+    }
+
+    def cleanup() {
+        server.stop()
+    }
+
+    def "execute() revalidates an unchanged response with its ETag and serves it from disk"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, ["ETag": '"v1"'])
+
+        when:
+        def first = client.execute(get("/v0/item/1.json"))
+        def second = client.execute(get("/v0/item/1.json"))
+
+        then:
+        body(first) == ITEM
+        body(second) == ITEM
+        second.status == 200
+        server.requests*.headers*.get("If-None-Match") == [null, '"v1"']
+        server.notModifiedCount == 1
+        client.networkCount == 2
+        client.conditionalHitCount == 1
+        client.bytesSaved == ITEM.bytes.length
+    }
+
+    def "execute() revalidates with Last-Modified when there is no ETag"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, ["Last-Modified": "Tue, 03 Nov 2015 10:00:00 GMT"])
+
+        when:
+        client.execute(get("/v0/item/1.json"))
+        def second = client.execute(get("/v0/item/1.json"))
+
+        then:
+        body(second) == ITEM
+        server.requests[1].headers["If-Modified-Since"] == "Tue, 03 Nov 2015 10:00:00 GMT"
+        server.notModifiedCount == 1
+    }
+
+    def "execute() replaces a changed response"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, ["ETag": '"v1"'])
+        client.execute(get("/v0/item/1.json"))
+        def changed = ITEM.replace("57", "58")
+        server.serve("/v0/item/1.json", changed, ["ETag": '"v2"'])
+
+        when:
+        def second = client.execute(get("/v0/item/1.json"))
+        def third = client.execute(get("/v0/item/1.json"))
+
+        then:
+        body(second) == changed
+        body(third) == changed
+        server.requests*.headers*.get("If-None-Match") == [null, '"v1"', '"v2"']
+        client.bytesSaved == changed.bytes.length
+    }
+
+    def "execute() serves a fresh response without a request until its max-age passes"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, ["ETag": '"v1"', "Cache-Control": "max-age=60"])
+        client.execute(get("/v0/item/1.json"))
+
+        when:
+        def cached = client.execute(get("/v0/item/1.json"))
+        scheduler.advanceTimeBy(61, TimeUnit.SECONDS)
+        def revalidated = client.execute(get("/v0/item/1.json"))
+
+        then:
+        body(cached) == ITEM
+        body(revalidated) == ITEM
+        server.requests.size() == 2
+        client.hitCount == 1
+        client.conditionalHitCount == 1
+        client.bytesSaved == 2 * ITEM.bytes.length
+    }
+
+    def "execute() revalidates a fresh response for a request marked no-cache"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, ["ETag": '"v1"', "Cache-Control": "max-age=60"])
+        client.execute(get("/v0/item/1.json"))
+        def request = get("/v0/item/1.json")
+        request = new Request("GET", request.url, request.headers + [new Header("Cache-Control", "no-cache")], null)
+
+        when:
+        def revalidated = client.execute(request)
+
+        then:
+        body(revalidated) == ITEM
+        server.requests*.headers*.get("If-None-Match") == [null, '"v1"']
+        client.hitCount == 0
+        client.conditionalHitCount == 1
+    }
+
+    def "execute() does not keep responses without validators or marked no-store"() {
+        given:
+        server.serve("/v0/item/1.json", ITEM, [:])
+        server.serve("/v0/item/2.json", ITEM, ["ETag": '"v1"', "Cache-Control": "no-store"])
+
+        when:
+        2.times {
+            client.execute(get("/v0/item/1.json"))
+            client.execute(get("/v0/item/2.json"))
+        }
+
+        then:
+        server.requests.every { it.headers["If-None-Match"] == null }
+        client.bytesSaved == 0
+    }
+
+    def "execute() deletes least recently used responses beyond the max size"() {
+        given:
+        def directory = folder.newFolder("small")
+        client = new HttpCacheClient(new UrlConnectionClient(), directory, 3 * ITEM.length(), scheduler)
+        (1..5).each { server.serve("/v0/item/${it}.json", ITEM, ["ETag": '"v1"']) }
+
+        when:
+        (1..5).each { client.execute(get("/v0/item/${it}.json")) }
+
+        then:
+        directory.listFiles().sum { it.length() } <= 3 * ITEM.length()
+        directory.listFiles().length < 5
+    }
+
+    def "execute() passes error responses through"() {
+        when:
+        def response = client.execute(get("/v0/item/404.json"))
+
+        then:
+        response.status == 404
+        client.bytesSaved == 0
+    }
+
+    Request get(String path) {
+        new Request("GET", "http://localhost:${server.port}${path}", [new Header("Accept", "application/json")], null)
+    }
+
+    static String body(response) {
+        new String(response.body.bytes, "UTF-8")
+    }
+
+    /**
+     * HTTP server serving fixed bodies, answering a matching If-None-Match or If-Modified-Since
+     * with a 304.
+     */
+    static class StubServer {
+
+        final Map<String, Map> responses = [:].asSynchronized()
+        final List<Map> requests = [].asSynchronized()
+        int notModifiedCount
+        HttpServer server
+
+        void serve(String path, String body, Map<String, String> headers) {
+            responses[path] = [body: body, headers: headers]
+        }
+
+        int getPort() {
+            server.address.port
+        }
+
+        void start() {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0)
+            server.createContext("/", new HttpHandler() {
+
+                @Override
+                void handle(HttpExchange exchange) {
+                    def path = exchange.requestURI.path
+                    requests << [path: path, headers: [
+                            "If-None-Match": exchange.requestHeaders.getFirst("If-None-Match"),
+                            "If-Modified-Since": exchange.requestHeaders.getFirst("If-Modified-Since")]]
+                    def response = responses[path]
+                    if (response == null) {
+                        exchange.sendResponseHeaders(404, -1)
+                        exchange.close()
+                        return
+                    }
+                    Map<String, String> headers = response.headers
+                    headers.each { name, value -> exchange.responseHeaders.add(name, value) }
+                    exchange.responseHeaders.add("Content-Type", "application/json; charset=utf-8")
+                    def eTag = exchange.requestHeaders.getFirst("If-None-Match")
+                    def since = exchange.requestHeaders.getFirst("If-Modified-Since")
+                    if ((eTag != null && eTag == headers["ETag"])
+                            || (since != null && since == headers["Last-Modified"])) {
+                        notModifiedCount++
+                        exchange.sendResponseHeaders(304, -1)
+                    } else {
+                        byte[] bytes = response.body.getBytes("UTF-8")
+                        exchange.sendResponseHeaders(200, bytes.length)
+                        exchange.responseBody.write(bytes)
+                    }
+                    exchange.close()
+                }
+            })
+            server.start()
+        }
+
+        void stop() {
+            server.stop(0)
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+
+import com.google.gson.Gson
+import groovy.transform.CompileStatic
+import retrofit.converter.Converter
+import retrofit.converter.GsonConverter
+import retrofit.mime.TypedByteArray
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares ItemConverter with GsonConverter on payloads shaped like Hacker News items: a story
+ * with many kids and comments with html text. Run with REHASH_BENCHMARK=1.
+ */
+@Requires({ env["REHASH_BENCHMARK"] })
+class ItemConverterBenchmark extends Specification {
+
+    static final int ITERATIONS = 20000
+    static final int WARMUP = 5000
+
+    def "ItemConverter allocates less and is faster than GsonConverter"() {
+        given:
+        List<byte[]> payloads = payloads(new Random(42))
+
+        when:
+        WARMUP.times { run(new GsonConverter(new Gson()), payloads); run(new ItemConverter(), payloads) }
+        def gson = measure(new GsonConverter(new Gson()), payloads)
+        def streaming = measure(new ItemConverter(), payloads)
+        println String.format("GsonConverter: %8.1f us/op %10d bytes/op", gson[0] / 1000d, gson[1])
+        println String.format("ItemConverter: %8.1f us/op %10d bytes/op", streaming[0] / 1000d, streaming[1])
+
+        then:
+        streaming[1] < gson[1]
+        streaming[0] <= gson[0] * 1.1
+    }
+
+    static long[] measure(Converter converter, List<byte[]> payloads) {
+        def threads = (com.sun.management.ThreadMXBean) ManagementFactory.threadMXBean
+        long threadId = Thread.currentThread().id
+        long bytes = threads.getThreadAllocatedBytes(threadId)
+        long start = System.nanoTime()
+        ITERATIONS.times { run(converter, payloads) }
+        long time = System.nanoTime() - start
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes
+        return [time / ITERATIONS, bytes / ITERATIONS] as long[]
+    }
+
+    @CompileStatic
+    static int run(Converter converter, List<byte[]> payloads) {
+        int count = 0
+        for (byte[] payload : payloads) {
+            HackerNewsApi.Item item = (HackerNewsApi.Item) converter.fromBody(
+                    new TypedByteArray("application/json", payload), HackerNewsApi.Item)
+            count += item.kids == null ? 0 : item.kids.length
+        }
+        return count
+    }
+
+    static List<byte[]> payloads(Random random) {
+        def kids = (0..<120).collect { 10486541 + it * 7 + random.nextInt(7) }
+        def payloads = ['{"by":"Sir_Cmpwn","descendants":25,"id":10486541,"kids":' + kids + ',' +
+                '"score":87,"time":1446475397,"title":"Announcing the Sway Wayland compositor",' +
+                '"type":"story","url":"https://drewdevault.com/2015/11/01/Announcing-sway.html"}']
+        kids.take(10).each { id ->
+            payloads << '{"by":"commenter","id":' + id + ',"kids":[' + (id + 1) + ',' + (id + 2) + '],' +
+                    '"parent":10486541,"text":"I&#x27;ve been using it for a while. <a href=\\"http:' +
+                    '&#x2F;&#x2F;example.com\\">Link<\\/a><p>It works <i>really<\\/i> well.",' +
+                    '"time":' + (1446475400 + id % 1000) + ',"type":"comment"}'
+        }
+        return payloads.collect { it.getBytes("UTF-8") }
+    }
+}
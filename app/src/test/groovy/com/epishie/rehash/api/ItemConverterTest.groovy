@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+
+import retrofit.converter.ConversionException
+import retrofit.mime.TypedByteArray
+import spock.lang.Specification
+
+class ItemConverterTest extends Specification {
+
+    def converter = new ItemConverter()
+
+    def "fromBody() reads every item field and skips unknown ones"() {
+        when:
+        HackerNewsApi.Item item = converter.fromBody(body('{"by":"pg","descendants":3,"id":1,' +
+                '"kids":[15,234509,487171],"score":57,"time":1160418111,"title":"Y Combinator",' +
+                '"type":"story","url":"http://ycombinator.com","text":"<p>Hi</p>",' +
+                '"parts":[{"nested":[1,2]}]}'), HackerNewsApi.Item)
+
+        then:
+        item.id == 1
+        item.type == HackerNewsApi.Item.TYPE_STORY
+        item.by == "pg"
+        item.kids == [15, 234509, 487171] as int[]
+        item.score == 57
+        item.time == 1160418111L
+        item.title == "Y Combinator"
+        item.url == "http://ycombinator.com"
+        item.text == "<p>Hi</p>"
+    }
+
+    def "fromBody() reads more kids than the initial array holds"() {
+        given:
+        def kids = (1..100).toList()
+
+        when:
+        HackerNewsApi.Item item = converter.fromBody(body("{\"id\":1,\"kids\":${kids}}"), HackerNewsApi.Item)
+
+        then:
+        item.kids == kids as int[]
+    }
+
+    def "fromBody() reads a comment and its parent"() {
+        when:
+        HackerNewsApi.Item comment = converter.fromBody(body('{"id":9,"text":"Text","by":"b",' +
+                '"time":11,"parent":8,"kids":[],"type":"comment"}'), HackerNewsApi.Item)
+
+        then:
+        comment.id == 9
+        comment.type == HackerNewsApi.Item.TYPE_COMMENT
+        comment.parent == 8
+        comment.text == "Text"
+        comment.by == "b"
+        comment.time == 11L
+        comment.kids.length == 0
+    }
+
+    def "fromBody() returns null for a missing item and ignores null fields"() {
+        expect:
+        converter.fromBody(body("null"), HackerNewsApi.Item) == null
+        HackerNewsApi.Item item = converter.fromBody(body('{"id":2,"title":null,"kids":null}'), HackerNewsApi.Item)
+        item.id == 2
+        item.title == null
+        item.kids == null
+    }
+
+    def "fromBody() reads the top stories"() {
+        given:
+        def type = HackerNewsApi.getMethod("getTopStories").genericReturnType
+
+        expect:
+        converter.fromBody(body("[3, 2, 1]"), type) == [3, 2, 1]
+    }
+
+    def "fromBody() throws ConversionException on malformed json"() {
+        when:
+        converter.fromBody(body('{"id":"x"}'), HackerNewsApi.Item)
+
+        then:
+        thrown(ConversionException)
+    }
+
+    def body(String json) {
+        new TypedByteArray("application/json", json.getBytes("UTF-8"))
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.api
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ItemStoreTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+
+    def "writeItem() and readItem() round trip a record"() {
+        given:
+        def store = new ItemStore(new File(folder.root, "items"))
+        def record = new ItemStore.Record()
+        record.fetchedAt = 1000
+        record.id = 10486541
+        record.type = "story"
+        record.by = "Sir_Cmpwn"
+        record.time = 1446389835
+        record.score = 87
+        record.title = "Please don't use Slack for FOSS projects — é"
+        record.url = "https://drewdevault.com/2015/11/01/Please-stop-using-slack.html"
+        record.kids = [10486604, 10486688]
+
+        when:
+        store.writeItem(record)
+        def read = store.readItem(10486541)
+
+        then:
+        read.fetchedAt == 1000
+        read.id == 10486541
+        read.type == "story"
+        read.parent == 0
+        read.by == "Sir_Cmpwn"
+        read.time == 1446389835
+        read.score == 87
+        read.title == record.title
+        read.url == record.url
+        read.text == null
+        read.kids == [10486604, 10486688]
+    }
+
+    def "readItem() returns null for a missing or corrupt record"() {
+        given:
+        def directory = folder.newFolder("items")
+        def store = new ItemStore(directory)
+        new File(directory, "2").bytes = [1, 2, 3] as byte[]
+
+        expect:
+        store.readItem(1) == null
+        store.readItem(2) == null
+    }
+
+    def "writeTopStories() and readTopStories() round trip ids"() {
+        given:
+        def store = new ItemStore(new File(folder.root, "items"))
+
+        when:
+        store.writeTopStories([3, 2, 1])
+
+        then:
+        store.readTopStories() == [3, 2, 1]
+    }
+
+    def "writeItem() deletes the least recently used records beyond the max size and keeps the top stories"() {
+        given:
+        def probe = folder.newFolder("probe")
+        new ItemStore(probe).writeItem(record(1))
+        def recordBytes = new File(probe, "1").length()
+        def directory = folder.newFolder("items")
+        def store = new ItemStore(directory, 3 * recordBytes + 20)
+        store.writeTopStories([1, 2, 3])
+        (1..3).each { store.writeItem(record(it)) }
+        new File(directory, "topstories").lastModified = 0
+        new File(directory, "1").lastModified = 3000
+        new File(directory, "2").lastModified = 1000
+        new File(directory, "3").lastModified = 2000
+
+        when:
+        store.writeItem(record(4))
+
+        then:
+        store.readTopStories() == [1, 2, 3]
+        store.readItem(2) == null
+        [1, 3, 4].every { store.readItem(it) != null }
+    }
+
+    def record(int id) {
+        def record = new ItemStore.Record()
+        record.id = id
+        record.title = "Story #" + id
+        return record
+    }
+}
@@ -22,6 +22,9 @@ import retrofit.client.Response
 import retrofit.mime.TypedByteArray
 import spock.lang.Specification
 
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
 class RetrofitHackerNewsApiTest extends Specification {
 
     def client = new MockClient()
@@ -47,7 +50,7 @@ class RetrofitHackerNewsApiTest extends Specification {
         topStories[5] == 10485442
     }
 
-    def "getStory() retrieves story from /v0/item/{id}.json"() {
+    def "getItem() retrieves story from /v0/item/{id}.json"() {
         given:
         clientRespondsWith "{\n" +
                 "  \"by\" : \"Sir_Cmpwn\",\n" +
@@ -63,12 +66,13 @@ class RetrofitHackerNewsApiTest extends Specification {
         def api = new RetrofitHackerNewsApi(client)
 
         when:
-        def story = api.getStory(10486541);
+        def story = api.getItem(10486541);
 
         then:
         client.requests.size() == 1
         client.requests[0].url == "https://hacker-news.firebaseio.com/v0/item/10486541.json"
         story.id == 10486541
+        story.type == HackerNewsApi.Item.TYPE_STORY
         story.title == "Please don't use Slack for FOSS projects"
         story.by == "Sir_Cmpwn"
         story.score == 87
@@ -81,7 +85,7 @@ class RetrofitHackerNewsApiTest extends Specification {
         story.kids[4] == 10486629
     }
 
-    def ""() {
+    def "getItem() retrieves comment from /v0/item/{id}.json"() {
         given:
         clientRespondsWith("{\n" +
                 "  \"by\" : \"munchor\",\n" +
@@ -95,16 +99,83 @@ class RetrofitHackerNewsApiTest extends Specification {
         def api = new RetrofitHackerNewsApi(client)
 
         when:
-        def comment = api.getComment(10486604)
+        def comment = api.getItem(10486604)
 
         then:
         client.requests.size() == 1
         client.requests[0].url == "https://hacker-news.firebaseio.com/v0/item/10486604.json"
         comment.id == 10486604
+        comment.type == HackerNewsApi.Item.TYPE_COMMENT
+        comment.parent == 10486541
         comment.text == "Completely agreed. I love Slack and it makes sense for a lot of things."
         comment.by == "munchor"
     }
 
+    def "getItems() fetches items in parallel in the order of the ids"() {
+        given:
+        def latency = 200
+        def itemClient = new ItemClient(latency)
+        def api = new RetrofitHackerNewsApi(itemClient, Executors.newFixedThreadPool(8), 8)
+
+        when:
+        def start = System.currentTimeMillis()
+        def items = api.getItems([8, 7, 6, 5, 4, 3, 2, 1] as int[])
+        def elapsed = System.currentTimeMillis() - start
+
+        then:
+        items*.id == [8, 7, 6, 5, 4, 3, 2, 1]
+        items*.text == (8..1).collect { "Comment #" + it }
+        elapsed < latency * 4
+    }
+
+    def "getItems() shares requests for ids already in flight"() {
+        given:
+        def itemClient = new ItemClient(200)
+        def api = new RetrofitHackerNewsApi(itemClient, Executors.newFixedThreadPool(8), 8)
+
+        when:
+        def other = Thread.start { api.getItems([1, 2] as int[]) }
+        def items = api.getItems([1, 2, 2, 3] as int[])
+        other.join()
+
+        then:
+        items*.id == [1, 2, 2, 3]
+        itemClient.requestCount.get() == 3
+    }
+
+    def "getItems() makes visible requests ahead of queued prefetches"() {
+        given:
+        def itemClient = new ItemClient(50)
+        def api = new RetrofitHackerNewsApi(itemClient, Executors.newFixedThreadPool(1), 1)
+
+        when:
+        def prefetch = Thread.start { api.getItems([1, 2, 3, 4] as int[], HackerNewsApi.Priority.PREFETCH) }
+        Thread.sleep(20)
+        def visible = api.getItems([9] as int[], HackerNewsApi.Priority.VISIBLE)
+        prefetch.join()
+
+        then:
+        visible*.id == [9]
+        itemClient.requestedIds == [1, 9, 2, 3, 4]
+    }
+
+    def "getItems() promotes a queued request to the priority of a later request for it"() {
+        given:
+        def itemClient = new ItemClient(50)
+        def api = new RetrofitHackerNewsApi(itemClient, Executors.newFixedThreadPool(1), 1)
+
+        when:
+        def background = Thread.start { api.getItems([1, 2, 3] as int[], HackerNewsApi.Priority.BACKGROUND) }
+        Thread.sleep(20)
+        def visible = api.getItem(3)
+        background.join()
+
+        then:
+        visible.id == 3
+        itemClient.requestedIds == [1, 3, 2]
+        itemClient.requestCount.get() == 3
+    }
+
     def clientRespondsWith(String response) {
         client.responses.add(response)
     }
@@ -125,4 +196,29 @@ class RetrofitHackerNewsApiTest extends Specification {
                     new TypedByteArray("application/json", responses[index++].getBytes()))
         }
     }
+
+    class ItemClient implements Client {
+
+        final long latency
+        final AtomicInteger requestCount = new AtomicInteger()
+        final List<Integer> requestedIds = Collections.synchronizedList([])
+
+        ItemClient(long latency) {
+            this.latency = latency
+        }
+
+        @Override
+        Response execute(Request request) throws IOException {
+            requestCount.incrementAndGet()
+            def id = (request.url =~ /item\/(\d+)\.json/)[0][1]
+            requestedIds << (id as Integer)
+            Thread.sleep(latency)
+            def json = "{ \"id\" : " + id + ", \"text\" : \"Comment #" + id + "\", \"type\" : \"comment\" }"
+            return new Response(request.url,
+                    200,
+                    "",
+                    Collections.EMPTY_LIST,
+                    new TypedByteArray("application/json", json.getBytes()))
+        }
+    }
 }
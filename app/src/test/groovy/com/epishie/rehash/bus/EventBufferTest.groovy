@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus
+
+import rx.Subscriber
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class EventBufferTest extends Specification {
+
+    def bus = new RxEventBus()
+    def subscriber = new SlowSubscriber<Integer>()
+
+    def "events() hands buffered events downstream as they are requested"() {
+        given:
+        def buffer = new EventBuffer<Integer>(4, EventBuffer.Overflow.DROP_OLDEST)
+        bus.events(Integer, buffer).subscribe(subscriber)
+
+        when:
+        (1..3).each { bus.post(it) }
+
+        then:
+        subscriber.received.isEmpty()
+        buffer.depth == 3
+
+        when:
+        subscriber.request(2)
+
+        then:
+        subscriber.received == [1, 2]
+        buffer.depth == 1
+        buffer.deliveredCount == 2
+    }
+
+    def "DROP_OLDEST drops the oldest buffered events when full"() {
+        given:
+        def buffer = new EventBuffer<Integer>(3, EventBuffer.Overflow.DROP_OLDEST)
+        bus.events(Integer, buffer).subscribe(subscriber)
+
+        when:
+        (1..5).each { bus.post(it) }
+        subscriber.request(10)
+
+        then:
+        subscriber.received == [3, 4, 5]
+        buffer.receivedCount == 5
+        buffer.overflowCount == 2
+        buffer.maxDepth == 3
+    }
+
+    def "COALESCE_LATEST keeps the latest event of a burst when full"() {
+        given:
+        def buffer = new EventBuffer<Integer>(2, EventBuffer.Overflow.COALESCE_LATEST)
+        bus.events(Integer, buffer).subscribe(subscriber)
+
+        when:
+        (1..5).each { bus.post(it) }
+        subscriber.request(10)
+
+        then:
+        subscriber.received == [1, 5]
+        buffer.overflowCount == 3
+    }
+
+    def "BLOCK makes the poster wait until the subscriber requests more"() {
+        given:
+        def buffer = new EventBuffer<Integer>(2, EventBuffer.Overflow.BLOCK)
+        bus.events(Integer, buffer).subscribe(subscriber)
+        def posted = new CountDownLatch(1)
+
+        when:
+        def producer = Thread.start {
+            (1..4).each { bus.post(it) }
+            posted.countDown()
+        }
+
+        then:
+        !posted.await(200, TimeUnit.MILLISECONDS)
+        buffer.depth == 2
+
+        when:
+        subscriber.request(2)
+
+        then:
+        posted.await(5, TimeUnit.SECONDS)
+        subscriber.received == [1, 2]
+        buffer.depth == 2
+        buffer.blockedCount >= 1
+        buffer.overflowCount == 0
+
+        cleanup:
+        producer?.join()
+    }
+
+    def "BLOCK releases the poster when the subscriber unsubscribes"() {
+        given:
+        def buffer = new EventBuffer<Integer>(1, EventBuffer.Overflow.BLOCK)
+        def subscription = bus.events(Integer, buffer).subscribe(subscriber)
+        def posted = new CountDownLatch(1)
+        def producer = Thread.start {
+            (1..3).each { bus.post(it) }
+            posted.countDown()
+        }
+
+        when:
+        Thread.sleep(100)
+        subscription.unsubscribe()
+
+        then:
+        posted.await(5, TimeUnit.SECONDS)
+        buffer.depth == 0
+
+        cleanup:
+        producer?.join()
+    }
+
+    def "DROP_OLDEST takes a replay longer than the buffer without blocking the subscribing thread"() {
+        given:
+        bus.setReplayDepth(Integer, 40)
+        (1..40).each { bus.post(it) }
+        def buffer = new EventBuffer<Integer>(16, EventBuffer.Overflow.DROP_OLDEST)
+
+        when:
+        bus.events(Integer, buffer).subscribe(subscriber)
+        subscriber.request(40)
+
+        then:
+        subscriber.received == (25..40).toList()
+        buffer.overflowCount == 24
+    }
+
+    def "a subscriber that throws gets the error and the buffer stops emitting"() {
+        given:
+        def buffer = new EventBuffer<Integer>(4, EventBuffer.Overflow.DROP_OLDEST)
+        def thrower = new SlowSubscriber<Integer>() {
+
+            @Override
+            void onNext(Integer event) {
+                super.onNext(event)
+                if (event == 2) {
+                    throw new IllegalStateException()
+                }
+            }
+        }
+        bus.events(Integer, buffer).subscribe(thrower)
+
+        when:
+        (1..3).each { bus.post(it) }
+        thrower.request(10)
+        bus.post(4)
+
+        then:
+        notThrown(Throwable)
+        thrower.received == [1, 2]
+        thrower.error instanceof IllegalStateException
+        buffer.depth == 0
+        buffer.deliveredCount == 2
+    }
+
+    def "call() rejects a second subscriber"() {
+        given:
+        def buffer = new EventBuffer<Integer>(1, EventBuffer.Overflow.DROP_OLDEST)
+        def events = bus.events(Integer, buffer)
+        events.subscribe(subscriber)
+        def second = new SlowSubscriber<Integer>()
+
+        when:
+        events.subscribe(second)
+
+        then:
+        second.error instanceof IllegalStateException
+    }
+
+    /**
+     * Subscriber that only requests events when told to.
+     */
+    static class SlowSubscriber<T> extends Subscriber<T> {
+
+        final List<T> received = [].asSynchronized()
+        Throwable error
+
+        @Override
+        void onStart() {
+            request(0)
+        }
+
+        void request(int n) {
+            super.request(n)
+        }
+
+        @Override
+        void onNext(T event) {
+            received << event
+        }
+
+        @Override
+        void onError(Throwable e) {
+            error = e
+        }
+
+        @Override
+        void onCompleted() {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus
+
+import com.epishie.rehash.action.DataMarker
+import com.epishie.rehash.model.StoryBundle
+import rx.schedulers.Schedulers
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class QueuedRxEventBusTest extends Specification {
+
+    def scheduler = new TestScheduler()
+    def bus = new QueuedRxEventBus(scheduler)
+
+    def "post() delivers events on the scheduler in the order they were posted"() {
+        given:
+        def events = []
+        bus.events().subscribe { events << it }
+        def bundle = new StoryBundle()
+
+        when:
+        bus.post(bundle)
+        bus.post(DataMarker.STORY_END)
+
+        then:
+        events.isEmpty()
+
+        when:
+        scheduler.triggerActions()
+
+        then:
+        events == [bundle, DataMarker.STORY_END]
+    }
+
+    def "post() routes events by class"() {
+        given:
+        def bundles = []
+        def markers = []
+        bus.events(StoryBundle).subscribe { bundles << it }
+        bus.events(DataMarker).subscribe { markers << it }
+
+        when:
+        bus.post(new StoryBundle())
+        bus.post(DataMarker.COMMENTS_END)
+        scheduler.triggerActions()
+
+        then:
+        bundles.size() == 1
+        markers == [DataMarker.COMMENTS_END]
+    }
+
+    def "events() replays the latest events of a sticky class"() {
+        given:
+        bus.setReplayDepth(StoryBundle, 1)
+        def bundle = new StoryBundle()
+        bus.post(new StoryBundle())
+        bus.post(bundle)
+        scheduler.triggerActions()
+        def replayed = []
+
+        when:
+        bus.events(StoryBundle).subscribe { replayed << it }
+
+        then:
+        replayed.size() == 1
+        replayed[0].is(bundle)
+    }
+
+    def "post() keeps delivering after a subscriber throws"() {
+        given:
+        def markers = []
+        bus.events(DataMarker).subscribe { if (it == DataMarker.STORY_END) throw new IllegalStateException() }
+        bus.events(DataMarker).subscribe { markers << it }
+        bus.post(DataMarker.STORY_END)
+        bus.post(DataMarker.COMMENTS_END)
+
+        when:
+        scheduler.triggerActions()
+
+        then:
+        thrown(RuntimeException)
+        markers == [DataMarker.COMMENTS_END]
+
+        when:
+        bus.post(DataMarker.COMMENTS_END)
+        scheduler.triggerActions()
+
+        then:
+        markers == [DataMarker.COMMENTS_END, DataMarker.COMMENTS_END]
+    }
+
+    def "post() from several threads delivers every event from one thread at a time"() {
+        given:
+        def bus = new QueuedRxEventBus(Schedulers.newThread())
+        def producers = 4
+        def count = 10000
+        def received = new AtomicInteger()
+        def concurrent = new AtomicInteger()
+        def overlaps = new AtomicInteger()
+        def done = new CountDownLatch(1)
+        bus.events(Integer).subscribe {
+            if (concurrent.incrementAndGet() > 1) {
+                overlaps.incrementAndGet()
+            }
+            concurrent.decrementAndGet()
+            if (received.incrementAndGet() == producers * count) {
+                done.countDown()
+            }
+        }
+
+        when:
+        (0..<producers).collect { Thread.start { count.times { bus.post(it) } } }*.join()
+
+        then:
+        done.await(10, TimeUnit.SECONDS)
+        received.get() == producers * count
+        overlaps.get() == 0
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus
+
+import groovy.transform.CompileStatic
+import rx.Observable
+import rx.functions.Action1
+import rx.schedulers.Schedulers
+import rx.subjects.PublishSubject
+import rx.subjects.SerializedSubject
+import rx.subjects.Subject
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Compares RxEventBus with a single subject filtered with ofType() per subscriber, posting one
+ * event type while a growing number of subscribers listen for other types, and with
+ * QueuedRxEventBus when several threads post at once. Run with REHASH_BENCHMARK=1.
+ */
+@Requires({ env["REHASH_BENCHMARK"] })
+class RxEventBusBenchmark extends Specification {
+
+    static final int POSTS = 200000
+    static final int WARMUP = 3
+
+    def "RxEventBus post() cost does not grow with unrelated subscribers"() {
+        when:
+        def results = [1, 10, 100].collect { int subscribers ->
+            WARMUP.times { measure(new OfTypeBus(), subscribers); measure(new IndexedBus(), subscribers) }
+            def ofType = measure(new OfTypeBus(), subscribers)
+            def indexed = measure(new IndexedBus(), subscribers)
+            println String.format("%3d subscribers: ofType %10.0f posts/s, indexed %10.0f posts/s",
+                    subscribers, ofType, indexed)
+            [subscribers: subscribers, ofType: ofType, indexed: indexed]
+        }
+
+        then:
+        results[2].indexed > results[2].ofType * 5
+        results[2].indexed > results[0].indexed / 2
+    }
+
+    def "QueuedRxEventBus posts faster than RxEventBus from contending threads"() {
+        when:
+        def results = [4, 8].collect { int producers ->
+            WARMUP.times { contend(new RxEventBus(), producers); contend(new QueuedRxEventBus(Schedulers.newThread()), producers) }
+            def serialized = contend(new RxEventBus(), producers)
+            def queued = contend(new QueuedRxEventBus(Schedulers.newThread()), producers)
+            println String.format("%d producers: serialized %10.0f posts/s %10.0f delivered/s %4d bytes/post",
+                    producers, serialized[0], serialized[1], serialized[2] as long)
+            println String.format("%d producers: queued     %10.0f posts/s %10.0f delivered/s %4d bytes/post",
+                    producers, queued[0], queued[1], queued[2] as long)
+            [serialized: serialized, queued: queued]
+        }
+
+        then:
+        results.every { it.queued[0] > it.serialized[0] }
+    }
+
+    /**
+     * @return posts per second of the posting threads, events per second until every event is
+     * delivered, and bytes allocated per post by the posting threads
+     */
+    static double[] contend(RxEventBus bus, int producers) {
+        int total = producers * POSTS
+        def delivered = new CountDownLatch(total)
+        bus.events(Posted).subscribe(new Action1<Posted>() {
+
+            @Override
+            void call(Posted posted) {
+                delivered.countDown()
+            }
+        })
+        def threads = (com.sun.management.ThreadMXBean) ManagementFactory.threadMXBean
+        def start = new CountDownLatch(1)
+        def allocated = new AtomicLong()
+        def event = new Posted()
+        def workers = (0..<producers).collect {
+            Thread.start {
+                start.await()
+                long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().id)
+                post(bus, event)
+                allocated.addAndGet(threads.getThreadAllocatedBytes(Thread.currentThread().id) - bytes)
+            }
+        }
+        long time = System.nanoTime()
+        start.countDown()
+        workers*.join()
+        long posted = System.nanoTime() - time
+        assert delivered.await(30, TimeUnit.SECONDS)
+        long deliveredTime = System.nanoTime() - time
+        return [total * 1000000000d / posted, total * 1000000000d / deliveredTime,
+                allocated.get() / total] as double[]
+    }
+
+    @CompileStatic
+    static void post(RxEventBus bus, Object event) {
+        for (int i = 0; i < POSTS; i++) {
+            bus.post(event)
+        }
+    }
+
+    static double measure(Bus bus, int subscribers) {
+        final AtomicLong received = new AtomicLong()
+        // One subscriber for the posted event, the others for unrelated events as on the data bus
+        bus.events(Posted).subscribe(new Action1<Posted>() {
+
+            @Override
+            void call(Posted posted) {
+                received.incrementAndGet()
+            }
+        })
+        List<Class> types = [Unrelated1, Unrelated2, Unrelated3, Unrelated4] as List<Class>
+        for (int i = 1; i < subscribers; i++) {
+            bus.events(types[i % types.size()]).subscribe(new Action1<Object>() {
+
+                @Override
+                void call(Object o) {
+                    received.decrementAndGet()
+                }
+            })
+        }
+        long time = post(bus, new Posted(), POSTS)
+        assert received.get() == POSTS
+        return POSTS * 1000000000d / time
+    }
+
+    @CompileStatic
+    static long post(Bus bus, Object event, int count) {
+        long start = System.nanoTime()
+        for (int i = 0; i < count; i++) {
+            bus.post(event)
+        }
+        return System.nanoTime() - start
+    }
+
+    interface Bus {
+        void post(Object o)
+        def <T> Observable<T> events(Class<T> klass)
+    }
+
+    static class IndexedBus implements Bus {
+
+        final RxEventBus bus = new RxEventBus()
+
+        void post(Object o) {
+            bus.post(o)
+        }
+
+        def <T> Observable<T> events(Class<T> klass) {
+            bus.events(klass)
+        }
+    }
+
+    /**
+     * The bus as it was: every event goes through every subscriber's ofType() filter.
+     */
+    static class OfTypeBus implements Bus {
+
+        final Subject<Object, Object> bus = new SerializedSubject<>(PublishSubject.create())
+
+        void post(Object o) {
+            bus.onNext(o)
+        }
+
+        def <T> Observable<T> events(Class<T> klass) {
+            bus.asObservable().ofType(klass)
+        }
+    }
+
+    static class Posted {}
+    static class Unrelated1 {}
+    static class Unrelated2 {}
+    static class Unrelated3 {}
+    static class Unrelated4 {}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.bus
+
+import com.epishie.rehash.action.DataMarker
+import com.epishie.rehash.model.CommentsList
+import com.epishie.rehash.model.StoryBundle
+import spock.lang.Specification
+
+class RxEventBusTest extends Specification {
+
+    def bus = new RxEventBus()
+
+    def "post() delivers an event to the subscribers of its class only"() {
+        given:
+        def bundles = []
+        def markers = []
+        bus.events(StoryBundle).subscribe { bundles << it }
+        bus.events(DataMarker).subscribe { markers << it }
+        def bundle = new StoryBundle()
+
+        when:
+        bus.post(bundle)
+        bus.post(DataMarker.STORY_END)
+
+        then:
+        bundles == [bundle]
+        markers == [DataMarker.STORY_END]
+    }
+
+    def "post() delivers an event to the subscribers of its supertypes and interfaces"() {
+        given:
+        def lists = []
+        def all = []
+        bus.events(ArrayList).subscribe { lists << it }
+        bus.events().subscribe { all << it }
+        def bundle = new StoryBundle()
+        def comments = new CommentsList()
+
+        when:
+        bus.post(bundle)
+        bus.post(comments)
+        bus.post("event")
+
+        then:
+        lists*.class == [StoryBundle, CommentsList]
+        all*.class == [StoryBundle, CommentsList, String]
+    }
+
+    def "post() reaches subscribers of a class registered after the class was first posted"() {
+        given:
+        def early = []
+        def late = []
+        bus.events(StoryBundle).subscribe { early << it }
+        bus.post(new StoryBundle())
+
+        when:
+        bus.events(List).subscribe { late << it }
+        bus.post(new StoryBundle())
+
+        then:
+        early.size() == 2
+        late.size() == 1
+    }
+
+    def "post() stops delivering to unsubscribed subscribers"() {
+        given:
+        def markers = []
+        def subscription = bus.events(DataMarker).subscribe { markers << it }
+        bus.post(DataMarker.STORY_END)
+
+        when:
+        subscription.unsubscribe()
+        bus.post(DataMarker.COMMENTS_END)
+
+        then:
+        markers == [DataMarker.STORY_END]
+    }
+
+    def "events() replays the latest events of a sticky class up to its depth"() {
+        given:
+        bus.setReplayDepth(StoryBundle, 2)
+        def bundles = (1..3).collect { new StoryBundle() }
+        bundles.each { bus.post(it) }
+        def replayed = []
+
+        when:
+        bus.events(StoryBundle).subscribe { replayed << it }
+        bus.post(DataMarker.STORY_END)
+
+        then:
+        replayed.size() == 2
+        replayed[0].is(bundles[1])
+        replayed[1].is(bundles[2])
+    }
+
+    def "events() does not replay classes that are not sticky"() {
+        given:
+        bus.setReplayDepth(StoryBundle, 2)
+        bus.events(DataMarker).subscribe {}
+        bus.post(DataMarker.STORY_END)
+        def markers = []
+
+        when:
+        bus.events(DataMarker).subscribe { markers << it }
+
+        then:
+        markers.isEmpty()
+    }
+
+    def "setReplayDepth() fails once the class is subscribed to"() {
+        given:
+        bus.events(StoryBundle).subscribe {}
+
+        when:
+        bus.setReplayDepth(StoryBundle, 2)
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.model
+
+import com.epishie.rehash.util.ListDiff
+import spock.lang.Specification
+
+class StoryChangesTest extends Specification {
+
+    def "diff - applied to the base ids gives the ids of the page"() {
+        given:
+        def base = stories(baseIds)
+        def page = stories(pageIds)
+
+        when:
+        def changes = StoryChanges.diff(base, page)
+
+        then:
+        changes.baseIds as List == baseIds
+        apply(changes, page) == pageIds
+
+        where:
+        baseIds         | pageIds
+        []              | [1, 2]
+        [1, 2, 3]       | []
+        [1, 2, 3]       | [1, 2, 3]
+        [1, 2, 3]       | [3, 2, 1]
+        [1, 2, 3, 4, 5] | [6, 2, 1, 3, 5]
+        [1, 2, 3]       | [4, 1, 5, 3, 6, 7]
+    }
+
+    def "diff - changes the stories kept that are not the same instance"() {
+        given:
+        def base = stories([1, 2, 3])
+        def page = [base[2], new Story.Builder().setId(2).build(), base[0]]
+
+        when:
+        def changes = StoryChanges.diff(base, page)
+
+        then:
+        changes.changes.findAll { it.type == StoryChanges.CHANGE }*.to == [1]
+    }
+
+    def "diff - leaves unchanged stories in place without any change"() {
+        given:
+        def base = stories([1, 2, 3])
+
+        when:
+        def changes = StoryChanges.diff(base, new ArrayList<Story>(base))
+
+        then:
+        changes.changes.isEmpty()
+    }
+
+    def stories(List<Integer> ids) {
+        ids.collect { new Story.Builder().setId(it).build() }
+    }
+
+    def apply(StoryChanges changes, List<Story> page) {
+        List<Integer> ids = changes.baseIds as List
+        changes.changes.each { ListDiff.Change change ->
+            switch (change.type) {
+                case StoryChanges.REMOVE:
+                    ids.remove(change.from)
+                    break
+                case StoryChanges.INSERT:
+                    ids.add(change.to, page[change.to].id)
+                    break
+                case StoryChanges.MOVE:
+                    ids.add(change.to, ids.remove(change.from))
+                    break
+            }
+        }
+        return ids
+    }
+}
@@ -17,6 +17,7 @@
 package com.epishie.rehash.store
 
 import com.epishie.rehash.action.GetCommentsAction
+import com.epishie.rehash.action.OpenStoryAction
 import com.epishie.rehash.api.HackerNewsApi
 import com.epishie.rehash.bus.RxEventBus
 import com.epishie.rehash.model.Comment
@@ -35,6 +36,7 @@ class CommentsStoreTest extends Specification {
     def scheduler = new TestScheduler()
     def api = Mock(HackerNewsApi)
     def itemFetchCount = 0
+    def fetchedIds = []
 
     def "on GetCommentsAction - emits N Comments from api"() {
         given:
@@ -96,6 +98,7 @@ class CommentsStoreTest extends Specification {
 
         then:
         itemFetchCount == 10 // 1 story + 9 comments
+        fetchedIds.unique(false) == fetchedIds
         outputComments.get() != null
         outputComments.get().size() == 9
         (1..3).eachWithIndex { Integer id, i ->
@@ -114,6 +117,127 @@ class CommentsStoreTest extends Specification {
         }
     }
 
+    def "on GetCommentsAction - fetches only the items needed for the page"() {
+        given:
+        apiHasStoryComments((1..500).toList())
+        AtomicReference<CommentsList> outputComments = new AtomicReference<>(new CommentsList())
+        dataBus.events(CommentsList)
+                .observeOn(scheduler)
+                .subscribe(new Action1<CommentsList>() {
+
+            @Override
+            void call(CommentsList comments) {
+                outputComments.get().addAll(comments)
+            }
+        })
+        def _ = new CommentsStore(actionBus, dataBus, scheduler, api)
+
+        when:
+        actionBus.post(new GetCommentsAction(0, false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        itemFetchCount == 6 // 1 story + 5 comments
+        outputComments.get()*.id == [1, 1001, 1002, 2, 2001]
+        outputComments.get()*.level == [0, 1, 1, 0, 1]
+    }
+
+    def "on GetCommentsAction - reuses cached Comments when returning to a story"() {
+        given:
+        apiHasStoryComments([1, 2, 3])
+        def _ = new CommentsStore(actionBus, dataBus, scheduler, api)
+
+        when:
+        actionBus.post(new GetCommentsAction(0, false, 3))
+        actionBus.post(new GetCommentsAction(1, false, 3))
+        actionBus.post(new GetCommentsAction(0, false, 3))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        itemFetchCount == 4 // 0, 1, 1001, 1002 for story 0; story 1 (comment 1) and story 0 again are cached
+    }
+
+    def "on GetCommentsAction - tags pages with their story, the first page and the last page"() {
+        given:
+        apiHasStoryComments([1, 2])
+        def _ = new CommentsStore(actionBus, dataBus, scheduler, api)
+        List<CommentsList> pages = []
+        dataBus.events(CommentsList).subscribe { pages << it }
+
+        when:
+        actionBus.post(new GetCommentsAction(0, true, 4))
+        actionBus.post(new GetCommentsAction(0, false, 4))
+        actionBus.post(new GetCommentsAction(1, false, 4))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        pages*.size() == [4, 2, 2]
+        pages*.storyId == [0, 0, 1]
+        pages*.firstPage == [true, false, true]
+        pages*.lastPage == [false, true, true]
+    }
+
+    def "on GetCommentsAction - numbers the pages and carries the comments shown since the first page"() {
+        given:
+        apiHasStoryComments([1, 2, 3])
+        def _ = new CommentsStore(actionBus, dataBus, scheduler, api)
+        List<CommentsList> pages = []
+        dataBus.events(CommentsList).subscribe { pages << it }
+
+        when:
+        actionBus.post(new GetCommentsAction(0, true, 4))
+        actionBus.post(new GetCommentsAction(0, false, 4))
+        actionBus.post(new GetCommentsAction(1, false, 4))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        pages*.sequence == [1, 2, 3]
+        pages.collect { it.shown*.id } == [[1, 1001, 1002, 2], [1, 1001, 1002, 2, 2001, 2002, 3, 3001],
+                                           [1001, 1002]]
+    }
+
+    def "on GetCommentsAction - renders comment texts before posting them, once per text"() {
+        given:
+        apiHasStoryComments([1, 2])
+        def renderer = new TextRenderer({ String html -> "<" + html + ">" } as TextRenderer.Renderer, scheduler)
+        def _ = new CommentsStore(actionBus, dataBus, scheduler, api, new ItemCache(scheduler), renderer)
+        List<CommentsList> pages = []
+        dataBus.events(CommentsList).subscribe { pages << it }
+
+        when:
+        actionBus.post(new GetCommentsAction(0, false, 6))
+        actionBus.post(new GetCommentsAction(0, true, false, 6))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        pages.size() == 2
+        pages.each { CommentsList page ->
+            page.each { Comment comment ->
+                assert comment.renderedText == "<Comment #" + comment.id + ">"
+            }
+        }
+        pages[1][0].renderedText.is(pages[0][0].renderedText)
+        renderer.renderCount == 6
+    }
+
+    def "on GetCommentsAction - reuses items fetched by StoriesStore"() {
+        given:
+        apiHasStoryComments([1, 2, 3])
+        def cache = new ItemCache(scheduler)
+        new StoriesStore(actionBus, dataBus, scheduler, api, cache)
+        new CommentsStore(actionBus, dataBus, scheduler, api, cache)
+
+        when:
+        actionBus.post(new OpenStoryAction(0))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        fetchedIds.clear()
+        actionBus.post(new GetCommentsAction(0, false, 9))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        fetchedIds == [1002, 2002, 3002] // only the replies that the story did not inflate
+    }
+
     def "on GetCommentsAction - emits new Comments from api on refresh"() {
         given:
         apiHasStoryComments([1, 2, 3, 4, 5])
@@ -171,34 +295,24 @@ class CommentsStoreTest extends Specification {
     }
 
     def apiHasStoryComments(List comments) {
-        api.getItem(_ as Integer) >> { Integer id ->
-            itemFetchCount++
-            def item = new HackerNewsApi.Item()
-            item.id = id
-            item.text = "Comment #" + id
-            if (id == 0) {
-                item.kids = comments
-            } else if (id <= 1000) {
-                item.kids = []
-                def prefix = id * 1000
-                (1..2).each {
+        def items = { args ->
+            int[] ids = args[0]
+            itemFetchCount += ids.length
+            fetchedIds.addAll(ids)
+            ids.collect { int id ->
+                def item = new HackerNewsApi.Item()
+                item.id = id
+                item.text = "Comment #" + id
+                if (id == 0) {
+                    item.kids = comments
+                } else if (id <= 1000) {
+                    def prefix = id * 1000
                     item.kids = [prefix + 1, prefix + 2]
                 }
-            }
-            return item
-        }
-        /*
-        api.getStory(_ as Integer) >> story
-        api.getComment(_ as Integer) >> { Integer id ->
-            HackerNewsApi.Comment comment = new HackerNewsApi.Comment()
-            comment.id = id
-            comment.text = "Comment #" + id
-            if (id <= 1000) {
-                def prefix = id * 1000
-                comment.kids = [prefix + 1, prefix + 2]
-            }
-            return comment
+                return item
+            } as HackerNewsApi.Item[]
         }
-        */
+        api.getItems(_ as int[], _) >> { args -> items(args) }
+        api.refreshItems(_ as int[], _) >> { args -> items(args) }
     }
 }
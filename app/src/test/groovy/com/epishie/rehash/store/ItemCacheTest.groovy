@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store
+
+import com.epishie.rehash.api.HackerNewsApi
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class ItemCacheTest extends Specification {
+
+    def clock = new TestScheduler()
+
+    def "get() returns cached item and counts hits and misses"() {
+        given:
+        def cache = new ItemCache(10, Long.MAX_VALUE, 1000, clock)
+        cache.put(1, item(1))
+
+        when:
+        def hit = cache.get(1, HackerNewsApi.Item)
+        def miss = cache.get(2, HackerNewsApi.Item)
+
+        then:
+        hit.id == 1
+        miss == null
+        cache.hitCount == 1
+        cache.missCount == 1
+    }
+
+    def "get() misses when cached item is of another type"() {
+        given:
+        def cache = new ItemCache(10, Long.MAX_VALUE, 1000, clock)
+        cache.put(1, item(1))
+
+        expect:
+        cache.get(1, String) == null
+        cache.missCount == 1
+    }
+
+    def "put() evicts least recently used item when entry count is exceeded"() {
+        given:
+        def cache = new ItemCache(2, Long.MAX_VALUE, 1000, clock)
+        cache.put(1, item(1))
+        cache.put(2, item(2))
+        cache.get(1, HackerNewsApi.Item)
+
+        when:
+        cache.put(3, item(3))
+
+        then:
+        cache.size() == 2
+        cache.evictionCount == 1
+        cache.get(2, HackerNewsApi.Item) == null
+        cache.get(1, HackerNewsApi.Item) != null
+        cache.get(3, HackerNewsApi.Item) != null
+    }
+
+    def "put() evicts items when estimated bytes are exceeded"() {
+        given:
+        def size = ItemCache.estimateBytes(item(1))
+        def cache = new ItemCache(10, size * 2, 1000, clock)
+
+        when:
+        (1..3).each { cache.put(it, item(it)) }
+
+        then:
+        cache.size() == 2
+        cache.bytes <= size * 2
+        cache.evictionCount == 1
+    }
+
+    def "put() weighs values that estimate their own size"() {
+        given:
+        def cache = new ItemCache(10, 1500, 1000, clock)
+        def sized = { int bytes -> new ItemCache.Sized() {
+
+            @Override
+            int estimateBytes() {
+                return bytes
+            }
+        } }
+
+        when:
+        cache.put(1, sized(1000))
+        cache.put(2, sized(1000))
+
+        then:
+        cache.bytes == 1000
+        cache.size() == 1
+        !cache.contains(1)
+    }
+
+    def "get() misses when item is older than ttl"() {
+        given:
+        def cache = new ItemCache(10, Long.MAX_VALUE, 1000, clock)
+        cache.put(1, item(1))
+
+        when:
+        clock.advanceTimeBy(2, TimeUnit.SECONDS)
+
+        then:
+        cache.get(1, HackerNewsApi.Item) == null
+        cache.expirationCount == 1
+        cache.size() == 0
+    }
+
+    def item(int id) {
+        def item = new HackerNewsApi.Item()
+        item.id = id
+        item.text = "Comment #" + id
+        item.kids = [id * 1000 + 1]
+        return item
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store
+
+import com.epishie.rehash.action.GetCommentsAction
+import com.epishie.rehash.action.GetStoriesAction
+import com.epishie.rehash.api.HackerNewsApi
+import com.epishie.rehash.bus.RxEventBus
+import com.epishie.rehash.model.CommentsList
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class PrefetcherTest extends Specification {
+
+    def scheduler = new TestScheduler()
+    def cache = new ItemCache(scheduler)
+    def api = Mock(HackerNewsApi)
+    def allowed = true
+    def policy = { allowed } as Prefetcher.Policy
+    List<Integer> fetchedIds = []
+    List<HackerNewsApi.Priority> priorities = []
+
+    def setup() {
+        // Stories 1 to 20 have comments 100 * id + 1 to 100 * id + 3, each with reply 10 * comment id
+        api.topStories >> (1..20).toList()
+        api.getItems(_ as int[], _) >> { args ->
+            int[] ids = args[0]
+            fetchedIds.addAll(ids)
+            priorities << args[1]
+            ids.collect { int id -> item(id) } as HackerNewsApi.Item[]
+        }
+    }
+
+    def "prefetches the next page of stories and the first page of comments of the first stories"() {
+        given:
+        def prefetcher = new Prefetcher(api, cache, scheduler, policy, 2, 4, 100, 1024 * 1024)
+
+        when:
+        prefetcher.onPage((1..20).toList(), 5, 5, (1..5).collect { item(it) } as HackerNewsApi.Item[])
+        scheduler.triggerActions()
+
+        then:
+        fetchedIds == [6, 7, 8, 9, 10,
+                       101, 1010, 102, 1020,
+                       201, 2010, 202, 2020]
+        priorities.every { it == HackerNewsApi.Priority.PREFETCH }
+        prefetcher.requestCount == 13
+        prefetcher.byteCount > 0
+    }
+
+    def "lets the stores serve the next page and the first comments of a story from the cache"() {
+        given:
+        def actionBus = new RxEventBus()
+        def dataBus = new RxEventBus()
+        def prefetcher = new Prefetcher(api, cache, scheduler, policy, 3, 5, 100, 1024 * 1024)
+        new StoriesStore(actionBus, dataBus, scheduler, api, cache, prefetcher)
+        new CommentsStore(actionBus, dataBus, scheduler, api, cache)
+        List<CommentsList> pages = []
+        dataBus.events(CommentsList).subscribe { pages << it }
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.triggerActions()
+        fetchedIds.clear()
+        actionBus.post(new GetStoriesAction(false, 5))
+        actionBus.post(new GetCommentsAction(2, true, false, 5))
+        scheduler.triggerActions()
+
+        then:
+        !fetchedIds.any { it in (2..10) || it in [201, 202, 203, 2010, 2020] }
+        pages.size() == 1
+        pages[0]*.id == [201, 2010, 202, 2020, 203]
+    }
+
+    def "stops once the request budget of a page is spent"() {
+        given:
+        def prefetcher = new Prefetcher(api, cache, scheduler, policy, 3, 5, 7, 1024 * 1024)
+
+        when:
+        prefetcher.onPage((1..20).toList(), 5, 5, (1..5).collect { item(it) } as HackerNewsApi.Item[])
+        scheduler.triggerActions()
+
+        then:
+        fetchedIds == [6, 7, 8, 9, 10, 101, 1010]
+        prefetcher.requestCount == 7
+    }
+
+    def "fetches nothing when the policy does not allow it"() {
+        given:
+        allowed = false
+        def prefetcher = new Prefetcher(api, cache, scheduler, policy)
+
+        when:
+        prefetcher.onPage((1..20).toList(), 5, 5, (1..5).collect { item(it) } as HackerNewsApi.Item[])
+        scheduler.triggerActions()
+
+        then:
+        fetchedIds.isEmpty()
+    }
+
+    def "a new page supersedes the prefetch for the page before"() {
+        given:
+        def prefetcher = new Prefetcher(api, cache, scheduler, policy, 1, 1, 100, 1024 * 1024)
+
+        when:
+        prefetcher.onPage((1..20).toList(), 5, 5, [item(1)] as HackerNewsApi.Item[])
+        prefetcher.onPage((1..20).toList(), 10, 5, [item(6)] as HackerNewsApi.Item[])
+        scheduler.triggerActions()
+
+        then:
+        fetchedIds == [11, 12, 13, 14, 15, 601]
+    }
+
+    static HackerNewsApi.Item item(int id) {
+        def item = new HackerNewsApi.Item()
+        item.id = id
+        if (id <= 20) {
+            item.type = HackerNewsApi.Item.TYPE_STORY
+            item.kids = [100 * id + 1, 100 * id + 2, 100 * id + 3]
+        } else if (id < 1000) {
+            item.type = HackerNewsApi.Item.TYPE_COMMENT
+            item.kids = [10 * id]
+        } else {
+            item.type = HackerNewsApi.Item.TYPE_COMMENT
+        }
+        return item
+    }
+}
@@ -20,20 +20,28 @@ import com.epishie.rehash.action.DataMarker
 import com.epishie.rehash.action.GetStoriesAction
 import com.epishie.rehash.action.OpenStoryAction
 import com.epishie.rehash.api.HackerNewsApi
+import com.epishie.rehash.bus.EventBuffer
+import com.epishie.rehash.bus.EventBufferTest
 import com.epishie.rehash.bus.RxEventBus
 import com.epishie.rehash.model.Comment
+import com.epishie.rehash.model.ItemUpdates
 import com.epishie.rehash.model.Story
 import com.epishie.rehash.model.StoryBundle
+import com.epishie.rehash.model.StoryChanges
 import rx.functions.Action1
+import rx.schedulers.Schedulers
 import rx.schedulers.TestScheduler
 import spock.lang.Specification
 
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicReference
 
 class StoriesStoreTest extends Specification {
 
+    static final int STORY_ID = 100000
+
     def actionBus = new RxEventBus()
     def dataBus = new RxEventBus()
     def scheduler = new TestScheduler()
@@ -195,6 +203,7 @@ class StoriesStoreTest extends Specification {
 
         when:
         actionBus.post(new GetStoriesAction(false, 15))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
         actionBus.post(new GetStoriesAction(true, 15))
         scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
 
@@ -213,10 +222,292 @@ class StoriesStoreTest extends Specification {
         }
     }
 
+    def "on GetStoriesAction - marks the first page of a load and the last page"() {
+        given:
+        apiHasStoriesOfCount 12
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        List<StoryBundle> storyBundles = []
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5))
+        actionBus.post(new GetStoriesAction(false, 5))
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        actionBus.post(new GetStoriesAction(true, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        storyBundles*.size() == [5, 5, 2, 5]
+        storyBundles*.firstPage == [true, false, false, true]
+        storyBundles*.lastPage == [false, false, true, false]
+    }
+
+    def "on GetStoriesAction - numbers the pages and carries the stories shown since the first page"() {
+        given:
+        apiHasStoriesOfCount 12
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        List<StoryBundle> storyBundles = []
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5))
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        actionBus.post(new GetStoriesAction(true, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        storyBundles*.sequence == [1, 2, 3]
+        storyBundles.collect { it.shown*.id } == [(1..5).toList(), (1..10).toList(), (1..5).toList()]
+    }
+
+    def "on GetStoriesAction - tags each page with the request it answers"() {
+        given:
+        apiHasStoriesOfCount 12
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        List<StoryBundle> storyBundles = []
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5, 7))
+        actionBus.post(new GetStoriesAction(false, 5, 8))
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        storyBundles*.request == [7, 8, 0]
+    }
+
+    def "postUpdates() replaces the stories shown before posting every story updated since the latest page"() {
+        given:
+        apiHasStoriesOfCount 12
+        def store = new StoriesStore(actionBus, dataBus, scheduler, api)
+        List<StoryBundle> storyBundles = []
+        List<ItemUpdates> updates = []
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+        dataBus.events(ItemUpdates).subscribe { updates << it }
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        when:
+        def first = store.postUpdates([updated(2, 42), updated(20, 1)] as HackerNewsApi.Item[], [], 100)
+        def second = store.postUpdates([updated(4, 7)] as HackerNewsApi.Item[], [], 101)
+        def none = store.postUpdates([updated(20, 2)] as HackerNewsApi.Item[], [], 102)
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        first && second && !none
+        updates*.sequence == [1, 1]
+        updates[0].stories*.id == [2]
+        updates[1].stories*.id == [2, 4]
+        updates[1].stories*.score == [42, 7]
+        storyBundles[0].shown[1].score == 0
+        storyBundles[1].sequence == 2
+        storyBundles[1].shown*.id == (1..10).toList()
+        storyBundles[1].shown*.score == [0, 42, 0, 7, 0, 0, 0, 0, 0, 0]
+    }
+
+    def "on GetStoriesAction - a late subscriber gets only the latest page, with every story shown"() {
+        given:
+        apiHasStoriesOfCount 200
+        dataBus.setReplayDepth(StoryBundle, 1)
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        20.times { actionBus.post(new GetStoriesAction(false, 5)) }
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        List<StoryBundle> storyBundles = []
+
+        when:
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+
+        then:
+        storyBundles.size() == 1
+        storyBundles[0].sequence == 20
+        storyBundles[0].shown*.id == (1..100).toList()
+    }
+
+    def "on GetStoriesAction - a stalled subscriber never blocks the store and catches up from the latest page"() {
+        given:
+        apiHasStoriesOfCount 400
+        dataBus.setReplayDepth(StoryBundle, 1)
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        40.times { actionBus.post(new GetStoriesAction(false, 5)) }
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        // Stands for a main thread that has yet to drain anything
+        def subscriber = new EventBufferTest.SlowSubscriber<StoryBundle>()
+        List<StoryBundle> storyBundles = subscriber.received
+
+        when:
+        dataBus.events(StoryBundle, new EventBuffer<StoryBundle>(16, EventBuffer.Overflow.DROP_OLDEST))
+                .subscribe(subscriber)
+        40.times { actionBus.post(new GetStoriesAction(false, 5)) }
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        subscriber.request(100)
+
+        then:
+        storyBundles*.sequence == (65..80).toList()
+        storyBundles.last().shown*.id == (1..400).toList()
+    }
+
+    def "on GetStoriesAction - a refresh fetches only new stories and changes the stories shown"() {
+        given:
+        def topStories = [[1, 2, 3, 4, 5], [6, 2, 1, 3, 5]]
+        api.topStories >> { topStories.remove(0) }
+        List<List<Integer>> fetched = []
+        def items = { args ->
+            int[] ids = args[0]
+            fetched << (ids as List)
+            ids.collect { int id ->
+                HackerNewsApi.Item story = new HackerNewsApi.Item()
+                story.id = id
+                story.title = "STORY_END #" + id
+                return story
+            } as HackerNewsApi.Item[]
+        }
+        api.getItems(_ as int[], _) >> { args -> items(args) }
+        api.refreshItems(_ as int[], _) >> { args -> items(args) }
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api, new ItemCache(scheduler))
+        List<StoryBundle> storyBundles = []
+        dataBus.events(StoryBundle).subscribe { storyBundles << it }
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        actionBus.post(new GetStoriesAction(true, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        fetched == [[1, 2, 3, 4, 5], [6]]
+        storyBundles[0].changes == null
+        storyBundles[1]*.id == [6, 2, 1, 3, 5]
+        storyBundles[1][1].is(storyBundles[0][1])
+        storyBundles[1][2].is(storyBundles[0][0])
+        storyBundles[1].changes.baseIds as List == [1, 2, 3, 4, 5]
+        storyBundles[1].changes.changes*.type == [StoryChanges.REMOVE, StoryChanges.MOVE, StoryChanges.INSERT]
+    }
+
+    def "on GetStoriesAction - drops queued pages when a refresh supersedes them"() {
+        given:
+        apiHasStoriesOfCount 500
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+        List<StoryBundle> storyBundles = []
+        dataBus.events(StoryBundle)
+                .observeOn(scheduler)
+                .subscribe(new Action1<StoryBundle>() {
+
+            @Override
+            void call(StoryBundle stories) {
+                storyBundles.add(stories)
+            }
+        })
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 15))
+        actionBus.post(new GetStoriesAction(false, 15))
+        actionBus.post(new GetStoriesAction(true, 10))
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        storyBundles.size() == 2
+        storyBundles[0]*.id == (1..10).toList()
+        storyBundles[1]*.id == (11..15).toList()
+    }
+
+    def "on GetStoriesAction - a refresh interrupts the page being fetched and drops its result"() {
+        given:
+        def latency = 500
+        def slowApi = new LatencyHackerNewsApi(latency, 20)
+        def _ = new StoriesStore(actionBus, dataBus, Schedulers.newThread(), slowApi, new ItemCache(scheduler))
+        def storyBundles = new LinkedBlockingQueue<StoryBundle>()
+        dataBus.events(StoryBundle).subscribe(new Action1<StoryBundle>() {
+
+            @Override
+            void call(StoryBundle stories) {
+                storyBundles.add(stories)
+            }
+        })
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 10))
+        Thread.sleep(latency / 5 as long)
+        def start = System.currentTimeMillis()
+        actionBus.post(new GetStoriesAction(true, 5))
+        def refreshed = storyBundles.poll(5, TimeUnit.SECONDS)
+        def elapsed = System.currentTimeMillis() - start
+        Thread.sleep(latency)
+
+        then:
+        refreshed*.id == (1..5).toList()
+        elapsed < latency * 1.5
+        storyBundles.isEmpty()
+    }
+
+    def "on GetStoriesAction - fetches the first page as visible and later pages as prefetch"() {
+        given:
+        // New stories on the refresh, as the ones already shown come from the cache
+        api.topStories >>> [(1..20).toList(), (21..40).toList()]
+        List<HackerNewsApi.Priority> priorities = []
+        def items = { args ->
+            int[] ids = args[0]
+            priorities << args[1]
+            ids.collect { int id ->
+                HackerNewsApi.Item story = new HackerNewsApi.Item()
+                story.id = id
+                return story
+            } as HackerNewsApi.Item[]
+        }
+        api.getItems(_ as int[], _) >> { args -> items(args) }
+        api.refreshItems(_ as int[], _) >> { args -> items(args) }
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, api)
+
+        when:
+        actionBus.post(new GetStoriesAction(false, 5))
+        actionBus.post(new GetStoriesAction(false, 5))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+        actionBus.post(new GetStoriesAction(true, 5))
+        actionBus.post(new OpenStoryAction(40))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        priorities.sort() == [HackerNewsApi.Priority.VISIBLE, HackerNewsApi.Priority.VISIBLE,
+                HackerNewsApi.Priority.VISIBLE, HackerNewsApi.Priority.PREFETCH]
+    }
+
+    def "on GetStoriesAction - fetches a page in one batch and keeps the top stories order"() {
+        given:
+        def count = 8
+        def slowApi = new LatencyHackerNewsApi(0, count)
+        def _ = new StoriesStore(actionBus, dataBus, scheduler, slowApi, new ItemCache(scheduler))
+        AtomicReference<StoryBundle> storyBundle = new AtomicReference<>()
+        dataBus.events(StoryBundle)
+                .observeOn(scheduler)
+                .subscribe(new Action1<StoryBundle>() {
+
+            @Override
+            void call(StoryBundle stories) {
+                storyBundle.set(stories)
+            }
+        })
+
+        when:
+        actionBus.post(new GetStoriesAction(false, count))
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
+
+        then:
+        storyBundle.get() != null
+        storyBundle.get().size() == count
+        storyBundle.get().eachWithIndex { Story story, i ->
+            assert story.id == i + 1
+        }
+        slowApi.batches == [(1..count).toList()]
+    }
+
     def "on OpenStoryAction - emit Story"() {
         given:
-        def testStory = new HackerNewsApi.Story()
-        testStory.id = 1
+        def testStory = new HackerNewsApi.Item()
+        testStory.id = STORY_ID
         testStory.title = "Test"
         testStory.kids = [1, 2, 3, 4, 5]
         apiHasStory testStory
@@ -233,12 +524,12 @@ class StoriesStoreTest extends Specification {
         });
 
         when:
-        actionBus.post(new OpenStoryAction(1))
+        actionBus.post(new OpenStoryAction(STORY_ID))
         scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
 
         then:
         outputStory.get() != null
-        outputStory.get().id == 1
+        outputStory.get().id == STORY_ID
         outputStory.get().title == "Test"
         outputStory.get().comments.size() == 10 // Each comment has 1 reply 5 * 2
         (1..5).eachWithIndex { Integer id, i ->
@@ -255,8 +546,8 @@ class StoriesStoreTest extends Specification {
 
     def "on OpenStoryAction - emit Story, limits latest 10 comments"() {
         given:
-        def testStory = new HackerNewsApi.Story()
-        testStory.id = 1
+        def testStory = new HackerNewsApi.Item()
+        testStory.id = STORY_ID
         testStory.title = "Test"
         testStory.kids = [1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12]
         apiHasStory testStory // Each comment has a reply
@@ -273,12 +564,12 @@ class StoriesStoreTest extends Specification {
         });
 
         when:
-        actionBus.post(new OpenStoryAction(1))
+        actionBus.post(new OpenStoryAction(STORY_ID))
         scheduler.advanceTimeBy(5, TimeUnit.SECONDS)
 
         then:
         outputStory.get() != null
-        outputStory.get().id == 1
+        outputStory.get().id == STORY_ID
         outputStory.get().title == "Test"
         outputStory.get().comments.size() == 20 // Each comment has 1 reply 5 * 2
         (1..10).eachWithIndex { Integer id, i ->
@@ -293,18 +584,33 @@ class StoriesStoreTest extends Specification {
         }
     }
 
-    def apiHasStory(HackerNewsApi.Story story) {
-        api.getStory(_ as Integer) >> story
-        api.getComment(_ as Integer) >> { Integer id ->
-            HackerNewsApi.Comment comment = new HackerNewsApi.Comment()
-            comment.id = id
-            comment.text = "Comment #" + id
-            if (id <= 1000) {
-                def prefix = id * 1000
-                comment.kids = [prefix + 1, prefix + 2]
-            }
-            return comment
+    def apiHasStory(HackerNewsApi.Item story) {
+        def items = { args ->
+            int[] ids = args[0]
+            ids.collect { int id ->
+                if (id == story.id) {
+                    return story
+                }
+                HackerNewsApi.Item comment = new HackerNewsApi.Item()
+                comment.id = id
+                comment.text = "Comment #" + id
+                if (id <= 1000) {
+                    def prefix = id * 1000
+                    comment.kids = [prefix + 1, prefix + 2]
+                }
+                return comment
+            } as HackerNewsApi.Item[]
         }
+        api.getItems(_ as int[], _) >> { args -> items(args) }
+        api.refreshItems(_ as int[], _) >> { args -> items(args) }
+    }
+
+    static HackerNewsApi.Item updated(int id, int score) {
+        def story = new HackerNewsApi.Item()
+        story.id = id
+        story.title = "STORY_END #" + id
+        story.score = score
+        return story
     }
 
     def apiHasStoriesOfCount(int count) {
@@ -313,11 +619,75 @@ class StoriesStoreTest extends Specification {
             stories.add(it)
         }
         api.topStories >> stories
-        api.getStory(_ as Integer) >> { Integer id ->
-            HackerNewsApi.Story story = new HackerNewsApi.Story()
-            story.id = id
-            story.title = "STORY_END #" + id
-            return story
+        def items = { args ->
+            int[] ids = args[0]
+            ids.collect { int id ->
+                HackerNewsApi.Item story = new HackerNewsApi.Item()
+                story.id = id
+                story.title = "STORY_END #" + id
+                return story
+            } as HackerNewsApi.Item[]
+        }
+        api.getItems(_ as int[], _) >> { args -> items(args) }
+        api.refreshItems(_ as int[], _) >> { args -> items(args) }
+    }
+
+    static class LatencyHackerNewsApi implements HackerNewsApi {
+
+        final long latency
+        final List<Integer> topStories
+        final List<List<Integer>> batches = [].asSynchronized()
+
+        LatencyHackerNewsApi(long latency, int count) {
+            this.latency = latency
+            this.topStories = (1..count).toList()
+        }
+
+        @Override
+        List<Integer> getTopStories() {
+            return topStories
+        }
+
+        @Override
+        HackerNewsApi.Updates getUpdates() {
+            return new HackerNewsApi.Updates()
+        }
+
+        @Override
+        int getMaxItem() {
+            return topStories.size()
+        }
+
+        @Override
+        HackerNewsApi.Item getItem(int id) {
+            return getItems([id] as int[])[0]
+        }
+
+        @Override
+        HackerNewsApi.Item[] getItems(int[] ids) {
+            return getItems(ids, HackerNewsApi.Priority.VISIBLE)
+        }
+
+        @Override
+        HackerNewsApi.Item[] refreshItems(int[] ids, HackerNewsApi.Priority priority) {
+            return getItems(ids, priority)
+        }
+
+        @Override
+        HackerNewsApi.Item[] getItems(int[] ids, HackerNewsApi.Priority priority) {
+            // A batch is fanned out, so it costs a single round-trip
+            batches << (ids as List)
+            try {
+                Thread.sleep(latency)
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e)
+            }
+            return ids.collect { int id ->
+                def item = new HackerNewsApi.Item()
+                item.id = id
+                item.title = "STORY_END #" + id
+                return item
+            } as HackerNewsApi.Item[]
         }
     }
 }
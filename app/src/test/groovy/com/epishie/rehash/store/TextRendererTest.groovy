@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store
+
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+class TextRendererTest extends Specification {
+
+    def clock = new TestScheduler()
+    List<String> rendered = []
+    def renderer = { String html -> rendered << html; html.toUpperCase() } as TextRenderer.Renderer
+
+    def "render - renders a text once and serves it again from the cache"() {
+        given:
+        def textRenderer = new TextRenderer(renderer, clock)
+
+        when:
+        def first = textRenderer.render(1, "a")
+        def second = textRenderer.render(1, "a")
+
+        then:
+        first == "A"
+        second.is(first)
+        rendered == ["a"]
+        textRenderer.renderCount == 1
+        textRenderer.hitCount == 1
+    }
+
+    def "render - renders the text again when the text of the item changed"() {
+        given:
+        def textRenderer = new TextRenderer(renderer, clock)
+
+        when:
+        textRenderer.render(1, "a")
+        def text = textRenderer.render(1, "b")
+
+        then:
+        text == "B"
+        rendered == ["a", "b"]
+    }
+
+    def "render - evicts the least recently rendered texts past the byte limit"() {
+        given:
+        def textRenderer = new TextRenderer(renderer, 100, 300, clock)
+        def html = "x" * 20
+
+        when:
+        (1..5).each { textRenderer.render(it, html) }
+        textRenderer.render(5, html)
+        textRenderer.render(1, html)
+
+        then:
+        textRenderer.bytes <= 300
+        rendered.size() == 6
+    }
+}
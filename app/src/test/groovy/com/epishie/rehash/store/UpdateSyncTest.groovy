@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.store
+
+import com.epishie.rehash.api.CachingHackerNewsApi
+import com.epishie.rehash.api.HackerNewsApi
+import com.epishie.rehash.api.HttpCacheClientTest
+import com.epishie.rehash.api.ItemStore
+import com.epishie.rehash.api.RetrofitHackerNewsApi
+import com.epishie.rehash.bus.RxEventBus
+import com.epishie.rehash.model.ItemUpdates
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import retrofit.client.UrlConnectionClient
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class UpdateSyncTest extends Specification {
+
+    @Rule
+    TemporaryFolder folder = new TemporaryFolder()
+    def server = new HttpCacheClientTest.StubServer()
+    def executor = Executors.newFixedThreadPool(4)
+    def scheduler = new TestScheduler()
+    def cache = new ItemCache(scheduler)
+    def dataBus = new RxEventBus()
+    List<ItemUpdates> posted = []
+    HackerNewsApi api
+    UpdateSync sync
+
+    def setup() {
+        server.start()
+        api = new RetrofitHackerNewsApi(new UrlConnectionClient(), executor, 4, "http://localhost:" + server.port)
+        sync = new UpdateSync(api, cache, dataBus, scheduler, 1000)
+        dataBus.events(ItemUpdates).subscribe { posted << it }
+        server.serve("/v0/maxitem.json", "9000", [:])
+    }
+
+    def cleanup() {
+        server.stop()
+        executor.shutdown()
+    }
+
+    def "poll() fetches the cached items that changed and posts them"() {
+        given:
+        cache.put(1, item(1, "story", "Old title", 10))
+        cache.put(2, item(2, "comment", "Old text", 0))
+        server.serve("/v0/updates.json", '{"items":[1,2,3],"profiles":["pg"]}', [:])
+        server.serve("/v0/item/1.json", '{"id":1,"type":"story","title":"New title","score":42,"kids":[2]}', [:])
+        server.serve("/v0/item/2.json", '{"id":2,"type":"comment","text":"New text","parent":1}', [:])
+
+        when:
+        sync.poll()
+
+        then:
+        server.requests*.path.sort() == ["/v0/item/1.json", "/v0/item/2.json", "/v0/maxitem.json", "/v0/updates.json"]
+        cache.get(1, HackerNewsApi.Item).score == 42
+        cache.get(2, HackerNewsApi.Item).text == "New text"
+        posted.size() == 1
+        posted[0].stories*.id == [1]
+        posted[0].stories[0].title == "New title"
+        posted[0].stories[0].score == 42
+        posted[0].comments*.id == [2]
+        posted[0].comments[0].text == "New text"
+        posted[0].maxItem == 9000
+        sync.fetchCount == 2
+    }
+
+    def "poll() fetches an item again only when it newly appears in the updates"() {
+        given:
+        cache.put(1, item(1, "story", "Title", 10))
+        server.serve("/v0/updates.json", '{"items":[1]}', [:])
+        server.serve("/v0/item/1.json", '{"id":1,"type":"story","title":"Title","score":11}', [:])
+
+        when:
+        sync.poll()
+        sync.poll()
+        server.serve("/v0/updates.json", '{"items":[5]}', [:])
+        sync.poll()
+        server.serve("/v0/updates.json", '{"items":[5,1]}', [:])
+        sync.poll()
+
+        then:
+        server.requests*.path.count("/v0/item/1.json") == 2
+        posted.size() == 2
+        sync.pollCount == 4
+    }
+
+    def "poll() drops cached items that no longer exist"() {
+        given:
+        cache.put(1, item(1, "story", "Title", 10))
+        server.serve("/v0/updates.json", '{"items":[1]}', [:])
+        server.serve("/v0/item/1.json", 'null', [:])
+
+        when:
+        sync.poll()
+
+        then:
+        !cache.contains(1)
+        posted.isEmpty()
+    }
+
+    def "poll() replaces the records kept on disk by a caching api"() {
+        given:
+        def store = new ItemStore(folder.newFolder("items"))
+        def cachingApi = new CachingHackerNewsApi(api, store, scheduler, 60 * 1000)
+        def caching = new UpdateSync(cachingApi, cache, dataBus, scheduler, 1000)
+        server.serve("/v0/item/1.json", '{"id":1,"type":"story","title":"Old title","score":10}', [:])
+        cache.put(1, cachingApi.getItem(1))
+        server.serve("/v0/updates.json", '{"items":[1]}', [:])
+        server.serve("/v0/item/1.json", '{"id":1,"type":"story","title":"New title","score":42}', [:])
+
+        when:
+        caching.poll()
+
+        then:
+        store.readItem(1).title == "New title"
+        cachingApi.getItem(1).score == 42
+        cache.get(1, HackerNewsApi.Item).score == 42
+    }
+
+    def "poll() posts the updated stories through the stories store"() {
+        given:
+        def stories = Mock(StoriesStore)
+        def through = new UpdateSync(api, cache, dataBus, scheduler, 1000, null, stories)
+        cache.put(1, item(1, "story", "Old title", 10))
+        cache.put(2, item(2, "comment", "Old text", 0))
+        server.serve("/v0/updates.json", '{"items":[1,2]}', [:])
+        server.serve("/v0/item/1.json", '{"id":1,"type":"story","title":"New title","score":42}', [:])
+        server.serve("/v0/item/2.json", '{"id":2,"type":"comment","text":"New text","parent":1}', [:])
+
+        when:
+        through.poll()
+
+        then:
+        1 * stories.postUpdates({ it*.id == [1] && it[0].score == 42 }, { it*.id == [2] }, 9000) >> true
+        posted.isEmpty()
+        through.postCount == 1
+    }
+
+    def "polls periodically while started at least once"() {
+        given:
+        def stubApi = Stub(HackerNewsApi)
+        stubApi.updates >> new HackerNewsApi.Updates()
+        def periodic = new UpdateSync(stubApi, cache, dataBus, scheduler, 1000)
+
+        when:
+        periodic.start()
+        periodic.start()
+        scheduler.advanceTimeBy(2500, TimeUnit.MILLISECONDS)
+        periodic.stop()
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS)
+
+        then:
+        periodic.pollCount == 4
+
+        when:
+        periodic.stop()
+        scheduler.advanceTimeBy(5000, TimeUnit.MILLISECONDS)
+
+        then:
+        periodic.pollCount == 4
+    }
+
+    static HackerNewsApi.Item item(int id, String type, String text, int score) {
+        def item = new HackerNewsApi.Item()
+        item.id = id
+        item.type = type
+        item.title = text
+        item.text = text
+        item.score = score
+        return item
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+class IntLruCacheTest extends Specification {
+
+    def "put() and get() map keys to values"() {
+        given:
+        def cache = new IntLruCache<String>(2)
+
+        when:
+        cache.put(10486541, "story")
+
+        then:
+        cache.get(10486541) == "story"
+        cache.get(10486542) == null
+        cache.size() == 1
+    }
+
+    def "put() evicts the least recently used entry when full"() {
+        given:
+        def cache = new IntLruCache<String>(2)
+        cache.put(1, "a")
+        cache.put(2, "b")
+        cache.get(1)
+
+        when:
+        cache.put(3, "c")
+
+        then:
+        cache.get(1) == "a"
+        cache.get(2) == null
+        cache.get(3) == "c"
+        cache.size() == 2
+    }
+
+    def "put() replaces the value of a key, and a null value removes it"() {
+        given:
+        def cache = new IntLruCache<String>(2)
+        cache.put(1, "a")
+
+        when:
+        cache.put(1, "b")
+
+        then:
+        cache.get(1) == "b"
+        cache.size() == 1
+
+        when:
+        cache.put(1, null)
+
+        then:
+        cache.get(1) == null
+        cache.size() == 0
+    }
+
+    def "remove() and clear() drop entries"() {
+        given:
+        def cache = new IntLruCache<String>(3)
+        (1..3).each { cache.put(it, "v" + it) }
+
+        when:
+        cache.remove(2)
+
+        then:
+        cache.get(2) == null
+        cache.size() == 2
+
+        when:
+        cache.clear()
+        cache.put(4, "v4")
+
+        then:
+        cache.size() == 1
+        cache.get(4) == "v4"
+    }
+}
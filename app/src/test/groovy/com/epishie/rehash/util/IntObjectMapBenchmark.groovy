@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import groovy.transform.CompileStatic
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares IntObjectMap with HashMap on ids shaped like a Hacker News thread: a story id followed
+ * by mostly increasing comment ids with small gaps. Run with REHASH_BENCHMARK=1.
+ */
+@Requires({ env["REHASH_BENCHMARK"] })
+class IntObjectMapBenchmark extends Specification {
+
+    static final int THREAD_SIZE = 1500
+    static final int ITERATIONS = 2000
+    static final int WARMUP = 500
+
+    def "IntObjectMap allocates less and is not slower than HashMap"() {
+        given:
+        int[] ids = threadIds(THREAD_SIZE, new Random(42))
+
+        when:
+        WARMUP.times { runHashMap(ids); runIntObjectMap(ids) }
+        def hashMap = measure { runHashMap(ids) }
+        def intObjectMap = measure { runIntObjectMap(ids) }
+        println String.format("HashMap:      %8.1f us/op %10d bytes/op", hashMap[0] / 1000d, hashMap[1])
+        println String.format("IntObjectMap: %8.1f us/op %10d bytes/op", intObjectMap[0] / 1000d, intObjectMap[1])
+
+        then:
+        intObjectMap[1] < hashMap[1]
+        intObjectMap[0] <= hashMap[0] * 1.1
+    }
+
+    static long[] measure(Closure run) {
+        def threads = (com.sun.management.ThreadMXBean) ManagementFactory.threadMXBean
+        long threadId = Thread.currentThread().id
+        long bytes = threads.getThreadAllocatedBytes(threadId)
+        long start = System.nanoTime()
+        ITERATIONS.times { run() }
+        long time = System.nanoTime() - start
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes
+        return [time / ITERATIONS, bytes / ITERATIONS] as long[]
+    }
+
+    @CompileStatic
+    static int runHashMap(int[] ids) {
+        Map<Integer, Object> map = new HashMap<Integer, Object>()
+        for (int id : ids) {
+            map.put(id, ids)
+        }
+        int hits = 0
+        for (int round = 0; round < 4; round++) {
+            for (int id : ids) {
+                if (map.get(id) != null) {
+                    hits++
+                }
+            }
+        }
+        return hits
+    }
+
+    @CompileStatic
+    static int runIntObjectMap(int[] ids) {
+        IntObjectMap<Object> map = new IntObjectMap<Object>()
+        for (int id : ids) {
+            map.put(id, ids)
+        }
+        int hits = 0
+        for (int round = 0; round < 4; round++) {
+            for (int id : ids) {
+                if (map.get(id) != null) {
+                    hits++
+                }
+            }
+        }
+        return hits
+    }
+
+    @CompileStatic
+    static int[] threadIds(int size, Random random) {
+        int[] ids = new int[size]
+        int id = 10486541
+        for (int i = 0; i < size; i++) {
+            // Comments on a busy thread arrive a few dozen ids apart, with the occasional long gap
+            id += random.nextInt(10) == 0 ? 200 + random.nextInt(2000) : 1 + random.nextInt(40)
+            ids[i] = id
+        }
+        return ids
+    }
+}
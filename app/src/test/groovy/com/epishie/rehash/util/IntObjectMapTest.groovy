@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+class IntObjectMapTest extends Specification {
+
+    def "put() and get() map keys to values"() {
+        given:
+        def map = new IntObjectMap<String>()
+
+        when:
+        def previous = map.put(10486541, "story")
+
+        then:
+        previous == null
+        map.get(10486541) == "story"
+        map.get(10486542) == null
+        map.containsKey(10486541)
+        map.size() == 1
+    }
+
+    def "put() replaces value of existing key"() {
+        given:
+        def map = new IntObjectMap<String>()
+        map.put(1, "a")
+
+        when:
+        def previous = map.put(1, "b")
+
+        then:
+        previous == "a"
+        map.get(1) == "b"
+        map.size() == 1
+    }
+
+    def "key 0 is supported"() {
+        given:
+        def map = new IntObjectMap<String>()
+
+        when:
+        map.put(0, "zero")
+
+        then:
+        map.get(0) == "zero"
+        map.containsKey(0)
+        map.size() == 1
+        map.remove(0) == "zero"
+        !map.containsKey(0)
+        map.isEmpty()
+    }
+
+    def "map grows past its initial capacity"() {
+        given:
+        def map = new IntObjectMap<Integer>(2)
+
+        when:
+        (1..1000).each { map.put(it, it * 2) }
+
+        then:
+        map.size() == 1000
+        (1..1000).every { map.get(it) == it * 2 }
+    }
+
+    def "remove() keeps colliding keys reachable"() {
+        given:
+        def map = new IntObjectMap<Integer>()
+        def reference = new HashMap<Integer, Integer>()
+        def random = new Random(42)
+
+        when:
+        10000.times {
+            int key = 10486541 + random.nextInt(2000)
+            if (random.nextInt(3) == 0) {
+                assert map.remove(key) == reference.remove(key)
+            } else {
+                assert map.put(key, it) == reference.put(key, it)
+            }
+        }
+
+        then:
+        map.size() == reference.size()
+        (10486541..10488541).every { map.get(it) == reference.get(it) }
+    }
+
+    def "clear() removes all entries"() {
+        given:
+        def map = new IntObjectMap<String>()
+        map.put(0, "zero")
+        map.put(1, "one")
+
+        when:
+        map.clear()
+
+        then:
+        map.isEmpty()
+        map.get(0) == null
+        map.get(1) == null
+    }
+}
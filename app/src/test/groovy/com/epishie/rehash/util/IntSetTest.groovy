@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+class IntSetTest extends Specification {
+
+    def "add() adds a value once"() {
+        given:
+        def set = new IntSet()
+
+        expect:
+        set.add(10486541)
+        !set.add(10486541)
+        set.add(0)
+        set.contains(10486541)
+        set.contains(0)
+        !set.contains(10486542)
+        set.size() == 2
+    }
+
+    def "remove() removes only the values in the set"() {
+        given:
+        def set = new IntSet(4)
+        (1..100).each { set.add(it) }
+
+        expect:
+        set.remove(50)
+        !set.remove(50)
+        !set.contains(50)
+        set.size() == 99
+
+        when:
+        set.clear()
+
+        then:
+        set.isEmpty()
+        !set.contains(1)
+    }
+}
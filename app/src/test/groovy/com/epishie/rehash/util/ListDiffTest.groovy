@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+class ListDiffTest extends Specification {
+
+    // Items are [id, content] pairs
+    def callback = new ListDiff.Callback<List<Integer>>() {
+
+        @Override
+        int getId(List<Integer> item) {
+            return item[0]
+        }
+
+        @Override
+        boolean isSameContent(List<Integer> oldItem, List<Integer> newItem) {
+            return oldItem[1] == newItem[1]
+        }
+    }
+
+    def "diff - applied to the base gives the target"() {
+        given:
+        def base = items(baseIds)
+        def target = items(targetIds)
+
+        when:
+        def diff = ListDiff.diff(base, target, callback)
+
+        then:
+        diff.baseIds as List == baseIds
+        apply(base, diff, target) == target
+
+        where:
+        baseIds            | targetIds
+        []                 | []
+        []                 | [1, 2, 3]
+        [1, 2, 3]          | []
+        [1, 2, 3]          | [3, 1, 2]
+        [1, 2, 3, 4, 5, 6] | [6, 5, 4, 3, 2, 1]
+        [1, 2, 3, 4]       | [5, 2, 6, 4, 1]
+        [1, 2, 3, 4, 5]    | [7, 4, 2, 6, 5, 1]
+        [1, 2, 3, 4, 5, 6] | [2, 8, 4, 1, 6, 7, 3]
+    }
+
+    def "diff - only moves the items of a reordered list"() {
+        when:
+        def diff = ListDiff.diff(items([1, 2, 3, 4]), items([2, 1, 3, 4]), callback)
+
+        then:
+        diff.changes*.type == [ListDiff.MOVE]
+        diff.changes[0].from == 1
+        diff.changes[0].to == 0
+    }
+
+    def "diff - moves only the item that fell to the end"() {
+        when:
+        def diff = ListDiff.diff(items([1, 2, 3, 4]), items([2, 3, 4, 1]), callback)
+
+        then:
+        diff.changes*.type == [ListDiff.MOVE]
+        diff.changes[0].from == 0
+        diff.changes[0].to == 3
+    }
+
+    def "diff - moves only the items off the longest run in order"() {
+        when:
+        def diff = ListDiff.diff(items([1, 2, 3, 4, 5, 6]), items([4, 1, 2, 6, 3, 5]), callback)
+
+        then:
+        diff.changes*.type == [ListDiff.MOVE, ListDiff.MOVE]
+    }
+
+    def "diff - changes only the items whose content differs"() {
+        given:
+        def base = [[1, 0], [2, 0], [3, 0]]
+        def target = [[1, 0], [2, 1], [3, 0]]
+
+        when:
+        def diff = ListDiff.diff(base, target, callback)
+
+        then:
+        diff.changes*.type == [ListDiff.CHANGE]
+        diff.changes[0].to == 1
+    }
+
+    def "diff - appends the items added at the end"() {
+        when:
+        def diff = ListDiff.diff(items([1, 2]), items([1, 2, 3, 4]), callback)
+
+        then:
+        diff.changes*.type == [ListDiff.INSERT, ListDiff.INSERT]
+        diff.changes*.to == [2, 3]
+    }
+
+    def items(List<Integer> ids) {
+        ids.collect { [it, 0] }
+    }
+
+    def apply(List<List<Integer>> base, ListDiff diff, List<List<Integer>> target) {
+        List<List<Integer>> items = new ArrayList<>(base)
+        diff.changes.each { ListDiff.Change change ->
+            switch (change.type) {
+                case ListDiff.REMOVE:
+                    items.remove(change.from)
+                    break
+                case ListDiff.INSERT:
+                    items.add(change.to, target[change.to])
+                    break
+                case ListDiff.MOVE:
+                    items.add(change.to, items.remove(change.from))
+                    break
+                case ListDiff.CHANGE:
+                    items.set(change.to, target[change.to])
+                    break
+            }
+        }
+        return items
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+
+class MpscLinkedQueueTest extends Specification {
+
+    def queue = new MpscLinkedQueue<Integer>()
+
+    def "poll() returns elements in the order they were offered"() {
+        when:
+        queue.offer(1)
+        queue.offer(2)
+        queue.offer(3)
+
+        then:
+        queue.poll() == 1
+        queue.poll() == 2
+        queue.poll() == 3
+        queue.poll() == null
+    }
+
+    def "poll() returns null when empty and resumes after offer()"() {
+        expect:
+        queue.poll() == null
+
+        when:
+        queue.offer(1)
+
+        then:
+        queue.poll() == 1
+        queue.poll() == null
+    }
+
+    def "offer() rejects null"() {
+        when:
+        queue.offer(null)
+
+        then:
+        thrown(NullPointerException)
+    }
+
+    def "poll() receives every element offered by concurrent producers in per-producer order"() {
+        given:
+        def producers = 4
+        def count = 50000
+        def start = new CountDownLatch(1)
+        def threads = (0..<producers).collect { int producer ->
+            Thread.start {
+                start.await()
+                for (int i = 0; i < count; i++) {
+                    queue.offer(producer * count + i)
+                }
+            }
+        }
+
+        when:
+        start.countDown()
+        int[] last = new int[producers]
+        Arrays.fill(last, -1)
+        int received = 0
+        while (received < producers * count) {
+            Integer value = queue.poll()
+            if (value == null) {
+                continue
+            }
+            int producer = value.intValue() / count
+            assert value % count > last[producer]
+            last[producer] = value % count
+            received++
+        }
+        threads*.join()
+
+        then:
+        received == producers * count
+        queue.poll() == null
+    }
+}
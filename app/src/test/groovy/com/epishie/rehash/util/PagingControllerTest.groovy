@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class PagingControllerTest extends Specification {
+
+    def clock = new TestScheduler()
+    def paging = new PagingController(5, 30, 3, 15, 800, clock)
+
+    def "starts with the smallest page size and fetch offset"() {
+        expect:
+        paging.pageSize == 5
+        paging.fetchOffset == 3
+        paging.pageLatency < 0
+    }
+
+    def "grows pages on a fast link and shrinks them on a slow one"() {
+        when:
+        5.times { loadPage(100) }
+
+        then:
+        paging.pageSize == 30
+        paging.pageLatency == 100
+
+        when:
+        10.times { loadPage(3000) }
+
+        then:
+        paging.pageSize == 5
+        paging.adjustmentCount >= 2
+        paging.pageCount == 15
+    }
+
+    def "stops growing pages once they take longer than the target page time"() {
+        when:
+        // Pages load in parallel, with a little more time for each item
+        20.times { loadPage(600 + 10 * paging.pageSize) }
+
+        then:
+        paging.pageSize >= 15
+        paging.pageSize < 30
+    }
+
+    def "requests the next page earlier the faster the list is scrolled"() {
+        given:
+        loadPage(1000)
+        def idleOffset = paging.fetchOffset
+
+        when:
+        scroll(0, 20, 100)
+
+        then:
+        idleOffset == 3
+        paging.scrollVelocity > 5
+        paging.fetchOffset > idleOffset
+        paging.fetchOffset <= 15
+
+        when:
+        10.times { paging.onScrollStopped() }
+
+        then:
+        paging.fetchOffset == idleOffset
+    }
+
+    def "does not measure pages it did not request"() {
+        when:
+        paging.onPageLoaded(0)
+        def request = paging.onPageRequested()
+        clock.advanceTimeBy(500, TimeUnit.MILLISECONDS)
+        paging.onPageLoaded(request)
+        paging.onPageLoaded(request)
+
+        then:
+        paging.pageCount == 1
+        paging.pageLatency == 500
+    }
+
+    def "does not take a page replayed from an earlier request for the pending one"() {
+        given:
+        def earlier = paging.onPageRequested()
+        clock.advanceTimeBy(500, TimeUnit.MILLISECONDS)
+        paging.onPageLoaded(earlier)
+
+        when:
+        def request = paging.onPageRequested()
+        paging.onPageLoaded(earlier)
+        clock.advanceTimeBy(2000, TimeUnit.MILLISECONDS)
+        paging.onPageLoaded(request)
+
+        then:
+        request != earlier
+        paging.pageCount == 2
+        paging.pageLatency == 500 + 0.3 * (2000 - 500)
+    }
+
+    def "ignores scroll pauses between gestures"() {
+        when:
+        paging.onScrolled(0)
+        clock.advanceTimeBy(5, TimeUnit.SECONDS)
+        paging.onScrolled(100)
+
+        then:
+        paging.scrollVelocity == 0
+    }
+
+    def loadPage(long millis) {
+        def request = paging.onPageRequested()
+        clock.advanceTimeBy(millis, TimeUnit.MILLISECONDS)
+        paging.onPageLoaded(request)
+    }
+
+    def scroll(int from, int to, long millisPerItem) {
+        (from..to).each {
+            paging.onScrolled(it)
+            clock.advanceTimeBy(millisPerItem / 2 as long, TimeUnit.MILLISECONDS)
+            paging.onScrolled(it)
+            clock.advanceTimeBy(millisPerItem / 2 as long, TimeUnit.MILLISECONDS)
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+import rx.functions.Action0
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SchedulerServiceTest extends Specification {
+
+    def service = new SchedulerService(2, 1, 1, 1)
+
+    def cleanup() {
+        service.shutdown()
+    }
+
+    def "pools run tasks on threads named after them"() {
+        given:
+        def names = []
+        def latch = new CountDownLatch(4)
+        def record = { names << Thread.currentThread().name; latch.countDown() }
+
+        when:
+        service.io().createWorker().schedule(record as Action0)
+        service.background().createWorker().schedule(record as Action0)
+        service.computation().createWorker().schedule(record as Action0)
+        service.idle().createWorker().schedule(record as Action0)
+
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+        names.sort() == ["rehash-background-1", "rehash-computation-1", "rehash-idle-1", "rehash-io-1"]
+    }
+
+    def "the idle pool runs tasks at the lowest priority"() {
+        given:
+        def priorities = [:].asSynchronized()
+        def latch = new CountDownLatch(2)
+
+        when:
+        service.background().createWorker().schedule({
+            priorities.background = Thread.currentThread().priority
+            latch.countDown()
+        } as Action0)
+        service.idle().createWorker().schedule({
+            priorities.idle = Thread.currentThread().priority
+            latch.countDown()
+        } as Action0)
+
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+        priorities.background == Thread.NORM_PRIORITY
+        priorities.idle == Thread.MIN_PRIORITY
+    }
+
+    def "the io pool runs no more tasks at once than it has threads"() {
+        given:
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def latch = new CountDownLatch(8)
+
+        when:
+        8.times {
+            service.ioExecutor().execute {
+                int count = running.incrementAndGet()
+                maxRunning.accumulateAndGet(count, { a, b -> Math.max(a, b) })
+                Thread.sleep(20)
+                running.decrementAndGet()
+                latch.countDown()
+            }
+        }
+
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+        maxRunning.get() == 2
+        service.ioPool.largestPoolSize == 2
+    }
+
+    def "a worker runs its tasks one at a time and in order"() {
+        given:
+        def order = Collections.synchronizedList([])
+        def running = new AtomicInteger()
+        def overlapped = false
+        def latch = new CountDownLatch(5)
+        def worker = service.io().createWorker()
+
+        when:
+        5.times { i ->
+            worker.schedule({
+                if (running.incrementAndGet() > 1) {
+                    overlapped = true
+                }
+                Thread.sleep(5)
+                order << i
+                running.decrementAndGet()
+                latch.countDown()
+            } as Action0)
+        }
+
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+        !overlapped
+        order == [0, 1, 2, 3, 4]
+    }
+
+    def "pools report the time spent running tasks"() {
+        given:
+        def latch = new CountDownLatch(1)
+
+        when:
+        service.computation().createWorker().schedule({ Thread.sleep(50); latch.countDown() } as Action0)
+        latch.await(5, TimeUnit.SECONDS)
+        // afterExecute runs once the task has returned
+        Thread.sleep(50)
+
+        then:
+        service.computationPool.busyTime >= TimeUnit.MILLISECONDS.toNanos(50)
+        service.computationPool.completedTaskCount == 1
+        service.computationPool.utilization > 0
+        service.computationPool.utilization <= 1
+        service.ioPool.busyTime == 0
+        service.ioPool.utilization == 0
+    }
+}
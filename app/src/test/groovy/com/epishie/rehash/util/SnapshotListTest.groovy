@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import spock.lang.Specification
+
+class SnapshotListTest extends Specification {
+
+    def "snapshot() holds the items added before it was taken"() {
+        given:
+        def list = new SnapshotList<Integer>()
+        list.addAll([1, 2, 3])
+
+        when:
+        def before = list.snapshot()
+        (4..40).each { list.add(it) }
+        def after = list.snapshot()
+
+        then:
+        before == [1, 2, 3]
+        after == (1..40).toList()
+        list.size() == 40
+    }
+
+    def "snapshot() cannot be modified"() {
+        given:
+        def list = new SnapshotList<Integer>()
+        list.add(1)
+
+        when:
+        list.snapshot().add(2)
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "snapshot() rejects an index past the items it holds"() {
+        given:
+        def list = new SnapshotList<Integer>()
+        list.add(1)
+        def snapshot = list.snapshot()
+        list.add(2)
+
+        when:
+        snapshot.get(1)
+
+        then:
+        thrown(IndexOutOfBoundsException)
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Epishie
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.epishie.rehash.util
+
+import rx.schedulers.TestScheduler
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class TimeLabelsTest extends Specification {
+
+    def scheduler = new TestScheduler()
+    def formatter = { long time, long now -> ((now - time) / TimeLabels.MINUTE) + " minutes ago" } as TimeLabels.Formatter
+    def timeLabels = new TimeLabels(formatter, scheduler)
+
+    def "get - formats a minute once until it ends"() {
+        given:
+        scheduler.advanceTimeTo(10 * TimeLabels.MINUTE + 1000, TimeUnit.MILLISECONDS)
+
+        when:
+        def first = timeLabels.get(5 * TimeLabels.MINUTE)
+        def sameMinute = timeLabels.get(5 * TimeLabels.MINUTE + 30 * 1000)
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS)
+        def later = timeLabels.get(5 * TimeLabels.MINUTE)
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS)
+        def nextMinute = timeLabels.get(5 * TimeLabels.MINUTE)
+
+        then:
+        first == "5 minutes ago"
+        sameMinute.is(first)
+        later.is(first)
+        nextMinute == "6 minutes ago"
+        timeLabels.formatCount == 2
+    }
+
+    def "addListener - tells the listeners at the start of every minute until removed"() {
+        given:
+        scheduler.advanceTimeTo(20 * 1000, TimeUnit.MILLISECONDS)
+        List<Long> minutes = []
+        def listener = new TimeLabels.Listener() {
+
+            @Override
+            void onMinute() {
+                minutes << scheduler.now()
+            }
+        }
+
+        when:
+        timeLabels.addListener(listener)
+        scheduler.advanceTimeBy(3, TimeUnit.MINUTES)
+        timeLabels.removeListener(listener)
+        scheduler.advanceTimeBy(3, TimeUnit.MINUTES)
+
+        then:
+        minutes == [TimeLabels.MINUTE, 2 * TimeLabels.MINUTE, 3 * TimeLabels.MINUTE]
+        timeLabels.tickCount == 3
+    }
+}